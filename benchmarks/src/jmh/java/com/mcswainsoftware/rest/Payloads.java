@@ -0,0 +1,90 @@
+package com.mcswainsoftware.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * Builds response bodies of a given size for the benchmarks
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * The body of {@link #json(int)}, for the generated binder
+     */
+    @JsonModel
+    static class Page {
+        List<Item> items;
+    }
+
+    /**
+     * An item of {@link #json(int)}, for the generated binder
+     */
+    @JsonModel
+    static class Item {
+        int id;
+        String name;
+        double price;
+        boolean available;
+        List<String> tags;
+    }
+
+    /**
+     * Form a JSON body, an object holding an array of items under "items"
+     * @param size the size to reach, in bytes
+     * @return the body
+     */
+    static byte[] json(int size) {
+        StringBuilder json = new StringBuilder(size + 128);
+        json.append("{\"items\":[");
+        for (int i = 0; json.length() < size; i++) {
+            if (i != 0) json.append(',');
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"item ").append(i).append('"')
+                    .append(",\"price\":").append(i * 0.25)
+                    .append(",\"available\":").append(i % 3 != 0)
+                    .append(",\"tags\":[\"a\",\"b\",\"c\"]}");
+        }
+        json.append("]}");
+        return bytes(json);
+    }
+
+    /**
+     * Form an XML body, a root element holding item elements
+     * @param size the size to reach, in bytes
+     * @return the body
+     */
+    static byte[] xml(int size) {
+        StringBuilder xml = new StringBuilder(size + 128);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><items>");
+        for (int i = 0; xml.length() < size; i++) {
+            xml.append("<item id=\"").append(i).append("\"><name>item ").append(i)
+                    .append("</name><price>").append(i * 0.25).append("</price></item>");
+        }
+        xml.append("</items>");
+        return bytes(xml);
+    }
+
+    /**
+     * Form a plain text body of lines
+     * @param size the size to reach, in bytes
+     * @return the body
+     */
+    static byte[] text(int size) {
+        StringBuilder text = new StringBuilder(size + 64);
+        for (int i = 0; text.length() < size; i++) {
+            text.append("line ").append(i).append(" of a plain text response body\n");
+        }
+        return bytes(text);
+    }
+
+    private static byte[] bytes(CharSequence chars) {
+        try {
+            return chars.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
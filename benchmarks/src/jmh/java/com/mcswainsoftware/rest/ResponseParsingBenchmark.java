@@ -0,0 +1,89 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a buffered body into the response for each return type
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseParsingBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] json;
+
+    private byte[] xml;
+
+    private byte[] text;
+
+    private RestRequest jsonRequest;
+
+    private RestRequest textRequest;
+
+    private RestRequest binaryRequest;
+
+    private ResponseCodec<Payloads.Page> pageCodec;
+
+    @Setup
+    public void setUp() {
+        json = Payloads.json(size);
+        xml = Payloads.xml(size);
+        text = Payloads.text(size);
+        jsonRequest = new RestRequest("http://localhost/", RestRequest.RETURN_TYPE_JSON);
+        textRequest = new RestRequest("http://localhost/", RestRequest.RETURN_TYPE_PLAIN_TEXT);
+        binaryRequest = new RestRequest("http://localhost/", RestRequest.RETURN_TYPE_BINARY);
+        pageCodec = JsonBinders.codecFor(Payloads.Page.class);
+    }
+
+    @Benchmark
+    public Object parseJson() throws Exception {
+        return Rest.parse(jsonRequest, json, null).getContent();
+    }
+
+    @Benchmark
+    public int streamJson(final Blackhole blackhole) throws Exception {
+        return Rest.streamJSON(new ByteArrayInputStream(json), new String[] {"items"}, new Rest.OnJsonItemReceiver() {
+            @Override
+            public void onJsonItem(Object item) {
+                blackhole.consume(item);
+            }
+        }, null);
+    }
+
+    @Benchmark
+    public Payloads.Page decodeTyped() throws Exception {
+        return pageCodec.decode(new ByteArrayInputStream(json), null);
+    }
+
+    @Benchmark
+    public Document parseXml() throws Exception {
+        return Rest.createXMLDocument(xml, null);
+    }
+
+    @Benchmark
+    public Object parsePlainText() throws Exception {
+        return Rest.parse(textRequest, text, null).getContent();
+    }
+
+    @Benchmark
+    public RestResponse parseBinary() throws Exception {
+        return Rest.parse(binaryRequest, text, null);
+    }
+}
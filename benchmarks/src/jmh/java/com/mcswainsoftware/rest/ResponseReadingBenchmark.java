@@ -0,0 +1,60 @@
+package com.mcswainsoftware.rest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a response body into memory, before parsing
+ *
+ * The Scanner benchmark is the way bodies were first read, kept as a baseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseReadingBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] body;
+
+    private byte[] gzipped;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = Payloads.json(size);
+        gzipped = Rest.gzip(body);
+    }
+
+    @Benchmark
+    public byte[] readFullyKnownLength() throws IOException {
+        return ResponseReader.readFully(new ByteArrayInputStream(body), body.length);
+    }
+
+    @Benchmark
+    public byte[] readFullyUnknownLength() throws IOException {
+        return ResponseReader.readFully(new ByteArrayInputStream(body), -1);
+    }
+
+    @Benchmark
+    public byte[] readGzipped() throws IOException {
+        return ResponseReader.readFully(Rest.decode(new ByteArrayInputStream(gzipped), "gzip"), -1);
+    }
+
+    @Benchmark
+    public String readScanner() {
+        Scanner scanner = new Scanner(new ByteArrayInputStream(body), "UTF-8").useDelimiter("\\A");
+        return scanner.hasNext() ? scanner.next() : "";
+    }
+}
@@ -0,0 +1,52 @@
+package com.mcswainsoftware.rest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the full URL of a request from its arguments, directly and from a {@link RequestTemplate}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlBuildingBenchmark {
+
+    @Param({"0", "4", "16"})
+    public int argumentCount;
+
+    private RestRequest request;
+
+    private RequestTemplate template;
+
+    private HashMap<String, String> arguments;
+
+    @Setup
+    public void setUp() {
+        request = new RestRequest("https://api.example.com/v1/items", RestRequest.RETURN_TYPE_JSON);
+        arguments = new HashMap<>();
+        for (int i = 0; i < argumentCount; i++) {
+            request.addArgument("argument" + i, "value " + i + " & more");
+            arguments.put("argument" + i, "value " + i + " & more");
+        }
+        template = new RequestTemplate("https://api.example.com/v1/{collection}", RestRequest.RETURN_TYPE_JSON);
+    }
+
+    @Benchmark
+    public String buildUrl() {
+        return Rest.buildUrl(request);
+    }
+
+    @Benchmark
+    public String buildFromTemplate() {
+        return Rest.buildUrl(template.newRequest(arguments, "items"));
+    }
+}
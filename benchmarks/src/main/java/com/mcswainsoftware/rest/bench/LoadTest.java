@@ -0,0 +1,237 @@
+package com.mcswainsoftware.rest.bench;
+
+import com.mcswainsoftware.rest.AdaptiveLimiter;
+import com.mcswainsoftware.rest.Dispatcher;
+import com.mcswainsoftware.rest.LatencyAggregator;
+import com.mcswainsoftware.rest.NioTransport;
+import com.mcswainsoftware.rest.Rest;
+import com.mcswainsoftware.rest.RestRequest;
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives requests through the whole {@link Rest#executeRequest(RestRequest, Rest.OnRestCompletedReceiver)} pipeline
+ * against an in-process server, then reports throughput and latency percentiles
+ *
+ * Options, all optional:
+ * --requests N      requests measured, default 5000
+ * --warmup N        requests run first and not measured, default 1000
+ * --concurrency N   requests in flight at once, default 16
+ * --latency MS      delay of the server before each response, default 10
+ * --payload BYTES   size of the response body, default 16384
+ * --type T          json, xml, text or binary, default json
+ * --transport T     urlconnection or nio, default urlconnection
+ * --limit L         fixed or adaptive per host concurrency, default fixed
+ */
+public class LoadTest {
+
+    /**
+     * Requests measured
+     */
+    private int requests = 5000;
+
+    /**
+     * Requests run first and not measured
+     */
+    private int warmup = 1000;
+
+    /**
+     * Requests in flight at once
+     */
+    private int concurrency = 16;
+
+    /**
+     * Delay of the server before each response, in milliseconds
+     */
+    private long latencyMillis = 10;
+
+    /**
+     * Size of the response body, in bytes
+     */
+    private int payloadSize = 16384;
+
+    /**
+     * The return type of the requests
+     */
+    private String type = "json";
+
+    /**
+     * The transport the requests are sent over
+     */
+    private String transport = "urlconnection";
+
+    /**
+     * How the concurrency per host is limited
+     */
+    private String limit = "fixed";
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--requests":
+                    test.requests = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    test.warmup = Integer.parseInt(value);
+                    break;
+                case "--concurrency":
+                    test.concurrency = Integer.parseInt(value);
+                    break;
+                case "--latency":
+                    test.latencyMillis = Long.parseLong(value);
+                    break;
+                case "--payload":
+                    test.payloadSize = Integer.parseInt(value);
+                    break;
+                case "--type":
+                    test.type = value;
+                    break;
+                case "--transport":
+                    test.transport = value;
+                    break;
+                case "--limit":
+                    test.limit = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        test.run();
+        System.exit(0);
+    }
+
+    /**
+     * Run the warm up and the measured requests, and print the report
+     * @throws Exception if the server can't be started or the run is interrupted
+     */
+    private void run() throws Exception {
+        int dataType;
+        byte[] body;
+        String contentType;
+        switch (type) {
+            case "xml":
+                dataType = RestRequest.RETURN_TYPE_XML;
+                body = payload("<item>value</item>", "<items>", "</items>");
+                contentType = "application/xml";
+                break;
+            case "text":
+                dataType = RestRequest.RETURN_TYPE_PLAIN_TEXT;
+                body = payload("line of plain text\n", "", "");
+                contentType = "text/plain; charset=utf-8";
+                break;
+            case "binary":
+                dataType = RestRequest.RETURN_TYPE_BINARY;
+                body = payload("0123456789abcdef", "", "");
+                contentType = "application/octet-stream";
+                break;
+            default:
+                dataType = RestRequest.RETURN_TYPE_JSON;
+                body = payload("{\"id\":1,\"name\":\"item\"},", "[", "{}]");
+                contentType = "application/json";
+        }
+
+        StubServer server = new StubServer(latencyMillis, body, contentType, Math.max(concurrency, 4));
+        Dispatcher dispatcher = new Dispatcher(concurrency);
+        dispatcher.setMaxRequests(concurrency);
+        dispatcher.setMaxRequestsPerHost(concurrency);
+        AdaptiveLimiter limiter = limit.equals("adaptive") ? new AdaptiveLimiter() : null;
+        dispatcher.setLimiter(limiter);
+        Rest.setDispatcher(dispatcher);
+        NioTransport nio = transport.equals("nio") ? new NioTransport() : null;
+        Rest.setTransport(nio);
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        LatencyAggregator aggregator = new LatencyAggregator(Math.max(requests, 1));
+        Rest.setEventListener(aggregator);
+
+        System.out.println("requests=" + requests + " warmup=" + warmup + " concurrency=" + concurrency
+                + " latency=" + latencyMillis + "ms payload=" + body.length + "B type=" + type + " transport=" + transport + " limit=" + limit);
+        drive(server.url(), dataType, warmup);
+        aggregator.reset();
+
+        long start = System.nanoTime();
+        long failures = drive(server.url(), dataType, requests);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("throughput %.1f requests/s over %.2fs, %d failed, %d served",
+                requests / seconds, seconds, failures, server.requestCount()));
+        for (Map.Entry<String, LatencyAggregator.Snapshot> entry : aggregator.getHostLatencies().entrySet()) {
+            LatencyAggregator.Snapshot snapshot = entry.getValue();
+            report("queue", snapshot, LatencyAggregator.PHASE_QUEUE);
+            report("network", snapshot, LatencyAggregator.PHASE_NETWORK);
+            report("parse", snapshot, LatencyAggregator.PHASE_PARSE);
+            report("total", snapshot, LatencyAggregator.PHASE_TOTAL);
+            if (limiter != null) {
+                System.out.println(String.format("limit %d for %s, %d decreases", limiter.getLimit(entry.getKey()),
+                        entry.getKey(), limiter.getDecreaseCount()));
+            }
+        }
+        if (nio != null) nio.close();
+        server.stop();
+    }
+
+    /**
+     * Run requests, keeping at most {@link #concurrency} of them in flight
+     * @param url the URL of the server
+     * @param dataType the return type of the requests
+     * @param count the number of requests
+     * @return the number of requests that completed without a response
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private long drive(String url, int dataType, int count) throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicLong failures = new AtomicLong();
+        for (int i = 0; i < count; i++) {
+            inFlight.acquire();
+            Rest.executeRequest(new RestRequest(url, dataType), new Rest.OnRestCompletedReceiver() {
+                @Override
+                public void onRestCompleted(RestResponse response) {
+                    if (response == null) failures.incrementAndGet();
+                    inFlight.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+
+    /**
+     * Form a body of about {@link #payloadSize} bytes by repeating a piece
+     * @param piece the repeated piece
+     * @param prefix what goes before the pieces
+     * @param suffix what goes after the pieces
+     * @return the body
+     * @throws Exception if UTF-8 isn't supported
+     */
+    private byte[] payload(String piece, String prefix, String suffix) throws Exception {
+        StringBuilder payload = new StringBuilder(payloadSize + piece.length() + suffix.length());
+        payload.append(prefix);
+        while (payload.length() + piece.length() + suffix.length() <= payloadSize) payload.append(piece);
+        payload.append(suffix);
+        return payload.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Print the percentiles of one phase
+     * @param name the name of the phase
+     * @param snapshot the latencies
+     * @param phase the phase
+     */
+    private static void report(String name, LatencyAggregator.Snapshot snapshot, int phase) {
+        System.out.println(String.format("%-8s p50 %8.2fms  p95 %8.2fms  p99 %8.2fms", name,
+                snapshot.getP50Nanos(phase) / 1e6, snapshot.getP95Nanos(phase) / 1e6, snapshot.getP99Nanos(phase) / 1e6));
+    }
+}
@@ -0,0 +1,91 @@
+package com.mcswainsoftware.rest.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process HTTP server that answers every request with the same body after a fixed delay
+ */
+class StubServer {
+
+    /**
+     * The server
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads handling requests
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Number of requests served
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Form a StubServer and start it on a free loopback port
+     * @param latencyMillis the delay before each response, in milliseconds
+     * @param body the response body
+     * @param contentType the Content-Type of the body
+     * @param threads the number of requests handled at once
+     * @throws IOException if the server can't be started
+     */
+    StubServer(final long latencyMillis, final byte[] body, final String contentType, int threads) throws IOException {
+        // Without this, Nagle's algorithm and delayed ACKs add about 40ms to every keep-alive response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                try {
+                    if (latencyMillis > 0) Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().add("Content-Type", contentType);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Get the URL requests should go to
+     * @return the URL
+     */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/payload";
+    }
+
+    /**
+     * Get the number of requests served
+     * @return the request count
+     */
+    long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Stop the server
+     */
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,422 @@
+package com.mcswainsoftware.rest.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a JsonBinder for every class annotated with @JsonModel
+ *
+ * The binder reads the JSON object with a JsonStreamReader and assigns each field directly, or through its setter if the field is private
+ * Properties the class has no field for are skipped, and a null leaves a primitive field at its default
+ * The binder is written next to the class as NameJsonBinder, or Outer_InnerJsonBinder for a nested class, where JsonBinders.get finds it
+ */
+@SupportedAnnotationTypes(JsonBinderProcessor.JSON_MODEL)
+public class JsonBinderProcessor extends AbstractProcessor {
+
+    /**
+     * The annotation marking the classes to generate binders for
+     */
+    static final String JSON_MODEL = "com.mcswainsoftware.rest.JsonModel";
+
+    /**
+     * The annotation giving a field another JSON property name
+     */
+    static final String JSON_FIELD = "com.mcswainsoftware.rest.JsonField";
+
+    /**
+     * The package of the runtime classes the binders use
+     */
+    private static final String RUNTIME = "com.mcswainsoftware.rest.";
+
+    /**
+     * The suffix of the generated class names
+     */
+    private static final String SUFFIX = "JsonBinder";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement jsonModel = processingEnv.getElementUtils().getTypeElement(JSON_MODEL);
+        if (jsonModel == null) return false;
+        for (Element element : roundEnv.getElementsAnnotatedWith(jsonModel)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@JsonModel can only be put on a class");
+                continue;
+            }
+            TypeElement model = (TypeElement) element;
+            try {
+                String source = generate(model);
+                if (source == null) continue;
+                Writer writer = processingEnv.getFiler().createSourceFile(binderName(model), model).openWriter();
+                try {
+                    writer.write(source);
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                error(model, "Unable to write " + binderName(model) + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Form the source of the binder for a model class
+     * @param model the class
+     * @return the source, or null if the class can't be bound, the errors are reported
+     */
+    private String generate(TypeElement model) {
+        String modelName = model.getQualifiedName().toString();
+        String packageName = processingEnv.getElementUtils().getPackageOf(model).getQualifiedName().toString();
+        String simpleName = binderSimpleName(model);
+
+        StringBuilder constants = new StringBuilder();
+        StringBuilder cases = new StringBuilder();
+        Set<String> names = new HashSet<>();
+        boolean valid = checkClass(model);
+        int binders = 0;
+        for (VariableElement field : ElementFilter.fieldsIn(model.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+
+            String fieldName = field.getSimpleName().toString();
+            String jsonName = jsonName(field);
+            if (!names.add(jsonName)) {
+                error(field, "Another field is already read from the JSON property " + jsonName);
+                valid = false;
+                continue;
+            }
+            String setter = null;
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                setter = findSetter(model, field);
+                if (setter == null) {
+                    error(field, "Private field " + fieldName + " needs a setter set" + capitalise(fieldName) + " that isn't private");
+                    valid = false;
+                    continue;
+                }
+            }
+            if (modifiers.contains(Modifier.FINAL)) {
+                error(field, "Field " + fieldName + " is final, make it transient to leave it out");
+                valid = false;
+                continue;
+            }
+
+            TypeMirror type = field.asType();
+            String value;
+            if (type.getKind().isPrimitive()) {
+                value = primitiveRead(type.getKind());
+                if (value == null) {
+                    error(field, "Type " + type + " is not supported, use int, long, double, float or boolean");
+                    valid = false;
+                    continue;
+                }
+            } else {
+                String binder = binderFor(type, field);
+                if (binder == null) {
+                    valid = false;
+                    continue;
+                }
+                if (!binder.startsWith(RUNTIME + "JsonBinders.") || binder.indexOf('(') != -1) {
+                    String constant = "BINDER_" + binders++;
+                    constants.append("    private static final ").append(RUNTIME).append("JsonBinder<? extends ")
+                            .append(type).append("> ").append(constant).append(" = ").append(binder).append(";\n\n");
+                    binder = constant;
+                }
+                value = binder + ".read(reader)";
+            }
+
+            String assign = setter != null ? "model." + setter + "(" + value + ");" : "model." + fieldName + " = " + value + ";";
+            cases.append("                case \"").append(escape(jsonName)).append("\":\n");
+            if (type.getKind().isPrimitive()) {
+                cases.append("                    if (reader.peek() == ").append(RUNTIME).append("JsonStreamReader.TOKEN_NULL) reader.nextNull();\n");
+                cases.append("                    else ").append(assign).append('\n');
+            } else {
+                cases.append("                    ").append(assign).append('\n');
+            }
+            cases.append("                    break;\n");
+        }
+        if (!valid) return null;
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) source.append("package ").append(packageName).append(";\n\n");
+        source.append("/**\n");
+        source.append(" * Reads a {@link ").append(modelName).append("} from JSON, generated by the rest-processor\n");
+        source.append(" */\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(RUNTIME)
+                .append("JsonBinder<").append(modelName).append("> {\n\n");
+        source.append(constants);
+        source.append("    @Override\n");
+        source.append("    public ").append(modelName).append(" read(").append(RUNTIME)
+                .append("JsonStreamReader reader) throws java.io.IOException {\n");
+        source.append("        if (reader.peek() == ").append(RUNTIME).append("JsonStreamReader.TOKEN_NULL) {\n");
+        source.append("            reader.nextNull();\n");
+        source.append("            return null;\n");
+        source.append("        }\n");
+        source.append("        ").append(modelName).append(" model = new ").append(modelName).append("();\n");
+        source.append("        reader.beginObject();\n");
+        source.append("        while (reader.hasNext()) {\n");
+        source.append("            switch (reader.nextName()) {\n");
+        source.append(cases);
+        source.append("                default:\n");
+        source.append("                    reader.skipValue();\n");
+        source.append("            }\n");
+        source.append("        }\n");
+        source.append("        reader.endObject();\n");
+        source.append("        return model;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Helper for checking a model class can be created by its binder
+     * @param model the class
+     * @return true if it can, otherwise the errors are reported
+     */
+    private boolean checkClass(TypeElement model) {
+        boolean valid = true;
+        if (model.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(model, "@JsonModel class " + model.getSimpleName() + " can't be abstract");
+            valid = false;
+        }
+        if (!model.getTypeParameters().isEmpty()) {
+            error(model, "@JsonModel class " + model.getSimpleName() + " can't have type parameters");
+            valid = false;
+        }
+        for (Element element = model; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE)) {
+                error(model, "@JsonModel class " + model.getSimpleName() + " can't be private or nested in a private class");
+                valid = false;
+                break;
+            }
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                error(model, "@JsonModel class " + model.getSimpleName() + " must be static if it is nested");
+                valid = false;
+                break;
+            }
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                error(model, "@JsonModel class " + model.getSimpleName() + " can't be local");
+                valid = false;
+                break;
+            }
+        }
+        boolean constructor = false;
+        for (ExecutableElement method : ElementFilter.constructorsIn(model.getEnclosedElements())) {
+            if (method.getParameters().isEmpty() && !method.getModifiers().contains(Modifier.PRIVATE)) constructor = true;
+        }
+        if (!constructor) {
+            error(model, "@JsonModel class " + model.getSimpleName() + " needs a constructor without arguments that isn't private");
+            valid = false;
+        }
+        return valid;
+    }
+
+    /**
+     * Helper for the expression reading a primitive value
+     * @param kind the primitive type
+     * @return the expression, or null if the type isn't supported
+     */
+    private static String primitiveRead(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return "reader.nextBoolean()";
+            case INT:
+                return "reader.nextInt()";
+            case LONG:
+                return "reader.nextLong()";
+            case DOUBLE:
+                return "reader.nextDouble()";
+            case FLOAT:
+                return "(float) reader.nextDouble()";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Helper for the expression forming the binder of a reference type
+     * @param type the type
+     * @param field the field it belongs to, for errors
+     * @return the expression, or null if the type isn't supported, the error is reported
+     */
+    private String binderFor(TypeMirror type, VariableElement field) {
+        if (type.getKind() == TypeKind.WILDCARD) {
+            TypeMirror bound = ((WildcardType) type).getExtendsBound();
+            if (bound != null) return binderFor(bound, field);
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            error(field, "Type " + type + " is not supported");
+            return null;
+        }
+        DeclaredType declared = (DeclaredType) type;
+        TypeElement element = (TypeElement) declared.asElement();
+        String name = element.getQualifiedName().toString();
+        switch (name) {
+            case "java.lang.String":
+                return RUNTIME + "JsonBinders.STRING";
+            case "java.lang.Integer":
+                return RUNTIME + "JsonBinders.INTEGER";
+            case "java.lang.Long":
+                return RUNTIME + "JsonBinders.LONG";
+            case "java.lang.Double":
+                return RUNTIME + "JsonBinders.DOUBLE";
+            case "java.lang.Float":
+                return RUNTIME + "JsonBinders.FLOAT";
+            case "java.lang.Boolean":
+                return RUNTIME + "JsonBinders.BOOLEAN";
+            case "java.lang.Object":
+                return RUNTIME + "JsonBinders.OBJECT";
+            case "java.util.List":
+                List<? extends TypeMirror> arguments = declared.getTypeArguments();
+                if (arguments.size() != 1) {
+                    error(field, "List field " + field.getSimpleName() + " needs an element type");
+                    return null;
+                }
+                String elementBinder = binderFor(arguments.get(0), field);
+                return elementBinder != null ? RUNTIME + "JsonBinders.listOf(" + elementBinder + ")" : null;
+        }
+        if (hasAnnotation(element, JSON_MODEL)) {
+            String packageName = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+            return "new " + (packageName.isEmpty() ? "" : packageName + ".") + binderSimpleName(element) + "()";
+        }
+        if (name.startsWith("java.")) error(field, "Type " + type + " is not supported");
+        else error(field, "Type " + type + " is not supported, annotate " + element.getSimpleName() + " with @JsonModel");
+        return null;
+    }
+
+    /**
+     * Helper for finding the setter of a private field
+     * @param model the class
+     * @param field the field
+     * @return the name of the setter, or null if there is none that can be called
+     */
+    private String findSetter(TypeElement model, VariableElement field) {
+        String name = "set" + capitalise(field.getSimpleName().toString());
+        for (ExecutableElement method : ElementFilter.methodsIn(model.getEnclosedElements())) {
+            if (!method.getSimpleName().contentEquals(name) || method.getParameters().size() != 1) continue;
+            if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) continue;
+            if (processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), field.asType())) return name;
+        }
+        return null;
+    }
+
+    /**
+     * Helper for the JSON property name of a field
+     * @param field the field
+     * @return the name given by @JsonField, or the field name
+     */
+    private static String jsonName(VariableElement field) {
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            if (!((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(JSON_FIELD)) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value")) return (String) entry.getValue().getValue();
+            }
+        }
+        return field.getSimpleName().toString();
+    }
+
+    /**
+     * Helper for checking whether an element carries an annotation
+     * @param element the element
+     * @param annotation the qualified name of the annotation
+     * @return true if it does
+     */
+    private static boolean hasAnnotation(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper for the qualified name of the binder of a class
+     * @param model the class
+     * @return the name, such as com.example.Outer_InnerJsonBinder
+     */
+    private String binderName(TypeElement model) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(model).getQualifiedName().toString();
+        return (packageName.isEmpty() ? "" : packageName + ".") + binderSimpleName(model);
+    }
+
+    /**
+     * Helper for the simple name of the binder of a class, the names of the enclosing classes joined with _
+     * @param model the class
+     * @return the name, such as Outer_InnerJsonBinder
+     */
+    private static String binderSimpleName(TypeElement model) {
+        List<String> names = new ArrayList<>();
+        for (Element element = model; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            names.add(0, element.getSimpleName().toString());
+        }
+        StringBuilder name = new StringBuilder();
+        for (String part : names) {
+            if (name.length() != 0) name.append('_');
+            name.append(part);
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    /**
+     * Helper for upper casing the first letter of a name
+     * @param name the name
+     * @return the capitalised name
+     */
+    private static String capitalise(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Helper for escaping a string for a Java string literal
+     * @param value the string
+     * @return the escaped string, without quotes
+     */
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') escaped.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e) escaped.append(String.format("\\u%04x", (int) c));
+            else escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Helper for reporting an error on an element
+     * @param element the element
+     * @param message the error
+     */
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
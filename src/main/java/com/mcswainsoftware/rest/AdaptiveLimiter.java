@@ -0,0 +1,255 @@
+package com.mcswainsoftware.rest;
+
+import java.util.HashMap;
+
+/**
+ * Finds how many requests each host can take at once from how fast and how reliably it answers
+ *
+ * Set on a {@link Dispatcher}, it replaces the fixed limit of requests per host
+ * Each host starts at initialLimit, the limit then moves between minLimit and maxLimit by additive increase, multiplicative decrease:
+ * Every answer that comes back in time while the limit is in use raises it by 1 / limit, so by about 1 for every limit answers
+ * Requests only count as in use once a worker thread runs them, so with a blocking transport the limit stays near the worker count
+ * A failed request, or a smoothed answer time over twice the fastest recent answer, which means the server is queueing, cuts it by 10%
+ * The limit is cut at most once per round trip, as answers already on their way all reflect the same overload
+ *
+ * The fastest answer is learned again every few hundred answers, so the limit follows a server whose latency changes
+ * Requests over the limit wait in the dispatcher queue, or are failed right away once maxQueuedPerHost are waiting for the host
+ */
+public class AdaptiveLimiter {
+
+    /**
+     * The default limit of a host before any answer
+     */
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+
+    /**
+     * The default lowest limit
+     */
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    /**
+     * The default highest limit
+     */
+    public static final int DEFAULT_MAX_LIMIT = 64;
+
+    /**
+     * No limit on the requests waiting for a host
+     */
+    public static final int UNBOUNDED_QUEUE = Integer.MAX_VALUE;
+
+    /**
+     * The factor the limit is cut by
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * How many times the fastest recent answer the smoothed answer time may be before it counts as queueing
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * The number of answers after which the fastest answer is learned again
+     */
+    private static final int BASELINE_WINDOW = 500;
+
+    /**
+     * The weight of each answer in the smoothed round trip time
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * The limit of a host before any answer
+     */
+    private final int initialLimit;
+
+    /**
+     * The lowest limit
+     */
+    private final int minLimit;
+
+    /**
+     * The highest limit
+     */
+    private final int maxLimit;
+
+    /**
+     * The number of requests that may wait for a host before more are failed right away
+     */
+    private final int maxQueuedPerHost;
+
+    /**
+     * The state of each host that has been used
+     */
+    private final HashMap<String, HostLimit> hosts = new HashMap<>();
+
+    /**
+     * Number of requests failed right away because the queue of their host was full
+     */
+    private long rejectedCount;
+
+    /**
+     * Number of times a limit was cut
+     */
+    private long decreaseCount;
+
+    /**
+     * Form an AdaptiveLimiter with the default limits and an unbounded queue
+     */
+    public AdaptiveLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, UNBOUNDED_QUEUE);
+    }
+
+    /**
+     * Form an AdaptiveLimiter
+     * @param initialLimit the limit of a host before any answer
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit
+     * @param maxQueuedPerHost the number of requests that may wait for a host, or {@link #UNBOUNDED_QUEUE}
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueuedPerHost) {
+        if (minLimit < 1) throw new IllegalArgumentException("minLimit < 1: " + minLimit);
+        if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit < minLimit: " + maxLimit);
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit out of range: " + initialLimit);
+        }
+        if (maxQueuedPerHost < 0) throw new IllegalArgumentException("maxQueuedPerHost < 0: " + maxQueuedPerHost);
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueuedPerHost = maxQueuedPerHost;
+    }
+
+    /**
+     * Record an answer from a host, or a request that failed
+     * @param host the host
+     * @param rttNanos the time from sending the request to the first byte of the answer, in nanoseconds
+     * @param inFlight the number of requests running against the host, this one included
+     * @param dropped whether the request failed or timed out instead of being answered
+     */
+    synchronized void onSample(String host, long rttNanos, int inFlight, boolean dropped) {
+        HostLimit state = hosts.get(host);
+        if (state == null) {
+            state = new HostLimit(initialLimit);
+            hosts.put(host, state);
+        }
+        long now = System.nanoTime();
+        if (!dropped) {
+            if (state.minRttNanos == 0 || rttNanos < state.minRttNanos) state.minRttNanos = rttNanos;
+            if (rttNanos < state.windowMinRttNanos) state.windowMinRttNanos = rttNanos;
+            if (++state.samples % BASELINE_WINDOW == 0) {
+                state.minRttNanos = state.windowMinRttNanos;
+                state.windowMinRttNanos = Long.MAX_VALUE;
+            }
+            state.smoothedRttNanos = state.smoothedRttNanos == 0
+                    ? rttNanos : (long) (state.smoothedRttNanos + SMOOTHING * (rttNanos - state.smoothedRttNanos));
+        }
+
+        if (dropped || state.smoothedRttNanos > state.minRttNanos * LATENCY_TOLERANCE) {
+            if (state.lastDecreaseNanos == 0 || now - state.lastDecreaseNanos >= state.smoothedRttNanos) {
+                state.limit = Math.max(minLimit, state.limit * BACKOFF_RATIO);
+                state.lastDecreaseNanos = now;
+                decreaseCount++;
+            }
+        } else if (inFlight * 2 >= state.limit) {
+            state.limit = Math.min(maxLimit, state.limit + 1 / state.limit);
+        }
+    }
+
+    /**
+     * Record a request failed right away because the queue of its host was full
+     */
+    synchronized void recordRejected() {
+        rejectedCount++;
+    }
+
+    /**
+     * Get the number of requests that may run against a host at once
+     * @param host the host
+     * @return the limit
+     */
+    public synchronized int getLimit(String host) {
+        HostLimit state = hosts.get(host);
+        return state != null ? (int) state.limit : initialLimit;
+    }
+
+    /**
+     * Get the smoothed time from sending a request to a host to the first byte of the answer
+     * @param host the host
+     * @return the time in nanoseconds, or 0 if the host hasn't answered
+     */
+    public synchronized long getSmoothedRttNanos(String host) {
+        HostLimit state = hosts.get(host);
+        return state != null ? state.smoothedRttNanos : 0;
+    }
+
+    /**
+     * Get the number of requests that may wait for a host
+     * @return the number of requests, or {@link #UNBOUNDED_QUEUE}
+     */
+    public int getMaxQueuedPerHost() {
+        return maxQueuedPerHost;
+    }
+
+    /**
+     * Get the number of requests failed right away because the queue of their host was full
+     * @return the rejected count
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Get the number of times a limit was cut
+     * @return the decrease count
+     */
+    public synchronized long getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    /**
+     * Forget every host, they start again at the initial limit
+     */
+    public synchronized void reset() {
+        hosts.clear();
+    }
+
+    /**
+     * The state of one host
+     */
+    private static class HostLimit {
+
+        /**
+         * The limit, fractional so additive increases add up
+         */
+        double limit;
+
+        /**
+         * The fastest answer, in nanoseconds, or 0 before the first
+         */
+        long minRttNanos;
+
+        /**
+         * The fastest answer of the current window, in nanoseconds
+         */
+        long windowMinRttNanos = Long.MAX_VALUE;
+
+        /**
+         * The smoothed time to the first byte of an answer, in nanoseconds
+         */
+        long smoothedRttNanos;
+
+        /**
+         * The number of answers
+         */
+        long samples;
+
+        /**
+         * When the limit was last cut, in nanoseconds, or 0 if it wasn't
+         */
+        long lastDecreaseNanos;
+
+        HostLimit(int limit) {
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.mcswainsoftware.rest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A {@link CredentialsProvider} holding credentials by protection space
+ *
+ * A protection space is a scheme, host and port, and either a path prefix or a realm
+ * Credentials for a path prefix are sent preemptively with every request under it, which saves the 401 round trip
+ * Credentials for a realm are only sent to answer a challenge for that realm,
+ * after which the path of the challenged URL is remembered and later requests under it get them preemptively
+ */
+public class BasicCredentialsProvider implements CredentialsProvider {
+
+    /**
+     * The credentials by address and path prefix
+     */
+    private final HashMap<String, List<PathSpace>> paths = new HashMap<>();
+
+    /**
+     * The credentials by address and realm
+     */
+    private final HashMap<String, Credentials> realms = new HashMap<>();
+
+    /**
+     * Set the credentials sent preemptively to every URL under a prefix
+     * @param urlPrefix the URL prefix, such as https://api.example.com/v1/
+     * @param credentials the credentials, or null to remove them
+     * @throws IllegalArgumentException if the prefix isn't a valid URL
+     */
+    public synchronized void setCredentials(String urlPrefix, Credentials credentials) {
+        URL url = parse(urlPrefix);
+        addPath(ConnectionPool.addressOf(url), url.getPath(), credentials);
+    }
+
+    /**
+     * Set the credentials that answer challenges for a realm
+     * @param url any URL on the server, only the scheme, host and port are used
+     * @param realm the realm
+     * @param credentials the credentials, or null to remove them
+     * @throws IllegalArgumentException if the URL isn't valid
+     */
+    public synchronized void setCredentials(String url, String realm, Credentials credentials) {
+        String key = ConnectionPool.addressOf(parse(url)) + ' ' + realm;
+        if (credentials != null) realms.put(key, credentials);
+        else realms.remove(key);
+    }
+
+    /**
+     * Remove every credential
+     */
+    public synchronized void clear() {
+        paths.clear();
+        realms.clear();
+    }
+
+    @Override
+    public synchronized Credentials getCredentials(URL url, String realm) {
+        String address = ConnectionPool.addressOf(url);
+        if (realm != null) {
+            Credentials credentials = realms.get(address + ' ' + realm);
+            if (credentials != null) {
+                String path = url.getPath();
+                addPath(address, path.substring(0, path.lastIndexOf('/') + 1), credentials);
+            }
+            return credentials;
+        }
+        List<PathSpace> spaces = paths.get(address);
+        if (spaces == null) return null;
+        String path = url.getPath();
+        for (PathSpace space : spaces) {
+            if (path.startsWith(space.prefix)) return space.credentials;
+        }
+        return null;
+    }
+
+    /**
+     * Store the credentials of a path prefix, keeping the longest prefixes first so the most specific one matches
+     * @param address the address, see {@link ConnectionPool#addressOf(URL)}
+     * @param prefix the path prefix
+     * @param credentials the credentials, or null to remove them
+     */
+    private void addPath(String address, String prefix, Credentials credentials) {
+        if (prefix.length() == 0) prefix = "/";
+        List<PathSpace> spaces = paths.get(address);
+        if (spaces == null) {
+            if (credentials == null) return;
+            spaces = new ArrayList<>(2);
+            paths.put(address, spaces);
+        }
+        for (int i = 0; i < spaces.size(); i++) {
+            if (spaces.get(i).prefix.equals(prefix)) {
+                spaces.remove(i);
+                break;
+            }
+        }
+        if (credentials == null) return;
+        int index = 0;
+        while (index < spaces.size() && spaces.get(index).prefix.length() >= prefix.length()) index++;
+        spaces.add(index, new PathSpace(prefix, credentials));
+    }
+
+    /**
+     * Helper for parsing a URL given by the user
+     * @param url the URL
+     * @return the parsed URL
+     */
+    private static URL parse(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL " + url, e);
+        }
+    }
+
+    /**
+     * Credentials and the path prefix they are sent to
+     */
+    private static class PathSpace {
+
+        /**
+         * The path prefix
+         */
+        final String prefix;
+
+        /**
+         * The credentials
+         */
+        final Credentials credentials;
+
+        PathSpace(String prefix, Credentials credentials) {
+            this.prefix = prefix;
+            this.credentials = credentials;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A group of requests run with bounded parallelism and one aggregated callback
+ *
+ * A failed request is one whose response is null, like for {@link Rest#executeRequest(RestRequest, Rest.OnRestCompletedReceiver)}
+ * When the batch fails fast, the requests still queued or running are canceled
+ */
+class Batch {
+
+    /**
+     * The requests, in the order of the results
+     */
+    private final List<RestRequest> requests;
+
+    /**
+     * The limit of requests running at once
+     */
+    private final int maxParallel;
+
+    /**
+     * One of the Rest.BATCH policies
+     */
+    private final int policy;
+
+    /**
+     * The callback for each result as it arrives, or null
+     */
+    private final Rest.OnBatchItemReceiver itemReceiver;
+
+    /**
+     * The callback for the whole batch
+     */
+    private final Rest.OnBatchCompletedReceiver receiver;
+
+    /**
+     * The results, by request index
+     */
+    private final RestResponse[] results;
+
+    /**
+     * The handles of the requests running, by request index
+     */
+    private final Call[] calls;
+
+    /**
+     * Whether each request completed, by request index
+     */
+    private final boolean[] answered;
+
+    /**
+     * The index of the next request to start
+     */
+    private int next;
+
+    /**
+     * The number of results received
+     */
+    private int completed;
+
+    /**
+     * Whether the batch callback has been run
+     */
+    private boolean finished;
+
+    Batch(List<RestRequest> requests, int maxParallel, int policy,
+          Rest.OnBatchItemReceiver itemReceiver, Rest.OnBatchCompletedReceiver receiver) {
+        this.requests = requests;
+        this.maxParallel = maxParallel;
+        this.policy = policy;
+        this.itemReceiver = itemReceiver;
+        this.receiver = receiver;
+        this.results = new RestResponse[requests.size()];
+        this.calls = new Call[requests.size()];
+        this.answered = new boolean[requests.size()];
+    }
+
+    /**
+     * Start the first requests, up to the parallelism limit
+     */
+    void start() {
+        int first;
+        synchronized (this) {
+            first = Math.min(maxParallel, requests.size());
+            next = first;
+        }
+        for (int i = 0; i < first; i++) launch(i);
+    }
+
+    /**
+     * Run one request of the batch
+     * @param index the index of the request
+     */
+    private void launch(final int index) {
+        Call call = Rest.executeRequest(requests.get(index), new Rest.OnRestCompletedReceiver() {
+            @Override
+            public void onRestCompleted(RestResponse response) {
+                completed(index, response);
+            }
+        });
+        synchronized (this) {
+            if (answered[index]) return;
+            if (!finished) {
+                calls[index] = call;
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    /**
+     * Record a result, then start the next request or finish the batch
+     * @param index the index of the request
+     * @param response its response, null if it failed
+     */
+    private void completed(int index, RestResponse response) {
+        int launch = -1;
+        boolean finish = false;
+        Call[] running = null;
+        synchronized (this) {
+            answered[index] = true;
+            calls[index] = null;
+            if (finished) return;
+            results[index] = response;
+            completed++;
+            if ((response == null || !response.isSuccessful()) && policy == Rest.BATCH_FAIL_FAST) {
+                finished = finish = true;
+                running = calls.clone();
+                Arrays.fill(calls, null);
+            } else if (completed == results.length) {
+                finished = finish = true;
+            } else if (next < results.length) {
+                launch = next++;
+            }
+        }
+        if (running != null) {
+            for (Call call : running) {
+                if (call != null) call.cancel();
+            }
+        }
+        if (itemReceiver != null) itemReceiver.onBatchItem(index, response);
+        if (finish) receiver.onBatchCompleted(Arrays.asList(results));
+        if (launch != -1) launch(launch);
+    }
+}
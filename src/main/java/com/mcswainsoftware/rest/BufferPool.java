@@ -0,0 +1,65 @@
+package com.mcswainsoftware.rest;
+
+/**
+ * A bounded pool of fixed size byte buffers, reused across requests instead of being allocated for each one
+ *
+ * Buffers beyond the limit are left to the garbage collector, so the pool never holds more than maxBuffers * CHUNK_SIZE bytes
+ */
+final class BufferPool {
+
+    /**
+     * The size of every buffer in the pool
+     */
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The pool shared by every request, keeping up to 512 KiB
+     */
+    static final BufferPool SHARED = new BufferPool(64);
+
+    /**
+     * The buffers not in use
+     */
+    private final byte[][] free;
+
+    /**
+     * The number of buffers not in use
+     */
+    private int count;
+
+    /**
+     * Form a BufferPool
+     * @param maxBuffers the number of unused buffers kept
+     */
+    BufferPool(int maxBuffers) {
+        if (maxBuffers < 0) throw new IllegalArgumentException("maxBuffers < 0: " + maxBuffers);
+        this.free = new byte[maxBuffers][];
+    }
+
+    /**
+     * Take a buffer, which must be given back with {@link #release(byte[])} once it is no longer used
+     * @return a buffer of {@link #CHUNK_SIZE} bytes, its content is undefined
+     */
+    synchronized byte[] acquire() {
+        if (count == 0) return new byte[CHUNK_SIZE];
+        byte[] buffer = free[--count];
+        free[count] = null;
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back
+     * @param buffer a buffer taken with {@link #acquire()}
+     */
+    synchronized void release(byte[] buffer) {
+        if (buffer.length == CHUNK_SIZE && count < free.length) free[count++] = buffer;
+    }
+
+    /**
+     * Get the number of buffers waiting to be reused
+     * @return the count
+     */
+    synchronized int size() {
+        return count;
+    }
+}
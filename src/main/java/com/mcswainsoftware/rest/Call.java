@@ -0,0 +1,32 @@
+package com.mcswainsoftware.rest;
+
+/**
+ * A handle on a REST request that was handed to {@link Rest#executeRequest(RestRequest, Rest.OnRestCompletedReceiver)}
+ */
+public interface Call {
+
+    /**
+     * Get the request this call runs
+     * @return the request
+     */
+    RestRequest getRequest();
+
+    /**
+     * Cancel the call
+     *
+     * A queued call is dropped, a running call has its connection aborted mid-transfer
+     * Either way the response isn't parsed and the callback isn't run
+     * Calling this after the callback ran has no effect
+     *
+     * With a {@link ResponseMemoryCache} set, a call answered from the cache or joined to an identical running request
+     * only drops its own callback, the shared request keeps running for the other callers
+     * A joined call also ends when the request it joined does, so that request's deadline applies to it, not its own
+     */
+    void cancel();
+
+    /**
+     * Whether {@link #cancel()} was called
+     * @return true if the call was canceled
+     */
+    boolean isCanceled();
+}
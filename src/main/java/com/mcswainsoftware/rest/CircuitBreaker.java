@@ -0,0 +1,191 @@
+package com.mcswainsoftware.rest;
+
+import java.util.HashMap;
+
+/**
+ * Stops sending requests to a host that keeps failing
+ *
+ * Each host starts closed, requests go through
+ * After failureThreshold failures in a row the host is opened, requests to it fail right away without touching the network
+ * Once openMillis have passed the host is half open, a single probe request is let through
+ * If the probe succeeds the host is closed again, if it fails the host is opened for another openMillis
+ *
+ * Connection failures and the status codes 408, 429, 500, 502, 503 and 504 count as failures,
+ * any other answer from the server counts as a success
+ */
+public class CircuitBreaker {
+
+    /**
+     * Requests go through
+     */
+    public static final int STATE_CLOSED = 0;
+
+    /**
+     * Requests fail right away
+     */
+    public static final int STATE_OPEN = 1;
+
+    /**
+     * A single probe request is let through
+     */
+    public static final int STATE_HALF_OPEN = 2;
+
+    /**
+     * The default number of failures in a row that open a host
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * The default time a host stays open, in milliseconds
+     */
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    /**
+     * The number of failures in a row that open a host
+     */
+    private final int failureThreshold;
+
+    /**
+     * The time a host stays open, in milliseconds
+     */
+    private final long openMillis;
+
+    /**
+     * The state of each host that has been used
+     */
+    private final HashMap<String, HostState> hosts = new HashMap<>();
+
+    /**
+     * Number of requests failed right away
+     */
+    private long rejectedCount;
+
+    /**
+     * Form a CircuitBreaker with the default limits
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Form a CircuitBreaker
+     * @param failureThreshold the number of failures in a row that open a host
+     * @param openMillis the time a host stays open before a probe is let through, in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) throw new IllegalArgumentException("failureThreshold < 1: " + failureThreshold);
+        if (openMillis <= 0) throw new IllegalArgumentException("openMillis <= 0: " + openMillis);
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Decide whether a request to a host may go to the network
+     * @param host the host
+     * @return false if the host is open, or half open with its probe already running
+     */
+    synchronized boolean allowRequest(String host) {
+        HostState state = hosts.get(host);
+        if (state == null || state.state == STATE_CLOSED) return true;
+        if (state.state == STATE_OPEN && System.currentTimeMillis() - state.openedAt >= openMillis) {
+            state.state = STATE_HALF_OPEN;
+            state.probing = false;
+        }
+        if (state.state == STATE_HALF_OPEN && !state.probing) {
+            state.probing = true;
+            return true;
+        }
+        rejectedCount++;
+        return false;
+    }
+
+    /**
+     * Record that a host answered
+     * @param host the host
+     */
+    synchronized void recordSuccess(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) return;
+        state.state = STATE_CLOSED;
+        state.failures = 0;
+        state.probing = false;
+    }
+
+    /**
+     * Record that a request to a host failed
+     * @param host the host
+     */
+    synchronized void recordFailure(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            state = new HostState();
+            hosts.put(host, state);
+        }
+        state.failures++;
+        if (state.state == STATE_HALF_OPEN || state.failures >= failureThreshold) {
+            state.state = STATE_OPEN;
+            state.openedAt = System.currentTimeMillis();
+            state.probing = false;
+        }
+    }
+
+    /**
+     * Record that a request to a host ended without an answer either way, such as when it was canceled
+     * @param host the host
+     */
+    synchronized void recordAbandoned(String host) {
+        HostState state = hosts.get(host);
+        if (state != null) state.probing = false;
+    }
+
+    /**
+     * Get the state of a host
+     * @param host the host
+     * @return {@link #STATE_CLOSED}, {@link #STATE_OPEN} or {@link #STATE_HALF_OPEN}
+     */
+    public synchronized int getState(String host) {
+        HostState state = hosts.get(host);
+        return state != null ? state.state : STATE_CLOSED;
+    }
+
+    /**
+     * Get the number of requests failed right away because their host was open
+     * @return the rejected count
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Close every host
+     */
+    public synchronized void reset() {
+        hosts.clear();
+    }
+
+    /**
+     * The state of one host
+     */
+    private static class HostState {
+
+        /**
+         * One of the STATE constants
+         */
+        int state = STATE_CLOSED;
+
+        /**
+         * Failures in a row
+         */
+        int failures;
+
+        /**
+         * When the host was last opened, in milliseconds
+         */
+        long openedAt;
+
+        /**
+         * Whether the probe of a half open host is running
+         */
+        boolean probing;
+    }
+}
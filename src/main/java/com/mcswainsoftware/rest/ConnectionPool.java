@@ -0,0 +1,311 @@
+package com.mcswainsoftware.rest;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Keeps idle keep-alive connections so they can be reused
+ *
+ * Connections are grouped by address (scheme, host and port)
+ * At most maxIdlePerAddress idle connections are kept for each address, the oldest is evicted first
+ * A connection that has been idle for longer than keepAliveMillis is evicted instead of reused
+ * The hit, miss and eviction counts only cover sockets held here, by a transport that connects its own such as {@link NioTransport}
+ *
+ * HttpURLConnection keeps its own socket cache, which can't be looked into
+ * For every request the pool counts whether the connection was handed back to the transport with its response read to the end,
+ * see {@link #getReleasedCount()}, or disconnected, see {@link #getDisconnectedCount()}
+ * Whether a released connection is reused after that is up to the transport
+ */
+public class ConnectionPool {
+
+    /**
+     * The default limit of idle connections kept per address
+     */
+    public static final int DEFAULT_MAX_IDLE_PER_ADDRESS = 5;
+
+    /**
+     * The default time an idle connection is kept, in milliseconds
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * The limit of idle connections kept per address
+     */
+    private final int maxIdlePerAddress;
+
+    /**
+     * The time an idle connection is kept, in milliseconds
+     */
+    private final long keepAliveMillis;
+
+    /**
+     * Idle connections by address, the most recently released is last
+     */
+    private final HashMap<String, ArrayDeque<IdleConnection>> idle = new HashMap<>();
+
+    /**
+     * Number of acquires that found an idle connection
+     */
+    private long hitCount;
+
+    /**
+     * Number of acquires that found no idle connection
+     */
+    private long missCount;
+
+    /**
+     * Number of idle connections dropped for age or over the limit
+     */
+    private long evictionCount;
+
+    /**
+     * Number of connections handed back to their transport with the response read to the end
+     */
+    private long releasedCount;
+
+    /**
+     * Number of connections disconnected instead of handed back
+     */
+    private long disconnectedCount;
+
+    /**
+     * Form a ConnectionPool with the default limits
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_ADDRESS, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * Form a ConnectionPool
+     * @param maxIdlePerAddress the limit of idle connections kept per address, 0 turns keep-alive off
+     * @param keepAliveMillis the time an idle connection is kept, in milliseconds
+     */
+    public ConnectionPool(int maxIdlePerAddress, long keepAliveMillis) {
+        if (maxIdlePerAddress < 0) throw new IllegalArgumentException("maxIdlePerAddress < 0: " + maxIdlePerAddress);
+        if (keepAliveMillis <= 0) throw new IllegalArgumentException("keepAliveMillis <= 0: " + keepAliveMillis);
+        this.maxIdlePerAddress = maxIdlePerAddress;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * Pass the limits of this pool on to the platform HttpURLConnection socket cache
+     *
+     * These are the process wide http.keepAlive, http.maxConnections and http.keepAliveDuration system properties,
+     * so they change every HttpURLConnection of the app, not only the requests of this library
+     */
+    void applyToPlatform() {
+        System.setProperty("http.keepAlive", maxIdlePerAddress > 0 ? "true" : "false");
+        if (maxIdlePerAddress > 0) System.setProperty("http.maxConnections", String.valueOf(maxIdlePerAddress));
+        System.setProperty("http.keepAliveDuration", String.valueOf(keepAliveMillis));
+    }
+
+    /**
+     * Take the most recently released idle connection to an address
+     * @param address the address, see {@link #addressOf(URL)}
+     * @return the connection, or null if there is none
+     */
+    synchronized Object acquire(String address) {
+        ArrayDeque<IdleConnection> connections = idle.get(address);
+        if (connections != null) {
+            evictExpired(connections, System.currentTimeMillis());
+            IdleConnection connection = connections.pollLast();
+            if (connections.isEmpty()) idle.remove(address);
+            if (connection != null) {
+                hitCount++;
+                return connection.connection;
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Hand back a connection whose response was read completely, so it can be reused
+     * @param address the address, see {@link #addressOf(URL)}
+     * @param connection the connection, closed right away if it isn't kept
+     */
+    synchronized void release(String address, Object connection) {
+        if (maxIdlePerAddress == 0) {
+            evictionCount++;
+            closeQuietly(connection);
+            return;
+        }
+        ArrayDeque<IdleConnection> connections = idle.get(address);
+        if (connections == null) {
+            connections = new ArrayDeque<>();
+            idle.put(address, connections);
+        }
+        long now = System.currentTimeMillis();
+        evictExpired(connections, now);
+        connections.addLast(new IdleConnection(connection, now));
+        while (connections.size() > maxIdlePerAddress) {
+            evictionCount++;
+            closeQuietly(connections.pollFirst().connection);
+        }
+    }
+
+    /**
+     * Count a connection handed back to its transport with the response read to the end
+     */
+    synchronized void recordReleased() {
+        releasedCount++;
+    }
+
+    /**
+     * Count a connection disconnected instead of handed back
+     */
+    synchronized void recordDisconnected() {
+        disconnectedCount++;
+    }
+
+    /**
+     * Drop every idle connection
+     */
+    public synchronized void evictAll() {
+        for (ArrayDeque<IdleConnection> connections : idle.values()) {
+            for (IdleConnection connection : connections) {
+                evictionCount++;
+                closeQuietly(connection.connection);
+            }
+        }
+        idle.clear();
+    }
+
+    /**
+     * Drop the connections of one address that have been idle too long
+     * @param connections the idle connections, oldest first
+     * @param now the current time in milliseconds
+     */
+    private void evictExpired(ArrayDeque<IdleConnection> connections, long now) {
+        for (Iterator<IdleConnection> i = connections.iterator(); i.hasNext(); ) {
+            IdleConnection connection = i.next();
+            if (now - connection.idleSince < keepAliveMillis) break;
+            i.remove();
+            evictionCount++;
+            closeQuietly(connection.connection);
+        }
+    }
+
+    /**
+     * Get the number of idle connections across every address
+     * @return the number of idle connections
+     */
+    public synchronized int idleConnectionCount() {
+        int count = 0;
+        for (ArrayDeque<IdleConnection> connections : idle.values()) count += connections.size();
+        return count;
+    }
+
+    /**
+     * Get the number of idle connections to one address
+     * @param address the address, see {@link #addressOf(URL)}
+     * @return the number of idle connections
+     */
+    synchronized int idleConnectionCount(String address) {
+        ArrayDeque<IdleConnection> connections = idle.get(address);
+        return connections != null ? connections.size() : 0;
+    }
+
+    /**
+     * Get the number of acquires that found an idle connection held by the pool
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of acquires that found no idle connection held by the pool
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of idle connections dropped for age or over the limit
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the number of connections handed back to their transport with the response read to the end, so they can be reused
+     * @return the released count
+     */
+    public synchronized long getReleasedCount() {
+        return releasedCount;
+    }
+
+    /**
+     * Get the number of connections disconnected because the request failed, the server asked to close,
+     * or too much of the response was left unread, see {@link ResponseReader#MAX_DRAIN_BYTES}
+     * @return the disconnected count
+     */
+    public synchronized long getDisconnectedCount() {
+        return disconnectedCount;
+    }
+
+    /**
+     * Get the limit of idle connections kept per address
+     * @return the limit
+     */
+    public int getMaxIdlePerAddress() {
+        return maxIdlePerAddress;
+    }
+
+    /**
+     * Get the time an idle connection is kept
+     * @return the time in milliseconds
+     */
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * Helper for finding the pool address of a URL
+     * @param url the URL
+     * @return the scheme, host and port of the URL
+     */
+    static String addressOf(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    /**
+     * Helper for closing a connection that is dropped from the pool
+     * @param connection the connection, only closed if it is Closeable
+     */
+    private static void closeQuietly(Object connection) {
+        if (!(connection instanceof Closeable)) return;
+        try {
+            ((Closeable) connection).close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * An idle connection and the time it was released
+     */
+    private static class IdleConnection {
+
+        /**
+         * The connection
+         */
+        final Object connection;
+
+        /**
+         * When it was released, in milliseconds
+         */
+        final long idleSince;
+
+        IdleConnection(Object connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+}
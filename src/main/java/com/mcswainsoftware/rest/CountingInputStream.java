@@ -0,0 +1,58 @@
+package com.mcswainsoftware.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes read through it
+ */
+class CountingInputStream extends FilterInputStream {
+
+    /**
+     * The number of bytes read
+     */
+    private long count;
+
+    /**
+     * Form a CountingInputStream
+     * @param in the stream to count
+     */
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Get the number of bytes read so far
+     * @return the count
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) count++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = in.read(buffer, offset, length);
+        if (read > 0) count += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
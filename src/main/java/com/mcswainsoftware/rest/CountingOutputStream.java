@@ -0,0 +1,60 @@
+package com.mcswainsoftware.rest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that counts the bytes written through it, and optionally reports the progress
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    /**
+     * Gets the progress, or null
+     */
+    private final Rest.OnUploadProgressReceiver receiver;
+
+    /**
+     * The size reported with the progress, or -1 if it isn't known
+     */
+    private final long contentLength;
+
+    /**
+     * The number of bytes written
+     */
+    private long count;
+
+    /**
+     * Form a CountingOutputStream
+     * @param out the stream to count
+     * @param receiver gets the progress after every write, or null
+     * @param contentLength the size reported with the progress, or -1 if it isn't known
+     */
+    CountingOutputStream(OutputStream out, Rest.OnUploadProgressReceiver receiver, long contentLength) {
+        super(out);
+        this.receiver = receiver;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Get the number of bytes written so far
+     * @return the count
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+        if (receiver != null) receiver.onUploadProgress(count, contentLength);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        count += length;
+        if (receiver != null) receiver.onUploadProgress(count, contentLength);
+    }
+}
@@ -0,0 +1,93 @@
+package com.mcswainsoftware.rest;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A username and password for HTTP Basic authentication
+ *
+ * The Authorization header is encoded once when the credentials are formed, so it can be sent with every request cheaply
+ */
+public class Credentials {
+
+    /**
+     * Digits of the Base64 alphabet
+     */
+    private static final char[] BASE64_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * The username
+     */
+    private final String username;
+
+    /**
+     * The password
+     */
+    private final String password;
+
+    /**
+     * The value of the Authorization header
+     */
+    private final String basicAuthorization;
+
+    /**
+     * Form Credentials
+     * @param username the username, it must not contain a colon
+     * @param password the password
+     */
+    public Credentials(String username, String password) {
+        if (username == null) throw new IllegalArgumentException("username == null");
+        if (password == null) throw new IllegalArgumentException("password == null");
+        this.username = username;
+        this.password = password;
+        try {
+            this.basicAuthorization = "Basic " + base64((username + ':' + password).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the username
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Get the password
+     * @return the password
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Get the value of the Authorization header for Basic authentication
+     * @return the header value
+     */
+    public String getBasicAuthorization() {
+        return basicAuthorization;
+    }
+
+    /**
+     * Helper for Base64 encoding with padding
+     * @param data the bytes
+     * @return the encoded bytes
+     */
+    private static String base64(byte[] data) {
+        StringBuilder encoded = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int remaining = data.length - i;
+            int chunk = (data[i] & 0xff) << 16;
+            if (remaining > 1) chunk |= (data[i + 1] & 0xff) << 8;
+            if (remaining > 2) chunk |= data[i + 2] & 0xff;
+            encoded.append(BASE64_DIGITS[(chunk >> 18) & 0x3f]);
+            encoded.append(BASE64_DIGITS[(chunk >> 12) & 0x3f]);
+            encoded.append(remaining > 1 ? BASE64_DIGITS[(chunk >> 6) & 0x3f] : '=');
+            encoded.append(remaining > 2 ? BASE64_DIGITS[chunk & 0x3f] : '=');
+        }
+        return encoded.toString();
+    }
+}
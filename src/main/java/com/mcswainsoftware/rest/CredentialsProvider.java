@@ -0,0 +1,23 @@
+package com.mcswainsoftware.rest;
+
+import java.net.URL;
+
+/**
+ * Supplies the credentials for requests to protected servers, see {@link BasicCredentialsProvider}
+ *
+ * It is asked twice at most per request:
+ * before the request is sent, to send credentials preemptively for places known to need them,
+ * and after a 401 with a Basic challenge, to answer it
+ *
+ * It can be called from several worker threads at once
+ */
+public interface CredentialsProvider {
+
+    /**
+     * Find the credentials for a request
+     * @param url the full request URL
+     * @param realm the realm of the Basic challenge, or null if no challenge was received yet
+     * @return the credentials, or null to send none
+     */
+    Credentials getCredentials(URL url, String realm);
+}
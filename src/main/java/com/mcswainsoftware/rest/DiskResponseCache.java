@@ -0,0 +1,555 @@
+package com.mcswainsoftware.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A persistent cache of GET response bodies, bounded in size and evicted least recently used first
+ *
+ * Each body is stored with its ETag, Last-Modified and expiry, worked out from Cache-Control or Expires
+ * Fresh entries are served without touching the network
+ * Stale entries are revalidated with If-None-Match and If-Modified-Since, and a 304 serves the stored body
+ *
+ * Responses are stored per URL and per Authorization the request sent, so one user is never served the response of another
+ * The request headers named by Vary are stored with the body, a request that sends other values doesn't get the entry,
+ * and responses with Vary: * aren't stored
+ *
+ * Entry files are read and written outside the lock, which only guards the index,
+ * a new entry is written to a temporary file and then renamed over the old one
+ *
+ * On Android a directory under Context.getCacheDir() is a good place for the cache
+ */
+public class DiskResponseCache {
+
+    /**
+     * Version of the entry file format
+     */
+    private static final int ENTRY_VERSION = 3;
+
+    /**
+     * Extension of the entry files
+     */
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    /**
+     * Extension of entry files still being written
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The directory holding the entry files
+     */
+    private final File directory;
+
+    /**
+     * The limit of the size of the entry files, in bytes
+     */
+    private final long maxSize;
+
+    /**
+     * Sizes of the entry files by key, the least recently used is first
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The size of the entry files, in bytes
+     */
+    private long size;
+
+    /**
+     * Number of requests served from the cache without network I/O
+     */
+    private long hitCount;
+
+    /**
+     * Number of requests revalidated with a 304
+     */
+    private long conditionalHitCount;
+
+    /**
+     * Number of requests that downloaded a body
+     */
+    private long networkCount;
+
+    /**
+     * Form a DiskResponseCache, entries already in the directory are kept
+     * @param directory the directory to keep the entries in, created if it doesn't exist
+     * @param maxSize the limit of the size of the cache, in bytes
+     */
+    public DiskResponseCache(File directory, long maxSize) {
+        if (directory == null) throw new IllegalArgumentException("directory == null");
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+        this.directory = directory;
+        this.maxSize = maxSize;
+        directory.mkdirs();
+        loadIndex();
+    }
+
+    /**
+     * Rebuild the index from the entry files, ordered by when they were last used
+     */
+    private void loadIndex() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) file.delete();
+            if (!name.endsWith(ENTRY_SUFFIX)) continue;
+            entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), file.length());
+            size += file.length();
+        }
+        trimToSize();
+    }
+
+    /**
+     * Look up the stored response for a request
+     * @param url the full request URL
+     * @param authorization the Authorization the request sends, or null
+     * @param headers the headers of the request, for the ones named by Vary
+     * @return the entry, or null if there is none or it was stored for other values of the Vary headers
+     */
+    Entry get(String url, String authorization, Map<String, String> headers) {
+        String key = keyOf(url, authorization);
+        synchronized (this) {
+            if (entries.get(key) == null) return null;
+        }
+        File file = fileOf(key);
+        Entry entry;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                entry = Entry.readFrom(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                removeKey(key);
+            }
+            return null;
+        }
+        if (!url.equals(entry.url) || !entry.matches(headers)) return null;
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Store a response, replacing any older entry for the same URL and Authorization
+     * @param entry the entry to store
+     * @param authorization the Authorization the request sent, or null
+     */
+    void put(Entry entry, String authorization) {
+        String key = keyOf(entry.url, authorization);
+        File file = fileOf(key);
+        File temp = null;
+        try {
+            temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                entry.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            if (temp != null) temp.delete();
+            remove(entry.url, authorization);
+            return;
+        }
+        long length = temp.length();
+        synchronized (this) {
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    removeKey(key);
+                    return;
+                }
+            }
+            Long old = entries.put(key, length);
+            if (old != null) size -= old;
+            size += length;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Remove the stored response for a URL that was requested without an Authorization
+     * @param url the full request URL
+     */
+    public void remove(String url) {
+        remove(url, null);
+    }
+
+    /**
+     * Remove the stored response for a URL and Authorization
+     * @param url the full request URL
+     * @param authorization the Authorization the request sent, or null
+     */
+    synchronized void remove(String url, String authorization) {
+        removeKey(keyOf(url, authorization));
+    }
+
+    /**
+     * Remove every stored response
+     */
+    public synchronized void evictAll() {
+        for (String key : entries.keySet()) fileOf(key).delete();
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Remove the entry file for a key
+     * @param key the key
+     */
+    private void removeKey(String key) {
+        Long old = entries.remove(key);
+        if (old != null) size -= old;
+        fileOf(key).delete();
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits its limit
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+        while (size > maxSize && i.hasNext()) {
+            Map.Entry<String, Long> eldest = i.next();
+            i.remove();
+            size -= eldest.getValue();
+            fileOf(eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Count a request served from the cache without network I/O
+     */
+    synchronized void trackHit() {
+        hitCount++;
+    }
+
+    /**
+     * Count a request revalidated with a 304
+     */
+    synchronized void trackConditionalHit() {
+        conditionalHitCount++;
+    }
+
+    /**
+     * Count a request that downloaded a body
+     */
+    synchronized void trackNetwork() {
+        networkCount++;
+    }
+
+    /**
+     * Get the size of the cache
+     * @return the size in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Get the limit of the size of the cache
+     * @return the limit in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of requests served from the cache without network I/O
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of requests revalidated with a 304
+     * @return the conditional hit count
+     */
+    public synchronized long getConditionalHitCount() {
+        return conditionalHitCount;
+    }
+
+    /**
+     * Get the number of requests that downloaded a body
+     * @return the network count
+     */
+    public synchronized long getNetworkCount() {
+        return networkCount;
+    }
+
+    /**
+     * Get the entry file for a key
+     * @param key the key
+     * @return the file
+     */
+    private File fileOf(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Helper for turning a URL and Authorization into a key that is safe as a file name
+     * @param url the full request URL
+     * @param authorization the Authorization the request sends, or null
+     * @return the MD5 of the URL and Authorization in hex
+     */
+    private static String keyOf(String url, String authorization) {
+        try {
+            String identity = authorization != null ? url + '\n' + authorization : url;
+            byte[] digest = MessageDigest.getInstance("MD5").digest(identity.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper for finding the value of a request header, whatever the case of its name
+     * @param headers the headers of the request
+     * @param name the name of the header
+     * @return the value, or null if the request doesn't send it
+     */
+    private static String headerValue(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Helper for listing the values a request sends for the headers named by Vary
+     *
+     * Authorization is left out, it is part of the key and mustn't be written to disk
+     * @param vary the Vary header of the response, or null
+     * @param headers the headers of the request
+     * @return one name: value line per header, in the order of Vary, ended by \r instead of \n for headers the request doesn't send
+     */
+    private static String varyValuesOf(String vary, Map<String, String> headers) {
+        if (vary == null) return "";
+        StringBuilder values = new StringBuilder();
+        for (String name : vary.split(",")) {
+            name = name.trim().toLowerCase(Locale.US);
+            if (name.length() == 0 || name.equals("authorization")) continue;
+            String value = headerValue(headers, name);
+            values.append(name).append(':').append(value != null ? value : "").append(value != null ? "\n" : "\r");
+        }
+        return values.toString();
+    }
+
+    /**
+     * A stored response body and its validators
+     */
+    static class Entry {
+
+        /**
+         * The full request URL
+         */
+        final String url;
+
+        /**
+         * The ETag, or null
+         */
+        final String etag;
+
+        /**
+         * The Last-Modified time in milliseconds, or 0
+         */
+        final long lastModified;
+
+        /**
+         * When the entry stops being fresh, in milliseconds
+         */
+        final long expires;
+
+        /**
+         * The Content-Type, or null, so a body served from the cache is decoded with the right charset
+         */
+        final String contentType;
+
+        /**
+         * The Vary header of the response, or null
+         */
+        final String vary;
+
+        /**
+         * The values the request sent for the headers named by Vary, see {@link #varyValuesOf(String, Map)}
+         */
+        final String varyValues;
+
+        /**
+         * The response body
+         */
+        final byte[] body;
+
+        Entry(String url, String etag, long lastModified, long expires, String contentType,
+              String vary, String varyValues, byte[] body) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.contentType = contentType;
+            this.vary = vary;
+            this.varyValues = varyValues;
+            this.body = body;
+        }
+
+        /**
+         * Whether a request sends the same values for the headers named by Vary as the one this entry was stored for
+         * @param headers the headers of the request
+         * @return true if the entry may answer the request
+         */
+        boolean matches(Map<String, String> headers) {
+            return varyValues.equals(varyValuesOf(vary, headers));
+        }
+
+        /**
+         * Whether the entry can be served without revalidating
+         * @param now the current time in milliseconds
+         * @return true if it hasn't expired
+         */
+        boolean isFresh(long now) {
+            return now < expires;
+        }
+
+        /**
+         * Add the conditional headers that revalidate this entry
+         * @param conn the connection, before it is connected
+         */
+        void addValidators(HttpURLConnection conn) {
+            if (etag != null) conn.setRequestProperty("If-None-Match", etag);
+            if (lastModified != 0) conn.setIfModifiedSince(lastModified);
+        }
+
+        /**
+         * Build the entry for a downloaded response
+         * @param url the full request URL
+         * @param headers the headers of the request
+         * @param conn the connection, after the response arrived
+         * @param body the response body
+         * @return the entry, or null if the response must not or can't usefully be stored
+         * @throws IOException if the status code can't be read
+         */
+        static Entry fromResponse(String url, Map<String, String> headers, HttpURLConnection conn, byte[] body) throws IOException {
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) return null;
+            long expires = expiresOf(conn);
+            if (expires == -1) return null;
+            String vary = conn.getHeaderField("Vary");
+            if (vary != null && vary.trim().equals("*")) return null;
+            String etag = conn.getHeaderField("ETag");
+            long lastModified = conn.getLastModified();
+            if (expires <= System.currentTimeMillis() && etag == null && lastModified == 0) return null;
+            return new Entry(url, etag, lastModified, expires, conn.getContentType(), vary, varyValuesOf(vary, headers), body);
+        }
+
+        /**
+         * Build the entry for a stored response that was just revalidated with a 304
+         * @param conn the connection, after the 304 arrived
+         * @return the refreshed entry, or null if it must not be stored any longer
+         */
+        Entry revalidated(HttpURLConnection conn) {
+            long expires = expiresOf(conn);
+            if (expires == -1) return null;
+            String newEtag = conn.getHeaderField("ETag");
+            long newLastModified = conn.getLastModified();
+            return new Entry(url, newEtag != null ? newEtag : etag,
+                    newLastModified != 0 ? newLastModified : lastModified, expires, contentType, vary, varyValues, body);
+        }
+
+        /**
+         * Helper for finding when a response stops being fresh
+         * @param conn the connection, after the response arrived
+         * @return the time in milliseconds, or -1 if the response must not be stored
+         */
+        private static long expiresOf(HttpURLConnection conn) {
+            long now = System.currentTimeMillis();
+            String cacheControl = conn.getHeaderField("Cache-Control");
+            if (cacheControl != null) {
+                long expires = 0;
+                for (String directive : cacheControl.split(",")) {
+                    directive = directive.trim().toLowerCase(Locale.US);
+                    if (directive.equals("no-store")) return -1;
+                    if (directive.equals("no-cache")) return now;
+                    if (directive.startsWith("max-age=")) {
+                        try {
+                            expires = now + Long.parseLong(directive.substring(8).trim()) * 1000;
+                        } catch (NumberFormatException ignored) {
+                            expires = now;
+                        }
+                    }
+                }
+                if (expires != 0) return expires;
+            }
+            long expiration = conn.getExpiration();
+            return expiration != 0 ? expiration : now;
+        }
+
+        /**
+         * Write the entry to a file
+         * @param out the file
+         * @throws IOException if it can't be written
+         */
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(ENTRY_VERSION);
+            out.writeUTF(url);
+            out.writeUTF(etag != null ? etag : "");
+            out.writeLong(lastModified);
+            out.writeLong(expires);
+            out.writeUTF(contentType != null ? contentType : "");
+            out.writeUTF(vary != null ? vary : "");
+            out.writeUTF(varyValues);
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        /**
+         * Read an entry from a file
+         * @param in the file
+         * @return the entry
+         * @throws IOException if it can't be read or has an older format
+         */
+        static Entry readFrom(DataInputStream in) throws IOException {
+            if (in.readInt() != ENTRY_VERSION) throw new IOException("Unknown cache entry version");
+            String url = in.readUTF();
+            String etag = in.readUTF();
+            long lastModified = in.readLong();
+            long expires = in.readLong();
+            String contentType = in.readUTF();
+            String vary = in.readUTF();
+            String varyValues = in.readUTF();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(url, etag.length() != 0 ? etag : null, lastModified, expires,
+                    contentType.length() != 0 ? contentType : null, vary.length() != 0 ? vary : null, varyValues, body);
+        }
+    }
+}
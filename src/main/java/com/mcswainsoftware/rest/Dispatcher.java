@@ -0,0 +1,374 @@
+package com.mcswainsoftware.rest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when queued REST requests are run
+ *
+ * Requests are run on a bounded pool of worker threads
+ * A request only starts running once a worker thread is free to take it, so requests never wait for a worker while counted as running
+ * A request waiting for the answer of a {@link NioTransport}, or for a retry, gives its worker back and keeps its slot until it is done
+ * At most maxRequests requests run at once, and at most maxRequestsPerHost of those may go to the same host
+ * Anything over those limits waits in a queue until a running request finishes
+ * The queue is ordered by request priority, requests of the same priority run in the order they were enqueued
+ *
+ * With an {@link AdaptiveLimiter} the limit per host follows how the host answers instead of maxRequestsPerHost
+ */
+public class Dispatcher {
+
+    /**
+     * The default number of worker threads
+     */
+    public static final int DEFAULT_MAX_WORKERS = 8;
+
+    /**
+     * The default limit of requests running at once
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+
+    /**
+     * The default limit of requests running at once against a single host
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * How long an idle worker thread is kept alive, in seconds
+     */
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * The limit of requests running at once
+     */
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+
+    /**
+     * The limit of requests running at once against a single host
+     */
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    /**
+     * Adjusts the limit of each host, or null to use maxRequestsPerHost
+     */
+    private AdaptiveLimiter limiter;
+
+    /**
+     * The worker threads
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Requests waiting for a free slot, highest priority first
+     */
+    private final ArrayList<Rest.RestRequestTask> readyCalls = new ArrayList<>();
+
+    /**
+     * The number of requests enqueued so far, used to keep requests of the same priority in order
+     */
+    private long sequence;
+
+    /**
+     * Requests currently running
+     */
+    private final Deque<Rest.RestRequestTask> runningCalls = new ArrayDeque<>();
+
+    /**
+     * The number of worker threads given a request, running it or about to
+     */
+    private int busyWorkers;
+
+    /**
+     * Form a Dispatcher with {@link #DEFAULT_MAX_WORKERS} worker threads
+     */
+    public Dispatcher() {
+        this(DEFAULT_MAX_WORKERS);
+    }
+
+    /**
+     * Form a Dispatcher
+     * @param maxWorkers the number of worker threads
+     */
+    public Dispatcher(int maxWorkers) {
+        if (maxWorkers < 1) throw new IllegalArgumentException("maxWorkers < 1: " + maxWorkers);
+        executor = new ThreadPoolExecutor(maxWorkers, maxWorkers, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(11, new CallComparator()), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a request, it will be started as soon as the limits allow
+     * @param call the request to run
+     * @return false if the request was rejected because the queue of its host is full
+     */
+    synchronized boolean enqueue(Rest.RestRequestTask call) {
+        if (limiter != null && limiter.getMaxQueuedPerHost() != AdaptiveLimiter.UNBOUNDED_QUEUE
+                && queuedCallsForHost(call.host()) >= limiter.getMaxQueuedPerHost()
+                && runningCallsForHost(call.host()) >= limiter.getLimit(call.host())) {
+            limiter.recordRejected();
+            return false;
+        }
+        call.setSequence(sequence++);
+        int index = readyCalls.size();
+        while (index > 0 && readyCalls.get(index - 1).priority() < call.priority()) index--;
+        readyCalls.add(index, call);
+        promoteCalls();
+        return true;
+    }
+
+    /**
+     * Drop a request that hasn't started yet
+     * @param call the request
+     * @return true if it was still queued
+     */
+    synchronized boolean cancel(Rest.RestRequestTask call) {
+        return readyCalls.remove(call);
+    }
+
+    /**
+     * Called by a request once it is done, frees its slot for the next waiting request
+     * @param call the request that finished
+     */
+    synchronized void finished(Rest.RestRequestTask call) {
+        runningCalls.remove(call);
+        promoteCalls();
+    }
+
+    /**
+     * Run a request on a worker thread again, to go on once what it waited for happened
+     *
+     * It keeps its slot while waiting, it is still running
+     * @param call the request
+     */
+    void resume(Rest.RestRequestTask call) {
+        synchronized (this) {
+            busyWorkers++;
+        }
+        executor.execute(call);
+    }
+
+    /**
+     * Called by a request when its worker thread is done with it, because it finished or waits for something
+     * @param call the request
+     */
+    synchronized void released(Rest.RestRequestTask call) {
+        busyWorkers--;
+        promoteCalls();
+    }
+
+    /**
+     * Called by a running request with how long its host took to answer, so the limiter can adjust the limit of the host
+     * @param call the request
+     * @param rttNanos the time from sending the request to the first byte of the answer, in nanoseconds
+     * @param dropped whether the request failed or timed out instead of being answered
+     */
+    void onSample(Rest.RestRequestTask call, long rttNanos, boolean dropped) {
+        AdaptiveLimiter limiter;
+        int inFlight;
+        synchronized (this) {
+            limiter = this.limiter;
+            if (limiter == null) return;
+            inFlight = runningCallsForHost(call.host());
+        }
+        limiter.onSample(call.host(), rttNanos, inFlight, dropped);
+        synchronized (this) {
+            promoteCalls();
+        }
+    }
+
+    /**
+     * Move waiting requests to free worker threads while the limits allow
+     */
+    private void promoteCalls() {
+        if (isSaturated()) return;
+
+        for (Iterator<Rest.RestRequestTask> i = readyCalls.iterator(); i.hasNext(); ) {
+            Rest.RestRequestTask call = i.next();
+            if (runningCallsForHost(call.host()) < hostLimit(call.host())) {
+                i.remove();
+                runningCalls.add(call);
+                busyWorkers++;
+                executor.execute(call);
+            }
+            if (isSaturated()) return;
+        }
+    }
+
+    /**
+     * Helper for checking whether another request may start
+     * @return true if maxRequests are running or every worker thread is busy
+     */
+    private boolean isSaturated() {
+        return runningCalls.size() >= maxRequests || busyWorkers >= executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Count the running requests against a host
+     * @param host the host name
+     * @return the number of running requests
+     */
+    private int runningCallsForHost(String host) {
+        int count = 0;
+        for (Rest.RestRequestTask running : runningCalls) {
+            if (running.host().equals(host)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Count the queued requests for a host
+     * @param host the host name
+     * @return the number of queued requests
+     */
+    private int queuedCallsForHost(String host) {
+        int count = 0;
+        for (Rest.RestRequestTask ready : readyCalls) {
+            if (ready.host().equals(host)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Helper for finding the limit of a host
+     * @param host the host name
+     * @return the limit from the limiter, or maxRequestsPerHost if there is none
+     */
+    private int hostLimit(String host) {
+        return limiter != null ? limiter.getLimit(host) : maxRequestsPerHost;
+    }
+
+    /**
+     * Get the limit of requests running at once
+     * @return the limit
+     */
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Set the limit of requests running at once
+     * @param maxRequests the limit
+     */
+    public synchronized void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        this.maxRequests = maxRequests;
+        promoteCalls();
+    }
+
+    /**
+     * Get the limit of requests running at once against a single host
+     * @return the limit
+     */
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * Set the limit of requests running at once against a single host
+     * @param maxRequestsPerHost the limit
+     */
+    public synchronized void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        promoteCalls();
+    }
+
+    /**
+     * Get the limiter that adjusts the limit of each host
+     * @return the limiter, or null if maxRequestsPerHost is used
+     */
+    public synchronized AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Set the limiter that adjusts the limit of each host, it replaces maxRequestsPerHost
+     * @param limiter the limiter, or null to use maxRequestsPerHost
+     */
+    public synchronized void setLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+        promoteCalls();
+    }
+
+    /**
+     * Get the number of requests that may run against a host at once
+     * @param host the host name
+     * @return the limit, from the limiter if there is one
+     */
+    public synchronized int getHostLimit(String host) {
+        return hostLimit(host);
+    }
+
+    /**
+     * Get the number of requests waiting to run against a host
+     * @param host the host name
+     * @return the number of queued requests
+     */
+    public synchronized int queuedCallsCount(String host) {
+        return queuedCallsForHost(host);
+    }
+
+    /**
+     * Get the number of requests running against a host
+     * @param host the host name
+     * @return the number of running requests
+     */
+    public synchronized int runningCallsCount(String host) {
+        return runningCallsForHost(host);
+    }
+
+    /**
+     * Get the number of requests waiting to run
+     * @return the number of queued requests
+     */
+    public synchronized int queuedCallsCount() {
+        return readyCalls.size();
+    }
+
+    /**
+     * Get the number of requests running
+     * @return the number of running requests
+     */
+    public synchronized int runningCallsCount() {
+        return runningCalls.size();
+    }
+
+    /**
+     * Orders requests waiting for a worker thread, highest priority first, then in the order they were enqueued
+     */
+    private static class CallComparator implements Comparator<Runnable> {
+
+        @Override
+        public int compare(Runnable a, Runnable b) {
+            Rest.RestRequestTask x = (Rest.RestRequestTask) a;
+            Rest.RestRequestTask y = (Rest.RestRequestTask) b;
+            if (x.priority() != y.priority()) return x.priority() > y.priority() ? -1 : 1;
+            return x.sequence() < y.sequence() ? -1 : (x.sequence() == y.sequence() ? 0 : 1);
+        }
+    }
+
+    /**
+     * Names the worker threads and keeps them from blocking process exit
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        /**
+         * Counter used for the thread names
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Rest Dispatcher " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.mcswainsoftware.rest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves host names, see {@link Rest#setDns(Dns)}
+ *
+ * Replace it to cache differently, or with fixed addresses in tests
+ */
+public interface Dns {
+
+    /**
+     * Resolves with the platform resolver
+     */
+    Dns SYSTEM = new Dns() {
+        @Override
+        public List<InetAddress> lookup(String host) throws UnknownHostException {
+            if (host == null) throw new UnknownHostException("host == null");
+            return Arrays.asList(InetAddress.getAllByName(host));
+        }
+    };
+
+    /**
+     * Resolve a host name
+     * @param host the host name or IP address literal
+     * @return the addresses, at least one, the preferred first
+     * @throws UnknownHostException if the host can't be resolved
+     */
+    List<InetAddress> lookup(String host) throws UnknownHostException;
+}
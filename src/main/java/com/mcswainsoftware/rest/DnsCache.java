@@ -0,0 +1,189 @@
+package com.mcswainsoftware.rest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Caches the results of another {@link Dns}, so requests to a known host don't wait on a lookup
+ *
+ * Addresses are kept for ttlMillis, hosts that failed to resolve for negativeTtlMillis
+ * At most maxEntries hosts are kept, the least recently used is evicted first
+ */
+public class DnsCache implements Dns {
+
+    /**
+     * The default time addresses are kept, in milliseconds
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    /**
+     * The default time a failed lookup is kept, in milliseconds
+     */
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 5 * 1000;
+
+    /**
+     * The default number of hosts kept
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    /**
+     * The resolver whose results are cached
+     */
+    private final Dns delegate;
+
+    /**
+     * The time addresses are kept, in milliseconds
+     */
+    private final long ttlMillis;
+
+    /**
+     * The time a failed lookup is kept, in milliseconds
+     */
+    private final long negativeTtlMillis;
+
+    /**
+     * The hosts, least recently used first
+     */
+    private final LinkedHashMap<String, Lookup> entries;
+
+    /**
+     * Number of lookups answered from the cache
+     */
+    private long hitCount;
+
+    /**
+     * Number of lookups handed to the resolver
+     */
+    private long missCount;
+
+    /**
+     * Form a DnsCache over the platform resolver with the default limits
+     */
+    public DnsCache() {
+        this(Dns.SYSTEM, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Form a DnsCache
+     * @param delegate the resolver whose results are cached
+     * @param ttlMillis the time addresses are kept, in milliseconds
+     * @param negativeTtlMillis the time a failed lookup is kept, in milliseconds, 0 to not keep them
+     * @param maxEntries the number of hosts kept
+     */
+    public DnsCache(Dns delegate, long ttlMillis, long negativeTtlMillis, final int maxEntries) {
+        if (delegate == null) throw new IllegalArgumentException("delegate == null");
+        if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis <= 0: " + ttlMillis);
+        if (negativeTtlMillis < 0) throw new IllegalArgumentException("negativeTtlMillis < 0: " + negativeTtlMillis);
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0: " + maxEntries);
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.entries = new LinkedHashMap<String, Lookup>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public List<InetAddress> lookup(String host) throws UnknownHostException {
+        if (host == null) throw new UnknownHostException("host == null");
+        String key = host.toLowerCase(Locale.US);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Lookup entry = entries.get(key);
+            if (entry != null && now < entry.expiresAt) {
+                hitCount++;
+                if (entry.addresses == null) throw new UnknownHostException(host);
+                return entry.addresses;
+            }
+            missCount++;
+        }
+        List<InetAddress> addresses;
+        try {
+            addresses = delegate.lookup(host);
+            if (addresses == null || addresses.isEmpty()) throw new UnknownHostException(host);
+        } catch (UnknownHostException e) {
+            if (negativeTtlMillis > 0) put(key, new Lookup(null, System.currentTimeMillis() + negativeTtlMillis));
+            throw e;
+        }
+        addresses = Collections.unmodifiableList(addresses);
+        put(key, new Lookup(addresses, System.currentTimeMillis() + ttlMillis));
+        return addresses;
+    }
+
+    /**
+     * Drop the addresses of a host, such as after connecting to them failed
+     * @param host the host name
+     */
+    public synchronized void evict(String host) {
+        entries.remove(host.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Drop every host, such as after the network changed
+     */
+    public synchronized void evictAll() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of hosts kept
+     * @return the number of hosts, including expired ones not dropped yet
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of lookups answered from the cache
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of lookups handed to the resolver
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Helper for storing a lookup
+     * @param key the lower case host name
+     * @param entry the result
+     */
+    private synchronized void put(String key, Lookup entry) {
+        entries.put(key, entry);
+    }
+
+    /**
+     * The result of one lookup
+     */
+    private static class Lookup {
+
+        /**
+         * The addresses, or null if the host didn't resolve
+         */
+        final List<InetAddress> addresses;
+
+        /**
+         * When the result expires, in milliseconds
+         */
+        final long expiresAt;
+
+        Lookup(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
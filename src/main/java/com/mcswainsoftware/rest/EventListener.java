@@ -0,0 +1,127 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+/**
+ * Gets told about each phase of every request, for timing and size metrics
+ *
+ * Every method does nothing by default, override the ones of interest
+ * Timestamps come from System.nanoTime(), so they are only meaningful relative to each other
+ * Methods are called on whichever thread the phase happens on, so they must be thread safe and fast
+ *
+ * A retried request reports the connect, request body, response and parse phases once per attempt
+ */
+public abstract class EventListener {
+
+    /**
+     * A listener that does nothing, used when none is set
+     */
+    static final EventListener NONE = new EventListener() {
+    };
+
+    /**
+     * Called when a request is handed to the dispatcher
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void callQueued(Call call, long nanoTime) {
+    }
+
+    /**
+     * Called when a worker thread starts running a request
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void callDequeued(Call call, long nanoTime) {
+    }
+
+    /**
+     * Called before the connection to the server is made
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void connectStart(Call call, long nanoTime) {
+    }
+
+    /**
+     * Called once the connection to the server is made
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void connectEnd(Call call, long nanoTime) {
+    }
+
+    /**
+     * Called once the request body was sent
+     * @param call the call
+     * @param nanoTime the time
+     * @param byteCount the size of the body before compression
+     * @param wireByteCount the size of the body as sent
+     */
+    public void requestBodyEnd(Call call, long nanoTime, long byteCount, long wireByteCount) {
+    }
+
+    /**
+     * Called once the status line and headers of the response arrived
+     * @param call the call
+     * @param nanoTime the time
+     * @param statusCode the HTTP status code
+     */
+    public void responseFirstByte(Call call, long nanoTime, int statusCode) {
+    }
+
+    /**
+     * Called once the response body was read completely
+     * @param call the call
+     * @param nanoTime the time
+     * @param wireByteCount the size of the body as received
+     * @param byteCount the size of the body after decompression
+     */
+    public void responseBodyEnd(Call call, long nanoTime, long wireByteCount, long byteCount) {
+    }
+
+    /**
+     * Called before the body is parsed, for streamed return types parsing also reads the body
+     *
+     * Buffered JSON, XML and plain text bodies are only parsed when their content is first asked for, which isn't reported,
+     * unless the request parses successful bodies on the worker thread, see {@link RestRequest#setParseOnWorker(boolean)}
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void parseStart(Call call, long nanoTime) {
+    }
+
+    /**
+     * Called once the body was parsed
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void parseEnd(Call call, long nanoTime) {
+    }
+
+    /**
+     * Called when a request gives up after an error, one that ended with an error status is still delivered with its error response
+     * @param call the call
+     * @param nanoTime the time
+     * @param failure the error of the last attempt
+     */
+    public void callFailed(Call call, long nanoTime, Exception failure) {
+    }
+
+    /**
+     * Called right before the callback is run
+     * @param call the call
+     * @param nanoTime the time
+     * @param response the response handed to the callback, can be null
+     */
+    public void callDelivered(Call call, long nanoTime, RestResponse response) {
+    }
+
+    /**
+     * Called when a canceled request is dropped, its callback isn't run
+     * @param call the call
+     * @param nanoTime the time
+     */
+    public void callCanceled(Call call, long nanoTime) {
+    }
+}
@@ -0,0 +1,272 @@
+package com.mcswainsoftware.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A download of a response body straight to a file, resumed with a Range request if it was interrupted
+ *
+ * The body goes to a .part file next to the target, and the ETag, Last-Modified and size of the download go to a .part.meta file
+ * A later download of the same file asks for the missing bytes only, with If-Range so a changed resource is sent whole
+ * The .part file replaces the target once its size matches the size the server announced
+ */
+class FileDownload {
+
+    /**
+     * Version of the meta file format
+     */
+    private static final int META_VERSION = 1;
+
+    /**
+     * Size of the buffer the body is copied through
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A direct buffer per worker thread, reused across downloads
+     */
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    /**
+     * The finished file
+     */
+    private final File target;
+
+    /**
+     * The file being downloaded to
+     */
+    private final File part;
+
+    /**
+     * The validators and size of the download
+     */
+    private final File meta;
+
+    /**
+     * The number of bytes already downloaded that can be resumed from
+     */
+    private long offset;
+
+    /**
+     * The ETag of the download, or null
+     */
+    private String etag;
+
+    /**
+     * The Last-Modified header of the download, or null
+     */
+    private String lastModified;
+
+    /**
+     * The size of the whole body, or -1 if it isn't known
+     */
+    private long totalLength = -1;
+
+    /**
+     * Form a FileDownload, picking up a partial download of the same file if there is one
+     * @param target the finished file
+     */
+    FileDownload(File target) {
+        if (target == null) throw new IllegalArgumentException("No download file set");
+        this.target = target;
+        this.part = new File(target.getPath() + ".part");
+        this.meta = new File(target.getPath() + ".part.meta");
+        loadMeta();
+    }
+
+    /**
+     * Read the meta file of a partial download, if it can be resumed
+     */
+    private void loadMeta() {
+        if (!part.exists() || !meta.exists()) return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            try {
+                if (in.readInt() != META_VERSION) return;
+                String etag = in.readUTF();
+                String lastModified = in.readUTF();
+                this.etag = etag.length() != 0 ? etag : null;
+                this.lastModified = lastModified.length() != 0 ? lastModified : null;
+                this.totalLength = in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return;
+        }
+        long length = part.length();
+        if ((etag != null || lastModified != null) && (totalLength == -1 || length <= totalLength)) offset = length;
+    }
+
+    /**
+     * Write the meta file, before any of the body is written
+     * @throws IOException if it can't be written
+     */
+    private void writeMeta() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(meta)));
+        try {
+            out.writeInt(META_VERSION);
+            out.writeUTF(etag != null ? etag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeLong(totalLength);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Ask for the missing bytes of a partial download
+     * @param conn the connection, before it is connected
+     */
+    void addRangeHeaders(HttpURLConnection conn) {
+        if (offset == 0) return;
+        conn.setRequestProperty("Range", "bytes=" + offset + "-");
+        conn.setRequestProperty("If-Range", etag != null ? etag : lastModified);
+    }
+
+    /**
+     * Write the body to the file and move it in place once it is complete
+     * @param conn the connection, after the response arrived
+     * @param code the status code, 200 for the whole body or 206 for the rest of a partial download
+     * @param in the body
+     * @param decoded whether the body was decompressed, so its size can't be checked against Content-Length
+     * @return the finished file
+     * @throws IOException if the body can't be written, doesn't match the partial download, or is cut short
+     */
+    File receive(HttpURLConnection conn, int code, InputStream in, boolean decoded) throws IOException {
+        long start;
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            long[] range = contentRange(conn.getHeaderField("Content-Range"));
+            String newEtag = conn.getHeaderField("ETag");
+            if (offset == 0 || range == null || range[0] != offset
+                    || (range[1] != -1 && totalLength != -1 && range[1] != totalLength)
+                    || (etag != null && newEtag != null && !etag.equals(newEtag))) {
+                discard();
+                throw new IOException("Range response doesn't match the partial download of " + target);
+            }
+            start = offset;
+            if (range[1] != -1) totalLength = range[1];
+        } else if (code == HttpURLConnection.HTTP_OK) {
+            start = 0;
+            etag = conn.getHeaderField("ETag");
+            lastModified = conn.getHeaderField("Last-Modified");
+            totalLength = decoded ? -1 : contentLength(conn);
+            writeMeta();
+        } else {
+            throw new IOException("Unexpected status " + code + " for a download");
+        }
+
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        RandomAccessFile file = new RandomAccessFile(part, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(start);
+            channel.position(start);
+            ReadableByteChannel source = Channels.newChannel(in);
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) channel.write(buffer);
+                buffer.clear();
+            }
+        } finally {
+            file.close();
+        }
+
+        long size = part.length();
+        if (totalLength != -1 && size != totalLength) {
+            throw new IOException("Download of " + target + " is " + size + " bytes, expected " + totalLength);
+        }
+        return finish();
+    }
+
+    /**
+     * Handle a 416 to a Range request, which means the partial download may already be complete
+     * @param conn the connection, after the response arrived
+     * @return the finished file
+     * @throws IOException if the partial download doesn't match the resource, it is then discarded
+     */
+    File rangeNotSatisfiable(HttpURLConnection conn) throws IOException {
+        long[] range = contentRange(conn.getHeaderField("Content-Range"));
+        if (offset != 0 && range != null && range[1] == offset && (totalLength == -1 || totalLength == offset)) {
+            return finish();
+        }
+        discard();
+        throw new IOException("Range not satisfiable for the partial download of " + target);
+    }
+
+    /**
+     * Move the complete .part file in place of the target
+     * @return the target
+     * @throws IOException if it can't be moved
+     */
+    private File finish() throws IOException {
+        if (!part.renameTo(target)) {
+            target.delete();
+            if (!part.renameTo(target)) throw new IOException("Unable to move " + part + " to " + target);
+        }
+        meta.delete();
+        return target;
+    }
+
+    /**
+     * Drop a partial download that can't be resumed
+     */
+    private void discard() {
+        part.delete();
+        meta.delete();
+        offset = 0;
+    }
+
+    /**
+     * Helper for reading the Content-Length, which may be more than an int
+     * @param conn the connection, after the response arrived
+     * @return the length, or -1 if it isn't known
+     */
+    private static long contentLength(HttpURLConnection conn) {
+        String length = conn.getHeaderField("Content-Length");
+        if (length == null) return -1;
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Helper for reading a Content-Range header, such as bytes 100-199/200 or bytes &#42;/200
+     * @param contentRange the header, or null
+     * @return the first byte and the size of the whole body, each -1 if it isn't given, or null if there is no valid header
+     */
+    static long[] contentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return null;
+        int slash = contentRange.indexOf('/');
+        if (slash == -1) return null;
+        try {
+            String range = contentRange.substring(6, slash).trim();
+            String total = contentRange.substring(slash + 1).trim();
+            int dash = range.indexOf('-');
+            long first = range.equals("*") || dash == -1 ? -1 : Long.parseLong(range.substring(0, dash));
+            return new long[] {first, total.equals("*") ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
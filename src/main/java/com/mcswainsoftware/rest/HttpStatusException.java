@@ -0,0 +1,65 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers with an error status code
+ */
+class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The status code
+     */
+    private final int code;
+
+    /**
+     * The delay the server asked for with Retry-After, in milliseconds, or -1
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * The error response with its body, handed to the callback once no retry is left
+     */
+    private final RestResponse response;
+
+    /**
+     * Form an HttpStatusException
+     * @param code the status code
+     * @param retryAfterMillis the delay the server asked for with Retry-After, in milliseconds, or -1
+     * @param response the error response, or null if its body couldn't be read
+     */
+    HttpStatusException(int code, long retryAfterMillis, RestResponse response) {
+        super("HTTP " + code);
+        this.code = code;
+        this.retryAfterMillis = retryAfterMillis;
+        this.response = response;
+    }
+
+    /**
+     * Get the status code
+     * @return the code
+     */
+    int getCode() {
+        return code;
+    }
+
+    /**
+     * Get the delay the server asked for with Retry-After
+     * @return the delay in milliseconds, or -1 if there was none
+     */
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Get the error response
+     * @return the response, or null if its body couldn't be read
+     */
+    RestResponse getResponse() {
+        return response;
+    }
+}
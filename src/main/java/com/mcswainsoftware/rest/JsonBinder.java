@@ -0,0 +1,22 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+
+/**
+ * Reads one JSON value into an object, without building JSONObjects and without reflection
+ *
+ * Binders for classes annotated with {@link JsonModel} are generated at compile time by the rest-processor,
+ * {@link JsonBinders} has binders for the common value types and lists
+ * A binder holds no state between calls, so it can be shared between threads
+ * @param <T> the type the value is read into
+ */
+public interface JsonBinder<T> {
+
+    /**
+     * Consume the next value
+     * @param reader the reader, positioned before the value
+     * @return the object, or null if the value is null
+     * @throws IOException if the JSON can't be read or doesn't match the type
+     */
+    T read(JsonStreamReader reader) throws IOException;
+}
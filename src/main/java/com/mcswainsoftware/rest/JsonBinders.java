@@ -0,0 +1,225 @@
+package com.mcswainsoftware.rest;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The binders for common value types, and the lookup of the binders generated for {@link JsonModel} classes
+ *
+ * Every binder here reads a JSON null as null
+ * The generated binders are found by name the first time they are asked for and kept, so decoding itself uses no reflection
+ * When the app is shrunk with ProGuard, keep the classes implementing JsonBinder and their constructors
+ */
+public final class JsonBinders {
+
+    /**
+     * Reads a string, or a number as its text
+     */
+    public static final JsonBinder<String> STRING = new JsonBinder<String>() {
+        @Override
+        public String read(JsonStreamReader reader) throws IOException {
+            if (skipNull(reader)) return null;
+            return reader.nextString();
+        }
+    };
+
+    /**
+     * Reads a number that fits in an int
+     */
+    public static final JsonBinder<Integer> INTEGER = new JsonBinder<Integer>() {
+        @Override
+        public Integer read(JsonStreamReader reader) throws IOException {
+            if (skipNull(reader)) return null;
+            return reader.nextInt();
+        }
+    };
+
+    /**
+     * Reads a number that fits in a long
+     */
+    public static final JsonBinder<Long> LONG = new JsonBinder<Long>() {
+        @Override
+        public Long read(JsonStreamReader reader) throws IOException {
+            if (skipNull(reader)) return null;
+            return reader.nextLong();
+        }
+    };
+
+    /**
+     * Reads a number as a double
+     */
+    public static final JsonBinder<Double> DOUBLE = new JsonBinder<Double>() {
+        @Override
+        public Double read(JsonStreamReader reader) throws IOException {
+            if (skipNull(reader)) return null;
+            return reader.nextDouble();
+        }
+    };
+
+    /**
+     * Reads a number as a float
+     */
+    public static final JsonBinder<Float> FLOAT = new JsonBinder<Float>() {
+        @Override
+        public Float read(JsonStreamReader reader) throws IOException {
+            if (skipNull(reader)) return null;
+            return (float) reader.nextDouble();
+        }
+    };
+
+    /**
+     * Reads a boolean
+     */
+    public static final JsonBinder<Boolean> BOOLEAN = new JsonBinder<Boolean>() {
+        @Override
+        public Boolean read(JsonStreamReader reader) throws IOException {
+            if (skipNull(reader)) return null;
+            return reader.nextBoolean();
+        }
+    };
+
+    /**
+     * Reads any value the way JSONTokener would, for fields whose shape isn't fixed
+     */
+    public static final JsonBinder<Object> OBJECT = new JsonBinder<Object>() {
+        @Override
+        public Object read(JsonStreamReader reader) throws IOException {
+            Object value = reader.nextValue();
+            return value != JSONObject.NULL ? value : null;
+        }
+    };
+
+    /**
+     * The binders found so far, by the class they read
+     */
+    private static final HashMap<Class<?>, JsonBinder<?>> binders = new HashMap<>();
+
+    private JsonBinders() {
+    }
+
+    /**
+     * Form a binder for a JSON array
+     * @param element the binder for each element
+     * @param <T> the type of the elements
+     * @return the binder, reading an ArrayList
+     */
+    public static <T> JsonBinder<List<T>> listOf(final JsonBinder<? extends T> element) {
+        if (element == null) throw new IllegalArgumentException("element == null");
+        return new JsonBinder<List<T>>() {
+            @Override
+            public List<T> read(JsonStreamReader reader) throws IOException {
+                if (skipNull(reader)) return null;
+                ArrayList<T> list = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) list.add(element.read(reader));
+                reader.endArray();
+                return list;
+            }
+        };
+    }
+
+    /**
+     * Get the binder for a class
+     * @param type a class annotated with {@link JsonModel}, or one with a registered binder
+     * @param <T> the class
+     * @return the binder
+     * @throws IllegalArgumentException if no binder was generated or registered for the class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> JsonBinder<T> get(Class<T> type) {
+        synchronized (binders) {
+            JsonBinder<?> binder = binders.get(type);
+            if (binder == null) {
+                binder = load(type);
+                binders.put(type, binder);
+            }
+            return (JsonBinder<T>) binder;
+        }
+    }
+
+    /**
+     * Set the binder for a class, in place of the generated one
+     * @param type the class
+     * @param binder the binder
+     * @param <T> the class
+     */
+    public static <T> void register(Class<T> type, JsonBinder<T> binder) {
+        if (type == null || binder == null) throw new IllegalArgumentException("type and binder must be set");
+        synchronized (binders) {
+            binders.put(type, binder);
+        }
+    }
+
+    /**
+     * Form a codec that decodes a JSON body into a class
+     * @param type a class annotated with {@link JsonModel}, or one with a registered binder
+     * @param <T> the class
+     * @return the codec
+     * @throws IllegalArgumentException if no binder was generated or registered for the class
+     */
+    public static <T> ResponseCodec<T> codecFor(Class<T> type) {
+        return codecFor(get(type));
+    }
+
+    /**
+     * Form a codec that decodes a JSON body with a binder, such as listOf(get(Item.class)) for a body that is an array
+     * @param binder the binder for the whole body
+     * @param <T> the type of the decoded object
+     * @return the codec
+     */
+    public static <T> ResponseCodec<T> codecFor(final JsonBinder<T> binder) {
+        if (binder == null) throw new IllegalArgumentException("binder == null");
+        return new ResponseCodec<T>() {
+            @Override
+            public T decode(InputStream body, String charset) throws IOException {
+                return binder.read(new JsonStreamReader(new InputStreamReader(body, charset != null ? charset : "UTF-8")));
+            }
+        };
+    }
+
+    /**
+     * Helper for consuming a null value
+     * @param reader the reader, positioned before a value
+     * @return true if the value was null and is consumed
+     * @throws IOException if the JSON can't be read or is malformed
+     */
+    static boolean skipNull(JsonStreamReader reader) throws IOException {
+        if (reader.peek() != JsonStreamReader.TOKEN_NULL) return false;
+        reader.nextNull();
+        return true;
+    }
+
+    /**
+     * Helper for creating the generated binder of a class
+     * @param type the class
+     * @return the binder
+     * @throws IllegalArgumentException if there is no generated binder
+     */
+    private static JsonBinder<?> load(Class<?> type) {
+        String name = binderName(type.getName());
+        try {
+            return (JsonBinder<?>) Class.forName(name, true, type.getClassLoader()).newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("No " + name + " found, is " + type.getName()
+                    + " annotated with @JsonModel and the rest-processor on the annotation processor path?");
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unable to create " + name, e);
+        }
+    }
+
+    /**
+     * Helper for the name of the binder generated for a class
+     * @param className the binary name of the class, such as com.example.Outer$Inner
+     * @return the binary name of the binder, such as com.example.Outer_InnerJsonBinder
+     */
+    static String binderName(String className) {
+        int dot = className.lastIndexOf('.');
+        return className.substring(0, dot + 1) + className.substring(dot + 1).replace('$', '_') + "JsonBinder";
+    }
+}
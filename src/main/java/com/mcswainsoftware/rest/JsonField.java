@@ -0,0 +1,20 @@
+package com.mcswainsoftware.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a field of a {@link JsonModel} class to a JSON property with a different name
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface JsonField {
+
+    /**
+     * Get the name of the JSON property
+     * @return the name
+     */
+    String value();
+}
@@ -0,0 +1,21 @@
+package com.mcswainsoftware.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class the rest-processor generates a {@link JsonBinder} for
+ *
+ * Every field that isn't static or transient is read from the JSON property of the same name, or the one given by {@link JsonField}
+ * Fields may be primitives, their boxes, String, Object, another JsonModel class, or a List of any of these
+ * A private field needs a setter named set followed by the capitalised field name
+ *
+ * The class needs a constructor without arguments that isn't private, and must be static if it is nested
+ * The binder is generated next to it as NameJsonBinder, or Outer_InnerJsonBinder for a nested class
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+}
@@ -0,0 +1,649 @@
+package com.mcswainsoftware.rest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A pull reader over a stream of JSON tokens
+ *
+ * Only the current token is held in memory, so documents of any size can be read
+ * Use {@link #peek()} to find the next token, then the matching begin, end or next method to consume it
+ * {@link #nextValue()} reads a whole value into the same objects JSONTokener would return
+ */
+public class JsonStreamReader implements Closeable {
+
+    /**
+     * The start of an array
+     */
+    public static final int TOKEN_BEGIN_ARRAY = 0;
+
+    /**
+     * The end of an array
+     */
+    public static final int TOKEN_END_ARRAY = 1;
+
+    /**
+     * The start of an object
+     */
+    public static final int TOKEN_BEGIN_OBJECT = 2;
+
+    /**
+     * The end of an object
+     */
+    public static final int TOKEN_END_OBJECT = 3;
+
+    /**
+     * A property name inside an object
+     */
+    public static final int TOKEN_NAME = 4;
+
+    /**
+     * A string value
+     */
+    public static final int TOKEN_STRING = 5;
+
+    /**
+     * A number value
+     */
+    public static final int TOKEN_NUMBER = 6;
+
+    /**
+     * A true or false value
+     */
+    public static final int TOKEN_BOOLEAN = 7;
+
+    /**
+     * A null value
+     */
+    public static final int TOKEN_NULL = 8;
+
+    /**
+     * The end of the document
+     */
+    public static final int TOKEN_END_DOCUMENT = 9;
+
+    /**
+     * No token has been peeked yet
+     */
+    private static final int PEEKED_NONE = -1;
+
+    /**
+     * Scope of an array with no values read yet
+     */
+    private static final int SCOPE_EMPTY_ARRAY = 0;
+
+    /**
+     * Scope of an array with values read
+     */
+    private static final int SCOPE_NONEMPTY_ARRAY = 1;
+
+    /**
+     * Scope of an object with no properties read yet
+     */
+    private static final int SCOPE_EMPTY_OBJECT = 2;
+
+    /**
+     * Scope of an object whose last name has been read but not its value
+     */
+    private static final int SCOPE_DANGLING_NAME = 3;
+
+    /**
+     * Scope of an object with properties read
+     */
+    private static final int SCOPE_NONEMPTY_OBJECT = 4;
+
+    /**
+     * Scope of a document with no value read yet
+     */
+    private static final int SCOPE_EMPTY_DOCUMENT = 5;
+
+    /**
+     * Scope of a document whose value has been read
+     */
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 6;
+
+    /**
+     * The JSON being read
+     */
+    private final Reader in;
+
+    /**
+     * Characters read from the stream but not consumed
+     */
+    private final char[] buffer = new char[1024];
+
+    /**
+     * The next character to consume in the buffer
+     */
+    private int pos;
+
+    /**
+     * The end of the characters in the buffer
+     */
+    private int limit;
+
+    /**
+     * The scopes of the arrays and objects being read, innermost last
+     */
+    private int[] stack = new int[32];
+
+    /**
+     * The depth of the stack
+     */
+    private int stackSize;
+
+    /**
+     * The token found by peek and not consumed yet
+     */
+    private int peeked = PEEKED_NONE;
+
+    /**
+     * Form a JsonStreamReader
+     * @param in the JSON to read
+     */
+    public JsonStreamReader(Reader in) {
+        if (in == null) throw new IllegalArgumentException("in == null");
+        this.in = in;
+        stack[stackSize++] = SCOPE_EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Find the type of the next token without consuming it
+     * @return one of the TOKEN constants
+     * @throws IOException if the JSON can't be read or is malformed
+     */
+    public int peek() throws IOException {
+        if (peeked == PEEKED_NONE) peeked = doPeek();
+        return peeked;
+    }
+
+    /**
+     * Whether the current array or object has another element
+     * @return true if the next token is not the end of an array, object or document
+     * @throws IOException if the JSON can't be read or is malformed
+     */
+    public boolean hasNext() throws IOException {
+        int token = peek();
+        return token != TOKEN_END_ARRAY && token != TOKEN_END_OBJECT && token != TOKEN_END_DOCUMENT;
+    }
+
+    /**
+     * Consume the start of an array
+     * @throws IOException if the next token is not the start of an array
+     */
+    public void beginArray() throws IOException {
+        expect(TOKEN_BEGIN_ARRAY);
+        push(SCOPE_EMPTY_ARRAY);
+    }
+
+    /**
+     * Consume the end of an array
+     * @throws IOException if the next token is not the end of an array
+     */
+    public void endArray() throws IOException {
+        expect(TOKEN_END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consume the start of an object
+     * @throws IOException if the next token is not the start of an object
+     */
+    public void beginObject() throws IOException {
+        expect(TOKEN_BEGIN_OBJECT);
+        push(SCOPE_EMPTY_OBJECT);
+    }
+
+    /**
+     * Consume the end of an object
+     * @throws IOException if the next token is not the end of an object
+     */
+    public void endObject() throws IOException {
+        expect(TOKEN_END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Consume a property name
+     * @return the name
+     * @throws IOException if the next token is not a name
+     */
+    public String nextName() throws IOException {
+        expect(TOKEN_NAME);
+        return readString();
+    }
+
+    /**
+     * Consume a string or number value
+     * @return the value as a String
+     * @throws IOException if the next token is not a string or number
+     */
+    public String nextString() throws IOException {
+        int token = peek();
+        if (token != TOKEN_STRING && token != TOKEN_NUMBER) throw syntaxError("Expected a string but was " + token);
+        peeked = PEEKED_NONE;
+        return token == TOKEN_STRING ? readString() : readWord();
+    }
+
+    /**
+     * Consume a boolean value
+     * @return the value
+     * @throws IOException if the next token is not a boolean
+     */
+    public boolean nextBoolean() throws IOException {
+        expect(TOKEN_BOOLEAN);
+        String word = readWord();
+        if (word.equals("true")) return true;
+        if (word.equals("false")) return false;
+        throw syntaxError("Unexpected literal " + word);
+    }
+
+    /**
+     * Consume a null value
+     * @throws IOException if the next token is not null
+     */
+    public void nextNull() throws IOException {
+        expect(TOKEN_NULL);
+        String word = readWord();
+        if (!word.equals("null")) throw syntaxError("Unexpected literal " + word);
+    }
+
+    /**
+     * Consume a number value as a double
+     * @return the value
+     * @throws IOException if the next token is not a number
+     */
+    public double nextDouble() throws IOException {
+        expect(TOKEN_NUMBER);
+        String number = readWord();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number " + number);
+        }
+    }
+
+    /**
+     * Consume a number value as a long
+     * @return the value
+     * @throws IOException if the next token is not a number that fits in a long
+     */
+    public long nextLong() throws IOException {
+        expect(TOKEN_NUMBER);
+        String number = readWord();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            double value;
+            try {
+                value = Double.parseDouble(number);
+            } catch (NumberFormatException malformed) {
+                throw syntaxError("Malformed number " + number);
+            }
+            if (value != (long) value) throw syntaxError("Expected a long but was " + number);
+            return (long) value;
+        }
+    }
+
+    /**
+     * Consume a number value as an int
+     * @return the value
+     * @throws IOException if the next token is not a number that fits in an int
+     */
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) throw syntaxError("Expected an int but was " + value);
+        return (int) value;
+    }
+
+    /**
+     * Consume the next value, including everything nested inside it
+     * @throws IOException if the JSON can't be read or is malformed
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case TOKEN_BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case TOKEN_BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case TOKEN_END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case TOKEN_END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case TOKEN_NAME:
+                    nextName();
+                    break;
+                case TOKEN_BOOLEAN:
+                    nextBoolean();
+                    break;
+                case TOKEN_NULL:
+                    nextNull();
+                    break;
+                case TOKEN_END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    nextString();
+                    break;
+            }
+        } while (depth != 0);
+    }
+
+    /**
+     * Consume the next value and build it the way JSONTokener would
+     * @return a JSONObject, JSONArray, String, Boolean, Integer, Long, Double or JSONObject.NULL
+     * @throws IOException if the JSON can't be read or is malformed
+     */
+    public Object nextValue() throws IOException {
+        try {
+            switch (peek()) {
+                case TOKEN_BEGIN_OBJECT:
+                    JSONObject object = new JSONObject();
+                    beginObject();
+                    while (hasNext()) {
+                        String name = nextName();
+                        object.put(name, nextValue());
+                    }
+                    endObject();
+                    return object;
+                case TOKEN_BEGIN_ARRAY:
+                    JSONArray array = new JSONArray();
+                    beginArray();
+                    while (hasNext()) {
+                        array.put(nextValue());
+                    }
+                    endArray();
+                    return array;
+                case TOKEN_STRING:
+                    return nextString();
+                case TOKEN_NUMBER:
+                    return toNumber(nextString());
+                case TOKEN_BOOLEAN:
+                    return nextBoolean();
+                case TOKEN_NULL:
+                    nextNull();
+                    return JSONObject.NULL;
+                default:
+                    throw syntaxError("Expected a value but was " + peek());
+            }
+        } catch (JSONException e) {
+            throw syntaxError(e.getMessage());
+        }
+    }
+
+    /**
+     * Close the underlying stream
+     * @throws IOException if it can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Find the next token from the current scope and the next characters
+     * @return one of the TOKEN constants
+     * @throws IOException if the JSON can't be read or is malformed
+     */
+    private int doPeek() throws IOException {
+        int scope = stack[stackSize - 1];
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY:
+                stack[stackSize - 1] = SCOPE_NONEMPTY_ARRAY;
+                break;
+            case SCOPE_NONEMPTY_ARRAY: {
+                int c = nextNonWhitespace();
+                if (c == ']') return TOKEN_END_ARRAY;
+                if (c != ',') throw syntaxError("Expected , or ]");
+                break;
+            }
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_NONEMPTY_OBJECT: {
+                int c = nextNonWhitespace();
+                if (c == '}') return TOKEN_END_OBJECT;
+                if (scope == SCOPE_NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected , or }");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntaxError("Expected a name");
+                stack[stackSize - 1] = SCOPE_DANGLING_NAME;
+                return TOKEN_NAME;
+            }
+            case SCOPE_DANGLING_NAME:
+                stack[stackSize - 1] = SCOPE_NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected :");
+                break;
+            case SCOPE_EMPTY_DOCUMENT:
+                stack[stackSize - 1] = SCOPE_NONEMPTY_DOCUMENT;
+                break;
+            case SCOPE_NONEMPTY_DOCUMENT:
+                if (!skipWhitespace()) return TOKEN_END_DOCUMENT;
+                throw syntaxError("Expected the end of the document");
+        }
+
+        int c = nextNonWhitespace();
+        switch (c) {
+            case ']':
+                if (scope == SCOPE_EMPTY_ARRAY) return TOKEN_END_ARRAY;
+                throw syntaxError("Unexpected ]");
+            case '[':
+                return TOKEN_BEGIN_ARRAY;
+            case '{':
+                return TOKEN_BEGIN_OBJECT;
+            case '"':
+                return TOKEN_STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return TOKEN_BOOLEAN;
+            case 'n':
+                pos--;
+                return TOKEN_NULL;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) throw syntaxError("Unexpected character " + (char) c);
+                pos--;
+                return TOKEN_NUMBER;
+        }
+    }
+
+    /**
+     * Consume the peeked token if it is the expected one
+     * @param token the expected token
+     * @throws IOException if the next token is a different one
+     */
+    private void expect(int token) throws IOException {
+        int actual = peek();
+        if (actual != token) throw syntaxError("Expected " + token + " but was " + actual);
+        peeked = PEEKED_NONE;
+    }
+
+    /**
+     * Enter an array or object
+     * @param scope the scope of the new array or object
+     */
+    private void push(int scope) {
+        if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+        stack[stackSize++] = scope;
+    }
+
+    /**
+     * Read more characters once the buffer is used up
+     * @return false at the end of the stream
+     * @throws IOException if the stream can't be read
+     */
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read == -1) return false;
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Skip whitespace
+     * @return false if the stream ended first
+     * @throws IOException if the stream can't be read
+     */
+    private boolean skipWhitespace() throws IOException {
+        while (fill()) {
+            char c = buffer[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return true;
+            pos++;
+        }
+        return false;
+    }
+
+    /**
+     * Consume the next character that is not whitespace
+     * @return the character
+     * @throws IOException if the stream ended first
+     */
+    private int nextNonWhitespace() throws IOException {
+        if (!skipWhitespace()) throw syntaxError("Unexpected end of document");
+        return buffer[pos++];
+    }
+
+    /**
+     * Consume the rest of a string whose opening quote was already consumed
+     * @return the unescaped string
+     * @throws IOException if the string is malformed or the stream ends first
+     */
+    private String readString() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            if (!fill()) throw syntaxError("Unterminated string");
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    builder.append(buffer, start, pos - start - 1);
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    builder.append(buffer, start, pos - start - 1);
+                    builder.append(readEscape());
+                    start = pos;
+                }
+            }
+            builder.append(buffer, start, pos - start);
+        }
+    }
+
+    /**
+     * Consume an escape sequence whose backslash was already consumed
+     * @return the escaped character
+     * @throws IOException if the escape is malformed or the stream ends first
+     */
+    private char readEscape() throws IOException {
+        if (!fill()) throw syntaxError("Unterminated escape");
+        char c = buffer[pos++];
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (!fill()) throw syntaxError("Unterminated escape");
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit == -1) throw syntaxError("Malformed unicode escape");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw syntaxError("Invalid escape \\" + c);
+        }
+    }
+
+    /**
+     * Consume a literal or number
+     * @return the characters of the literal or number
+     * @throws IOException if the stream can't be read
+     */
+    private String readWord() throws IOException {
+        StringBuilder builder = null;
+        while (fill()) {
+            int start = pos;
+            while (pos < limit && isWordChar(buffer[pos])) pos++;
+            if (pos < limit) {
+                if (builder == null) return new String(buffer, start, pos - start);
+                return builder.append(buffer, start, pos - start).toString();
+            }
+            if (builder == null) builder = new StringBuilder();
+            builder.append(buffer, start, pos - start);
+        }
+        return builder != null ? builder.toString() : "";
+    }
+
+    /**
+     * Whether a character can be part of a literal or number
+     * @param c the character
+     * @return true for letters, digits, and the signs and dots of numbers
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '+' || c == '.';
+    }
+
+    /**
+     * Helper for turning number text into the narrowest Number, like JSONTokener does
+     * @param number the number text
+     * @return an Integer, Long or Double
+     * @throws IOException if the number is malformed
+     */
+    private Object toNumber(String number) throws IOException {
+        try {
+            if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+                long value = Long.parseLong(number);
+                if (value == (int) value) return (int) value;
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+            // too big for a long, fall through to double
+        }
+        try {
+            return Double.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number " + number);
+        }
+    }
+
+    /**
+     * Helper for reporting malformed JSON
+     * @param message what went wrong
+     * @return the exception to throw
+     */
+    private IOException syntaxError(String message) {
+        return new MalformedJsonException(message + " at depth " + stackSize);
+    }
+}
@@ -0,0 +1,403 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link EventListener} that keeps latency percentiles per host and per return type
+ *
+ * Every delivered request is split into phases:
+ * the time waiting in the dispatcher queue, the time on the network, the time parsing and the total time
+ * The network phase runs from when a worker thread picks the request up until the body is read, without parsing,
+ * so it includes retries and the delays between them
+ * The parse phase covers streamed bodies, and successful buffered bodies of requests that parse on the worker thread
+ * Other buffered bodies are parsed only if the callback asks for their content, so they count no parse time
+ *
+ * Only the most recent requests are kept for each host and return type, so the percentiles follow changes
+ */
+public class LatencyAggregator extends EventListener {
+
+    /**
+     * Time from queueing the request until a worker thread picks it up
+     */
+    public static final int PHASE_QUEUE = 0;
+
+    /**
+     * Time from a worker thread picking the request up until the body is read, without parsing
+     */
+    public static final int PHASE_NETWORK = 1;
+
+    /**
+     * Time spent parsing the body on the worker thread, 0 for buffered bodies left to parse lazily
+     */
+    public static final int PHASE_PARSE = 2;
+
+    /**
+     * Time from queueing the request until the callback is run
+     */
+    public static final int PHASE_TOTAL = 3;
+
+    /**
+     * The default number of requests kept for each host and return type
+     */
+    public static final int DEFAULT_MAX_SAMPLES = 1024;
+
+    /**
+     * The number of phases
+     */
+    private static final int PHASE_COUNT = 4;
+
+    /**
+     * The number of requests kept for each host and return type
+     */
+    private final int maxSamples;
+
+    /**
+     * The timings of requests that haven't been delivered yet
+     */
+    private final IdentityHashMap<Call, Timings> running = new IdentityHashMap<>();
+
+    /**
+     * The latencies by host
+     */
+    private final HashMap<String, Latencies> hosts = new HashMap<>();
+
+    /**
+     * The latencies by return type
+     */
+    private final HashMap<Integer, Latencies> types = new HashMap<>();
+
+    /**
+     * Form a LatencyAggregator keeping {@link #DEFAULT_MAX_SAMPLES} requests for each host and return type
+     */
+    public LatencyAggregator() {
+        this(DEFAULT_MAX_SAMPLES);
+    }
+
+    /**
+     * Form a LatencyAggregator
+     * @param maxSamples the number of requests kept for each host and return type
+     */
+    public LatencyAggregator(int maxSamples) {
+        if (maxSamples < 1) throw new IllegalArgumentException("maxSamples < 1: " + maxSamples);
+        this.maxSamples = maxSamples;
+    }
+
+    @Override
+    public synchronized void callQueued(Call call, long nanoTime) {
+        Timings timings = new Timings();
+        timings.queued = nanoTime;
+        running.put(call, timings);
+    }
+
+    @Override
+    public synchronized void callDequeued(Call call, long nanoTime) {
+        Timings timings = running.get(call);
+        if (timings == null) return;
+        timings.dequeued = nanoTime;
+        timings.workEnd = nanoTime;
+        timings.started = true;
+    }
+
+    @Override
+    public synchronized void responseBodyEnd(Call call, long nanoTime, long wireByteCount, long byteCount) {
+        Timings timings = running.get(call);
+        if (timings != null) timings.workEnd = nanoTime;
+    }
+
+    @Override
+    public synchronized void parseStart(Call call, long nanoTime) {
+        Timings timings = running.get(call);
+        if (timings == null) return;
+        timings.parseStart = nanoTime;
+        timings.parsing = true;
+    }
+
+    @Override
+    public synchronized void parseEnd(Call call, long nanoTime) {
+        Timings timings = running.get(call);
+        if (timings == null || !timings.parsing) return;
+        timings.parse += nanoTime - timings.parseStart;
+        timings.workEnd = nanoTime;
+        timings.parsing = false;
+    }
+
+    @Override
+    public synchronized void callDelivered(Call call, long nanoTime, RestResponse response) {
+        Timings timings = running.remove(call);
+        if (timings == null) return;
+        long[] phases = new long[PHASE_COUNT];
+        long dequeued = timings.started ? timings.dequeued : nanoTime;
+        long workEnd = timings.started ? timings.workEnd : nanoTime;
+        phases[PHASE_QUEUE] = dequeued - timings.queued;
+        phases[PHASE_NETWORK] = Math.max(0, workEnd - dequeued - timings.parse);
+        phases[PHASE_PARSE] = timings.parse;
+        phases[PHASE_TOTAL] = nanoTime - timings.queued;
+
+        RestRequest request = call.getRequest();
+        String host = Rest.hostOf(request.getBaseURL());
+        Latencies latencies = hosts.get(host);
+        if (latencies == null) {
+            latencies = new Latencies(maxSamples);
+            hosts.put(host, latencies);
+        }
+        latencies.add(phases);
+        latencies = types.get(request.getDataType());
+        if (latencies == null) {
+            latencies = new Latencies(maxSamples);
+            types.put(request.getDataType(), latencies);
+        }
+        latencies.add(phases);
+    }
+
+    @Override
+    public synchronized void callCanceled(Call call, long nanoTime) {
+        running.remove(call);
+    }
+
+    /**
+     * Get the latencies of the recent requests to each host
+     * @return the latencies by host name
+     */
+    public synchronized Map<String, Snapshot> getHostLatencies() {
+        TreeMap<String, Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Latencies> entry : hosts.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Get the latencies of the recent requests of each return type
+     * @return the latencies by return type, see {@link RestRequest#RETURN_TYPE_JSON} and the others
+     */
+    public synchronized Map<Integer, Snapshot> getTypeLatencies() {
+        TreeMap<Integer, Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<Integer, Latencies> entry : types.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forget every request recorded so far
+     */
+    public synchronized void reset() {
+        hosts.clear();
+        types.clear();
+    }
+
+    /**
+     * Form a readable report of the latencies by host and by return type
+     * @return the report, one line per host and return type
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Snapshot> entry : getHostLatencies().entrySet()) {
+            report.append("host ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<Integer, Snapshot> entry : getTypeLatencies().entrySet()) {
+            report.append("type ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * The timestamps of a request that hasn't been delivered yet, in nanoseconds
+     */
+    private static class Timings {
+
+        /**
+         * When the request was queued
+         */
+        long queued;
+
+        /**
+         * When a worker thread picked the request up
+         */
+        long dequeued;
+
+        /**
+         * Whether a worker thread picked the request up
+         */
+        boolean started;
+
+        /**
+         * When the body was last read or parsed
+         */
+        long workEnd;
+
+        /**
+         * When the current parse started
+         */
+        long parseStart;
+
+        /**
+         * Whether a parse is running
+         */
+        boolean parsing;
+
+        /**
+         * The time spent parsing so far, across attempts
+         */
+        long parse;
+    }
+
+    /**
+     * The phase durations of the most recent requests, in a ring buffer per phase
+     */
+    private static class Latencies {
+
+        /**
+         * The durations in nanoseconds by phase
+         */
+        final long[][] samples;
+
+        /**
+         * Where the next request goes in the ring buffers
+         */
+        int next;
+
+        /**
+         * The number of requests recorded, including those overwritten
+         */
+        long count;
+
+        Latencies(int maxSamples) {
+            samples = new long[PHASE_COUNT][maxSamples];
+        }
+
+        /**
+         * Record a request
+         * @param phases the duration of each phase in nanoseconds
+         */
+        void add(long[] phases) {
+            for (int phase = 0; phase < PHASE_COUNT; phase++) samples[phase][next] = phases[phase];
+            next = (next + 1) % samples[0].length;
+            count++;
+        }
+
+        /**
+         * Work out the percentiles of the recorded requests
+         * @return the percentiles
+         */
+        Snapshot snapshot() {
+            int size = (int) Math.min(count, samples[0].length);
+            long[][] percentiles = new long[PHASE_COUNT][];
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                long[] sorted = Arrays.copyOf(samples[phase], size);
+                Arrays.sort(sorted);
+                percentiles[phase] = new long[] {
+                        percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99)
+                };
+            }
+            return new Snapshot(count, size, percentiles);
+        }
+
+        /**
+         * Helper for the nearest rank percentile of sorted values
+         * @param sorted the values, sorted
+         * @param percentile the percentile, from 1 to 100
+         * @return the value, or 0 if there are none
+         */
+        private static long percentile(long[] sorted, int percentile) {
+            if (sorted.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+
+    /**
+     * The p50, p95 and p99 latencies of each phase, at the time it was taken
+     */
+    public static class Snapshot {
+
+        /**
+         * The number of requests recorded
+         */
+        private final long count;
+
+        /**
+         * The number of recent requests the percentiles are worked out from
+         */
+        private final int sampleCount;
+
+        /**
+         * The p50, p95 and p99 in nanoseconds, by phase
+         */
+        private final long[][] percentiles;
+
+        Snapshot(long count, int sampleCount, long[][] percentiles) {
+            this.count = count;
+            this.sampleCount = sampleCount;
+            this.percentiles = percentiles;
+        }
+
+        /**
+         * Get the number of requests recorded, including those no longer in the percentiles
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the number of recent requests the percentiles are worked out from
+         * @return the sample count
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * Get the median latency of a phase
+         * @param phase {@link #PHASE_QUEUE}, {@link #PHASE_NETWORK}, {@link #PHASE_PARSE} or {@link #PHASE_TOTAL}
+         * @return the latency in nanoseconds
+         */
+        public long getP50Nanos(int phase) {
+            return percentiles[phase][0];
+        }
+
+        /**
+         * Get the 95th percentile latency of a phase
+         * @param phase {@link #PHASE_QUEUE}, {@link #PHASE_NETWORK}, {@link #PHASE_PARSE} or {@link #PHASE_TOTAL}
+         * @return the latency in nanoseconds
+         */
+        public long getP95Nanos(int phase) {
+            return percentiles[phase][1];
+        }
+
+        /**
+         * Get the 99th percentile latency of a phase
+         * @param phase {@link #PHASE_QUEUE}, {@link #PHASE_NETWORK}, {@link #PHASE_PARSE} or {@link #PHASE_TOTAL}
+         * @return the latency in nanoseconds
+         */
+        public long getP99Nanos(int phase) {
+            return percentiles[phase][2];
+        }
+
+        /**
+         * Form a readable summary, in milliseconds
+         * @return the summary
+         */
+        @Override
+        public String toString() {
+            String[] names = {"queue", "network", "parse", "total"};
+            StringBuilder summary = new StringBuilder();
+            summary.append("n=").append(count);
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                summary.append(' ').append(names[phase]).append(" p50/p95/p99=")
+                        .append(percentiles[phase][0] / 1000000.0).append('/')
+                        .append(percentiles[phase][1] / 1000000.0).append('/')
+                        .append(percentiles[phase][2] / 1000000.0).append("ms");
+            }
+            return summary.toString();
+        }
+    }
+}
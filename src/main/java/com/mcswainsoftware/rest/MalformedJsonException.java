@@ -0,0 +1,21 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link JsonStreamReader} when the JSON is malformed
+ *
+ * It is an IOException so it can be thrown from any read, but unlike other IOExceptions it is never retried
+ */
+public class MalformedJsonException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Form a MalformedJsonException
+     * @param message what is wrong with the JSON
+     */
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,76 @@
+package com.mcswainsoftware.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A socket of a {@link NioTransport}, registered with the selector of one loop for its whole life
+ *
+ * Idle connections are kept in the {@link ConnectionPool} of the transport, which closes them through {@link #close()}
+ */
+final class NioConnection implements Closeable {
+
+    /**
+     * The loop the socket is registered with
+     */
+    final SelectorLoop loop;
+
+    /**
+     * The address the socket connects to
+     */
+    final InetSocketAddress remote;
+
+    /**
+     * The socket
+     */
+    final SocketChannel channel;
+
+    /**
+     * The registration of the socket with the selector of the loop
+     */
+    final SelectionKey key;
+
+    /**
+     * Open a socket, not connected yet, on the loop thread
+     * @param loop the loop to register it with
+     * @param remote the address it will connect to
+     * @throws IOException if the socket can't be opened
+     */
+    NioConnection(SelectorLoop loop, InetSocketAddress remote) throws IOException {
+        this.loop = loop;
+        this.remote = remote;
+        this.channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            this.key = channel.register(loop.selector(), 0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the socket, on the loop thread
+     */
+    @Override
+    public void close() {
+        if (!loop.inLoop()) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+            return;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,1142 @@
+package com.mcswainsoftware.rest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One HTTP/1.1 request and its response, driven by a {@link SelectorLoop}
+ *
+ * The loop connects, writes the request, parses the response head and decodes the body into pooled chunks
+ * The thread that made the request waits for the head and reads the body from those chunks
+ * Once more than {@link #MAX_BUFFERED} bytes wait to be read, the loop stops reading the socket until they are
+ *
+ * A streamed request body is handed over while it is written, the writer waits while {@link #MAX_BUFFERED} bytes of it
+ * haven't reached the socket, see {@link #writeBody(byte[])}
+ * Once a listener waits for the whole response, see {@link #whenComplete(Runnable)}, the loop reads it without stopping
+ *
+ * An exchange without a request only connects a socket and puts it in the pool, to warm it up before the first request
+ *
+ * A new socket connects to the addresses of the server in the order the resolver gave them,
+ * the next one is tried when connecting fails or times out
+ *
+ * The socket goes back to the pool as soon as the whole body arrived, before it is read
+ * A request that fails on a reused socket before any response arrived is sent again on a new one,
+ * as the server may have closed the socket while it was idle
+ * A streamed body can't be sent again, so a pooled socket is checked for being closed by the server before it is used instead
+ */
+final class NioExchange {
+
+    /**
+     * The number of body bytes held in memory before the loop stops reading the socket
+     */
+    static final int MAX_BUFFERED = 64 * 1024;
+
+    /**
+     * The number of body bytes held in memory below which the loop reads the socket again
+     */
+    private static final int RESUME_BUFFERED = 16 * 1024;
+
+    /**
+     * The longest response head, or line of a chunked body, accepted
+     */
+    private static final int MAX_LINE_SIZE = 64 * 1024;
+
+    /**
+     * State waiting for the socket to connect
+     */
+    private static final int STATE_CONNECTING = 0;
+
+    /**
+     * State writing the request
+     */
+    private static final int STATE_WRITING = 1;
+
+    /**
+     * State reading the status line and headers
+     */
+    private static final int STATE_READING_HEAD = 2;
+
+    /**
+     * State reading the body
+     */
+    private static final int STATE_READING_BODY = 3;
+
+    /**
+     * State once the exchange completed or failed
+     */
+    private static final int STATE_DONE = 4;
+
+    /**
+     * Body framed by its Content-Length
+     */
+    private static final int FRAMING_FIXED = 0;
+
+    /**
+     * Body framed with chunked transfer encoding
+     */
+    private static final int FRAMING_CHUNKED = 1;
+
+    /**
+     * Body ending when the server closes the socket
+     */
+    private static final int FRAMING_UNTIL_CLOSE = 2;
+
+    /**
+     * Chunked body state reading a chunk size line
+     */
+    private static final int CHUNK_SIZE_LINE = 0;
+
+    /**
+     * Chunked body state reading chunk data
+     */
+    private static final int CHUNK_DATA = 1;
+
+    /**
+     * Chunked body state reading the line break after chunk data
+     */
+    private static final int CHUNK_DATA_END = 2;
+
+    /**
+     * Chunked body state reading the trailers after the last chunk
+     */
+    private static final int CHUNK_TRAILERS = 3;
+
+    /**
+     * The transport the exchange belongs to
+     */
+    private final NioTransport transport;
+
+    /**
+     * The pool address of the server
+     */
+    private final String address;
+
+    /**
+     * The resolved addresses of the server, the preferred first
+     */
+    private final List<InetSocketAddress> remotes;
+
+    /**
+     * The request head and body held in memory, sent again on a new socket if a pooled one was closed
+     */
+    private final ByteBuffer[] request;
+
+    /**
+     * Whether the request body is streamed after the head
+     */
+    private final boolean streaming;
+
+    /**
+     * Whether the request is a HEAD request, whose response has no body
+     */
+    private final boolean headRequest;
+
+    /**
+     * Whether the exchange only connects a socket for the pool
+     */
+    private final boolean connectOnly;
+
+    /**
+     * The connect timeout in milliseconds, 0 means none
+     */
+    private final int connectTimeout;
+
+    /**
+     * The read timeout in milliseconds, 0 means none
+     */
+    private final int readTimeout;
+
+    /**
+     * The loop driving the exchange
+     */
+    private final SelectorLoop loop;
+
+    // Only used on the loop thread
+
+    /**
+     * The socket, or null once it was released or closed
+     */
+    private NioConnection connection;
+
+    /**
+     * Whether the socket came from the pool
+     */
+    private boolean reused;
+
+    /**
+     * The index of the address the socket connects to
+     */
+    private int route;
+
+    /**
+     * The state
+     */
+    private int state = STATE_CONNECTING;
+
+    /**
+     * When the current wait times out, in milliseconds, or 0 if it doesn't
+     */
+    private long timeoutAt;
+
+    /**
+     * Whether any response bytes arrived
+     */
+    private boolean responding;
+
+    /**
+     * The line being read, the head and chunk size lines are ISO-8859-1
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * The number of bytes of the head read so far
+     */
+    private int headSize;
+
+    /**
+     * The headers being read, the status line first with a null name
+     */
+    private ArrayList<String[]> headerLines = new ArrayList<>();
+
+    /**
+     * The status code being read
+     */
+    private int status;
+
+    /**
+     * The reason phrase being read
+     */
+    private String reason;
+
+    /**
+     * Whether the response is HTTP/1.0
+     */
+    private boolean http10;
+
+    /**
+     * Whether the socket can be reused after the response
+     */
+    private boolean keepAlive;
+
+    /**
+     * How the body is framed
+     */
+    private int framing;
+
+    /**
+     * The body bytes left in a fixed length body or in the current chunk
+     */
+    private long remaining;
+
+    /**
+     * The state of a chunked body
+     */
+    private int chunkState;
+
+    // Shared with the threads writing the request and reading the response, guarded by this
+
+    /**
+     * The parts of the request not written to the socket yet
+     */
+    private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+
+    /**
+     * The number of request bytes not written to the socket yet
+     */
+    private long outgoingBytes;
+
+    /**
+     * Whether the whole request was handed over
+     */
+    private boolean requestComplete;
+
+    /**
+     * Whether the loop waits for more of a streamed body
+     */
+    private boolean writeWaiting;
+
+    /**
+     * Run once the whole response arrived or the exchange failed, or null
+     */
+    private Runnable onComplete;
+
+    /**
+     * When the response head arrived, in nanoseconds
+     */
+    private long headNanos;
+
+    /**
+     * The headers, the status line first with a null name, or null until the head arrived
+     */
+    private ArrayList<String[]> headers;
+
+    /**
+     * The status code
+     */
+    private int code = -1;
+
+    /**
+     * The reason phrase
+     */
+    private String message;
+
+    /**
+     * The body bytes not read yet
+     */
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+    /**
+     * The position of the next byte to read in the first chunk
+     */
+    private int readPosition;
+
+    /**
+     * The position of the next byte to write in the last chunk
+     */
+    private int writePosition;
+
+    /**
+     * The number of body bytes not read yet
+     */
+    private int buffered;
+
+    /**
+     * Whether the loop stopped reading the socket until some of the body is read
+     */
+    private boolean paused;
+
+    /**
+     * Whether the whole body arrived
+     */
+    private boolean complete;
+
+    /**
+     * Why the exchange failed, or null
+     */
+    private IOException failure;
+
+    /**
+     * Form an exchange
+     * @param transport the transport it belongs to
+     * @param loop the loop that will drive it
+     * @param connection a pooled socket of that loop, or null to open a new one
+     * @param address the pool address of the server
+     * @param remotes the resolved addresses of the server, the preferred first, unused with a pooled socket
+     * @param head the request head, or null to only connect a socket for the pool
+     * @param body the request body, or null
+     * @param streaming whether the body is streamed after the head instead, see {@link #writeBody(byte[])}
+     * @param headRequest whether it is a HEAD request
+     * @param connectTimeout the connect timeout in milliseconds, 0 means none
+     * @param readTimeout the read timeout in milliseconds, 0 means none
+     */
+    NioExchange(NioTransport transport, SelectorLoop loop, NioConnection connection, String address, List<InetSocketAddress> remotes,
+                byte[] head, byte[] body, boolean streaming, boolean headRequest, int connectTimeout, int readTimeout) {
+        this.transport = transport;
+        this.loop = loop;
+        this.connection = connection;
+        this.reused = connection != null;
+        this.address = address;
+        this.remotes = connection != null ? Collections.singletonList(connection.remote) : remotes;
+        this.connectOnly = head == null;
+        if (connectOnly) this.request = new ByteBuffer[]{ByteBuffer.allocate(0)};
+        else if (body != null && body.length > 0) this.request = new ByteBuffer[]{ByteBuffer.wrap(head), ByteBuffer.wrap(body)};
+        else this.request = new ByteBuffer[]{ByteBuffer.wrap(head)};
+        this.streaming = streaming;
+        for (ByteBuffer part : request) {
+            outgoing.add(part);
+            outgoingBytes += part.remaining();
+        }
+        this.requestComplete = !streaming;
+        this.headRequest = headRequest;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Hand the exchange to its loop
+     */
+    void start() {
+        boolean started = loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                begin();
+            }
+        });
+        if (!started) fail(new IOException("Transport closed"));
+    }
+
+    /**
+     * Wait for the response head
+     * @throws IOException if the exchange failed before the head arrived
+     */
+    synchronized void awaitHead() throws IOException {
+        while (headers == null && failure == null) await();
+        if (headers == null) throw failure;
+    }
+
+    /**
+     * Wait for the whole response without holding the calling thread
+     *
+     * The loop then reads the body without stopping, as it will be read at once
+     * @param listener run on the loop thread once the whole response arrived or the exchange failed
+     * @return true if that already happened, then the listener isn't run
+     */
+    boolean whenComplete(Runnable listener) {
+        boolean resume;
+        synchronized (this) {
+            if (complete || failure != null) return true;
+            onComplete = listener;
+            resume = paused;
+            paused = false;
+        }
+        if (resume) resumeReading();
+        return false;
+    }
+
+    /**
+     * Hand over the next part of a streamed request body, waiting while too much of it wasn't written to the socket
+     * @param data the bytes, not copied
+     * @throws IOException if the exchange failed
+     */
+    void writeBody(byte[] data) throws IOException {
+        boolean wake;
+        synchronized (this) {
+            while (outgoingBytes >= MAX_BUFFERED && failure == null) await();
+            if (failure != null) throw failure;
+            if (requestComplete) throw new IOException("Request body closed");
+            outgoing.add(ByteBuffer.wrap(data));
+            outgoingBytes += data.length;
+            wake = writeWaiting;
+            writeWaiting = false;
+        }
+        if (wake) writeMore();
+    }
+
+    /**
+     * End a streamed request body
+     * @throws IOException if the exchange failed
+     */
+    void endBody() throws IOException {
+        boolean wake;
+        synchronized (this) {
+            if (failure != null) throw failure;
+            requestComplete = true;
+            wake = writeWaiting;
+            writeWaiting = false;
+        }
+        if (wake) writeMore();
+    }
+
+    /**
+     * Get when the response head arrived, after {@link #awaitHead()}
+     * @return the time in nanoseconds
+     */
+    synchronized long headNanos() {
+        return headNanos;
+    }
+
+    /**
+     * Get the status code, after {@link #awaitHead()}
+     * @return the status code
+     */
+    synchronized int code() {
+        return code;
+    }
+
+    /**
+     * Get the reason phrase, after {@link #awaitHead()}
+     * @return the reason phrase
+     */
+    synchronized String message() {
+        return message;
+    }
+
+    /**
+     * Get the headers, after {@link #awaitHead()}
+     * @return the headers, the status line first with a null name
+     */
+    synchronized ArrayList<String[]> headers() {
+        return headers;
+    }
+
+    /**
+     * Read some of the body, waiting until some arrived
+     * @param b the buffer to read into
+     * @param offset the offset in the buffer
+     * @param length the most bytes to read
+     * @return the number of bytes read, or -1 at the end of the body
+     * @throws IOException if the exchange failed before the body was read
+     */
+    int read(byte[] b, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        int read;
+        boolean resume = false;
+        synchronized (this) {
+            while (buffered == 0 && !complete && failure == null) await();
+            if (buffered == 0) {
+                if (failure != null) throw failure;
+                return -1;
+            }
+            byte[] first = chunks.peekFirst();
+            boolean last = first == chunks.peekLast();
+            int limit = last ? writePosition : first.length;
+            read = Math.min(length, limit - readPosition);
+            System.arraycopy(first, readPosition, b, offset, read);
+            readPosition += read;
+            buffered -= read;
+            if (readPosition == limit) {
+                if (last) {
+                    writePosition = 0;
+                } else {
+                    chunks.pollFirst();
+                    BufferPool.SHARED.release(first);
+                }
+                readPosition = 0;
+            }
+            if (paused && buffered <= RESUME_BUFFERED && failure == null) {
+                paused = false;
+                resume = true;
+            }
+        }
+        if (resume) resumeReading();
+        return read;
+    }
+
+    /**
+     * Get the number of body bytes that can be read without waiting
+     * @return the number of bytes
+     */
+    synchronized int available() {
+        return buffered;
+    }
+
+    /**
+     * Whether the whole body arrived and was read
+     * @return true if it was
+     */
+    synchronized boolean isExhausted() {
+        return complete && buffered == 0;
+    }
+
+    /**
+     * Abort the exchange, closing its socket unless the whole response already arrived, and drop the body not read yet
+     */
+    void cancel() {
+        boolean abort;
+        synchronized (this) {
+            abort = !complete && failure == null;
+            if (abort) failure = new IOException("Canceled");
+            releaseChunks();
+            notifyAll();
+        }
+        if (abort) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    abort();
+                }
+            });
+        }
+        notifyComplete();
+    }
+
+    /**
+     * Helper for telling the listener waiting for the whole response, once
+     */
+    private void notifyComplete() {
+        Runnable listener;
+        synchronized (this) {
+            listener = onComplete;
+            onComplete = null;
+        }
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Helper for having the loop read the socket again
+     */
+    private void resumeReading() {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                resume();
+            }
+        });
+    }
+
+    /**
+     * Helper for having the loop write the next part of a streamed body
+     */
+    private void writeMore() {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state != STATE_WRITING || connection == null) return;
+                try {
+                    connection.key.interestOps(SelectionKey.OP_WRITE);
+                    onWritable();
+                } catch (IOException e) {
+                    fail(e);
+                } catch (CancelledKeyException e) {
+                    fail(connectionClosed(e));
+                }
+            }
+        });
+    }
+
+    /**
+     * Helper for the error of a socket closed under the exchange
+     * @param cause what noticed it was closed
+     * @return the error, a SocketException like other errors of closed sockets
+     */
+    static SocketException connectionClosed(Exception cause) {
+        SocketException closed = new SocketException("Connection closed");
+        closed.initCause(cause);
+        return closed;
+    }
+
+    /**
+     * Helper for waiting on this exchange
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the response");
+        }
+    }
+
+    /**
+     * Helper for giving the body chunks back to the pool
+     */
+    private void releaseChunks() {
+        for (byte[] chunk : chunks) BufferPool.SHARED.release(chunk);
+        chunks.clear();
+        readPosition = 0;
+        writePosition = 0;
+        buffered = 0;
+    }
+
+    /**
+     * Helper for checking whether the exchange was canceled
+     * @return true if it was, or failed otherwise
+     */
+    private synchronized boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Helper for checking whether the body waits to be read
+     * @return true if the loop should stop reading
+     */
+    private synchronized boolean isPaused() {
+        return paused;
+    }
+
+    // Loop thread
+
+    /**
+     * Start the exchange, on a pooled socket or by connecting a new one
+     */
+    private void begin() {
+        if (isFailed()) {
+            abort();
+            return;
+        }
+        loop.add(this);
+        try {
+            if (connection != null && streaming && !isOpen(connection)) {
+                connection.close();
+                connection = null;
+                reused = false;
+            }
+            if (connection != null) {
+                connection.key.attach(this);
+                connected();
+                return;
+            }
+            connection = new NioConnection(loop, remotes.get(route));
+            connection.key.attach(this);
+            if (connection.channel.connect(connection.remote)) {
+                connected();
+            } else {
+                state = STATE_CONNECTING;
+                connection.key.interestOps(SelectionKey.OP_CONNECT);
+                timeoutAt = deadline(connectTimeout);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("Can't connect to " + remotes.get(route), e));
+        }
+    }
+
+    /**
+     * Helper for checking that the server didn't close a pooled socket while it was idle
+     * @param pooled the socket
+     * @return true if it is still open and nothing arrived on it
+     */
+    private static boolean isOpen(NioConnection pooled) {
+        try {
+            return pooled.channel.read(ByteBuffer.allocate(1)) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The socket is ready to finish connecting
+     * @throws IOException if it can't connect
+     */
+    void onConnectable() throws IOException {
+        if (connection.channel.finishConnect()) connected();
+    }
+
+    /**
+     * Start writing the request once connected
+     * @throws IOException if it can't be written
+     */
+    private void connected() throws IOException {
+        if (connectOnly) {
+            keepAlive = true;
+            finish(true);
+            return;
+        }
+        state = STATE_WRITING;
+        connection.key.interestOps(SelectionKey.OP_WRITE);
+        timeoutAt = deadline(readTimeout);
+        onWritable();
+    }
+
+    /**
+     * The socket can take more of the request
+     * @throws IOException if it can't be written
+     */
+    void onWritable() throws IOException {
+        while (true) {
+            ByteBuffer next;
+            boolean ended;
+            synchronized (this) {
+                next = outgoing.peekFirst();
+                ended = requestComplete;
+                writeWaiting = next == null && !ended;
+            }
+            if (next == null) {
+                if (ended) {
+                    state = STATE_READING_HEAD;
+                    connection.key.interestOps(SelectionKey.OP_READ);
+                    timeoutAt = deadline(readTimeout);
+                } else {
+                    connection.key.interestOps(0);
+                    timeoutAt = 0;
+                }
+                return;
+            }
+            int written = connection.channel.write(next);
+            synchronized (this) {
+                outgoingBytes -= written;
+                if (!next.hasRemaining()) outgoing.pollFirst();
+                notifyAll();
+            }
+            if (next.hasRemaining()) {
+                timeoutAt = deadline(readTimeout);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The socket has response bytes to read
+     * @param buffer the buffer of the loop to read into
+     * @throws IOException if the response can't be read or is malformed
+     */
+    void onReadable(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = connection.channel.read(buffer);
+        if (read == -1) {
+            if (state == STATE_READING_BODY && framing == FRAMING_UNTIL_CLOSE) {
+                finish(false);
+                return;
+            }
+            throw new EOFException(state == STATE_READING_HEAD ? "Connection closed before the response" : "Connection closed before the end of the body");
+        }
+        if (read == 0) return;
+        responding = true;
+        timeoutAt = deadline(readTimeout);
+        int end = received(buffer.array(), 0, read);
+        if (state == STATE_DONE) {
+            finish(end == read);
+        } else if (isPaused()) {
+            connection.key.interestOps(0);
+            timeoutAt = 0;
+        }
+    }
+
+    /**
+     * Read the socket again once some of the body was read
+     */
+    private void resume() {
+        if (state != STATE_READING_BODY || connection == null) return;
+        try {
+            connection.key.interestOps(SelectionKey.OP_READ);
+            timeoutAt = deadline(readTimeout);
+        } catch (CancelledKeyException e) {
+            fail(connectionClosed(e));
+        }
+    }
+
+    /**
+     * Fail the exchange if its current wait took too long
+     * @param now the current time in milliseconds
+     */
+    void checkTimeout(long now) {
+        if (timeoutAt != 0 && now >= timeoutAt) {
+            fail(new SocketTimeoutException(state == STATE_CONNECTING ? "connect timed out" : "Read timed out"));
+        }
+    }
+
+    /**
+     * Fail the exchange and close its socket, or send it again on a new socket if a pooled one turned out to be closed
+     *
+     * A new socket that couldn't connect connects to the next address of the server instead, if there is one
+     * @param e why it failed
+     */
+    void fail(IOException e) {
+        if (state == STATE_DONE) return;
+        if (state == STATE_CONNECTING && !reused && route + 1 < remotes.size() && !isFailed() && !loop.isClosed()) {
+            route++;
+            timeoutAt = 0;
+            closeConnection();
+            begin();
+            return;
+        }
+        if (reused && !streaming && !responding && !(e instanceof SocketTimeoutException) && !isFailed() && !loop.isClosed()) {
+            reused = false;
+            closeConnection();
+            synchronized (this) {
+                outgoing.clear();
+                outgoingBytes = 0;
+                for (ByteBuffer part : request) {
+                    part.rewind();
+                    outgoing.add(part);
+                    outgoingBytes += part.remaining();
+                }
+            }
+            begin();
+            return;
+        }
+        state = STATE_DONE;
+        timeoutAt = 0;
+        loop.remove(this);
+        closeConnection();
+        synchronized (this) {
+            if (failure == null) failure = e;
+            releaseChunks();
+            notifyAll();
+        }
+        notifyComplete();
+    }
+
+    /**
+     * Close the socket after the exchange was canceled
+     */
+    private void abort() {
+        if (state == STATE_DONE) return;
+        state = STATE_DONE;
+        timeoutAt = 0;
+        loop.remove(this);
+        closeConnection();
+    }
+
+    /**
+     * Helper for ending the exchange once the whole body arrived
+     * @param clean whether the socket is at the end of the response and may be reused
+     */
+    private void finish(boolean clean) {
+        state = STATE_DONE;
+        timeoutAt = 0;
+        loop.remove(this);
+        NioConnection released = connection;
+        connection = null;
+        if (keepAlive && clean && !isFailed()) {
+            released.key.interestOps(0);
+            released.key.attach(null);
+            transport.release(address, released);
+        } else {
+            released.close();
+        }
+        synchronized (this) {
+            complete = true;
+            notifyAll();
+        }
+        notifyComplete();
+    }
+
+    /**
+     * Helper for closing the socket
+     */
+    private void closeConnection() {
+        if (connection == null) return;
+        connection.close();
+        connection = null;
+    }
+
+    /**
+     * Helper for working out when a wait times out
+     * @param timeout the timeout in milliseconds, 0 means none
+     * @return the time it times out, or 0 if it doesn't
+     */
+    private static long deadline(int timeout) {
+        return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    /**
+     * Parse response bytes
+     * @param data the bytes
+     * @param offset where they start
+     * @param end where they end
+     * @return where parsing stopped, before end if the response ended early
+     * @throws IOException if the response is malformed
+     */
+    private int received(byte[] data, int offset, int end) throws IOException {
+        while (offset < end && state != STATE_DONE) {
+            if (state == STATE_READING_HEAD) {
+                offset = readHead(data, offset, end);
+            } else if (framing == FRAMING_CHUNKED) {
+                offset = readChunked(data, offset, end);
+            } else {
+                int length = end - offset;
+                if (framing == FRAMING_FIXED) length = (int) Math.min(length, remaining);
+                body(data, offset, length);
+                offset += length;
+                if (framing == FRAMING_FIXED) {
+                    remaining -= length;
+                    if (remaining == 0) state = STATE_DONE;
+                }
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Parse the status line and headers
+     * @param data the bytes
+     * @param offset where they start
+     * @param end where they end
+     * @return where parsing stopped
+     * @throws IOException if the head is malformed
+     */
+    private int readHead(byte[] data, int offset, int end) throws IOException {
+        while (offset < end) {
+            byte b = data[offset++];
+            if (++headSize > MAX_LINE_SIZE) throw new IOException("Response head too large");
+            if (b == '\r') continue;
+            if (b != '\n') {
+                line.append((char) (b & 0xff));
+                continue;
+            }
+            String text = line.toString();
+            line.setLength(0);
+            if (headerLines.isEmpty()) {
+                if (text.length() != 0) statusLine(text);
+            } else if (text.length() == 0) {
+                endOfHead();
+                return offset;
+            } else if (text.charAt(0) == ' ' || text.charAt(0) == '\t') {
+                String[] previous = headerLines.get(headerLines.size() - 1);
+                if (previous[0] == null) throw new IOException("Malformed response header: " + text);
+                previous[1] = previous[1] + " " + text.trim();
+            } else {
+                int colon = text.indexOf(':');
+                if (colon <= 0) throw new IOException("Malformed response header: " + text);
+                headerLines.add(new String[]{text.substring(0, colon).trim(), text.substring(colon + 1).trim()});
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Parse the status line, such as HTTP/1.1 200 OK
+     * @param text the line
+     * @throws IOException if it is malformed
+     */
+    private void statusLine(String text) throws IOException {
+        if (!text.startsWith("HTTP/1.") || text.length() < 12 || text.charAt(8) != ' ') {
+            throw new IOException("Malformed status line: " + text);
+        }
+        int status;
+        try {
+            status = Integer.parseInt(text.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + text);
+        }
+        http10 = text.charAt(7) == '0';
+        this.status = status;
+        reason = text.length() > 13 ? text.substring(13) : "";
+        headerLines.add(new String[]{null, text});
+    }
+
+    /**
+     * Work out how the body is framed once the head was read, skipping interim 1xx responses
+     *
+     * The interim responses count towards {@link #MAX_LINE_SIZE} with the final head, so a server can't send them forever
+     * A 101 fails the exchange, the protocol is never asked to be switched
+     * @throws IOException if the framing headers are malformed
+     */
+    private void endOfHead() throws IOException {
+        if (status == 101) throw new ProtocolException("Unexpected 101 Switching Protocols");
+        if (status / 100 == 1) {
+            headerLines = new ArrayList<>();
+            return;
+        }
+        String connectionHeader = lastHeader("Connection");
+        String transferEncoding = lastHeader("Transfer-Encoding");
+        String contentLength = lastHeader("Content-Length");
+        keepAlive = connectionHeader != null
+                ? !hasToken(connectionHeader, "close") && (!http10 || hasToken(connectionHeader, "keep-alive"))
+                : !http10;
+        if (headRequest || status == 204 || status == 304) {
+            framing = FRAMING_FIXED;
+            remaining = 0;
+        } else if (transferEncoding != null && hasToken(transferEncoding, "chunked")) {
+            framing = FRAMING_CHUNKED;
+            chunkState = CHUNK_SIZE_LINE;
+        } else if (contentLength != null) {
+            framing = FRAMING_FIXED;
+            try {
+                remaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                remaining = -1;
+            }
+            if (remaining < 0) throw new IOException("Malformed Content-Length: " + contentLength);
+        } else {
+            framing = FRAMING_UNTIL_CLOSE;
+            keepAlive = false;
+        }
+        state = framing == FRAMING_FIXED && remaining == 0 ? STATE_DONE : STATE_READING_BODY;
+        synchronized (this) {
+            headers = headerLines;
+            code = status;
+            message = reason;
+            headNanos = System.nanoTime();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Parse a chunked body
+     * @param data the bytes
+     * @param offset where they start
+     * @param end where they end
+     * @return where parsing stopped
+     * @throws IOException if the body is malformed
+     */
+    private int readChunked(byte[] data, int offset, int end) throws IOException {
+        if (chunkState == CHUNK_DATA) {
+            int length = (int) Math.min(end - offset, remaining);
+            body(data, offset, length);
+            remaining -= length;
+            if (remaining == 0) chunkState = CHUNK_DATA_END;
+            return offset + length;
+        }
+        while (offset < end) {
+            byte b = data[offset++];
+            if (b == '\r') continue;
+            if (b != '\n') {
+                if (line.length() >= MAX_LINE_SIZE) throw new IOException("Chunk line too long");
+                line.append((char) (b & 0xff));
+                continue;
+            }
+            String text = line.toString();
+            line.setLength(0);
+            if (chunkState == CHUNK_SIZE_LINE) {
+                int extension = text.indexOf(';');
+                String size = (extension != -1 ? text.substring(0, extension) : text).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    remaining = -1;
+                }
+                if (remaining < 0) throw new IOException("Malformed chunk size: " + text);
+                chunkState = remaining == 0 ? CHUNK_TRAILERS : CHUNK_DATA;
+                return offset;
+            } else if (chunkState == CHUNK_DATA_END) {
+                if (text.length() != 0) throw new IOException("Malformed chunk end");
+                chunkState = CHUNK_SIZE_LINE;
+            } else if (text.length() == 0) {
+                state = STATE_DONE;
+                return offset;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Queue body bytes for the reading thread
+     * @param data the bytes
+     * @param offset where they start
+     * @param length the number of bytes
+     */
+    private void body(byte[] data, int offset, int length) {
+        if (length == 0) return;
+        synchronized (this) {
+            if (failure != null) return;
+            while (length > 0) {
+                byte[] tail = chunks.peekLast();
+                if (tail == null || writePosition == tail.length) {
+                    tail = BufferPool.SHARED.acquire();
+                    chunks.addLast(tail);
+                    writePosition = 0;
+                }
+                int copied = Math.min(length, tail.length - writePosition);
+                System.arraycopy(data, offset, tail, writePosition, copied);
+                writePosition += copied;
+                offset += copied;
+                length -= copied;
+                buffered += copied;
+            }
+            if (buffered >= MAX_BUFFERED && onComplete == null) paused = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Helper for finding the last value of a response header
+     * @param name the header name
+     * @return the value, or null if there is none
+     */
+    private String lastHeader(String name) {
+        for (int i = headerLines.size() - 1; i > 0; i--) {
+            if (name.equalsIgnoreCase(headerLines.get(i)[0])) return headerLines.get(i)[1];
+        }
+        return null;
+    }
+
+    /**
+     * Helper for checking a comma separated header value for a token
+     * @param value the header value
+     * @param token the token, lower case
+     * @return true if the value holds it
+     */
+    private static boolean hasToken(String value, String token) {
+        for (String part : value.toLowerCase(Locale.US).split(",")) {
+            if (part.trim().equals(token)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,619 @@
+package com.mcswainsoftware.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * An HttpURLConnection sent by a {@link NioTransport}
+ *
+ * With a fixed length or chunked streaming mode the head is sent when the body is asked for, and the body as it is written,
+ * the writer waits while more than {@link NioExchange#MAX_BUFFERED} bytes of it haven't reached the socket yet
+ * Without a streaming mode the body is held in memory, and the request is sent once the body is closed or the response is asked for
+ *
+ * Redirects to http URLs are followed unless instanceFollowRedirects is off, up to {@link #MAX_REDIRECTS}
+ * 301, 302 and 303 turn the request into a GET without a body, 307 and 308 send it again as it was,
+ * unless its body was streamed, then the redirect is handed to the caller
+ */
+final class NioHttpConnection extends HttpURLConnection {
+
+    /**
+     * The most redirects followed for one request
+     */
+    static final int MAX_REDIRECTS = 20;
+
+    /**
+     * Status of a temporary redirect keeping the method and body
+     */
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+
+    /**
+     * Status of a permanent redirect keeping the method and body
+     */
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+
+    /**
+     * The size of the streamed body handed to the exchange at once
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    /**
+     * The transport sending the request
+     */
+    private final NioTransport transport;
+
+    /**
+     * The request headers
+     */
+    private final TreeMap<String, List<String>> requestProperties = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * The request body held in memory, or null if it wasn't asked for or is streamed
+     */
+    private RequestOutputStream requestBody;
+
+    /**
+     * The streamed request body, or null if it wasn't asked for or is held in memory
+     */
+    private StreamingOutputStream streamingBody;
+
+    /**
+     * The exchange, or null until the request was sent
+     */
+    private volatile NioExchange exchange;
+
+    /**
+     * Whether {@link #disconnect()} was called, a request not sent yet is then never sent
+     */
+    private volatile boolean canceled;
+
+    /**
+     * Why sending the request or following a redirect failed, or null
+     */
+    private IOException failure;
+
+    /**
+     * The number of redirects followed
+     */
+    private int redirects;
+
+    /**
+     * The response body, or null until it was asked for
+     */
+    private InputStream responseBody;
+
+    /**
+     * The response headers, or null until they were asked for
+     */
+    private Map<String, List<String>> headerFields;
+
+    /**
+     * Form a connection
+     * @param url the URL
+     * @param transport the transport that will send the request
+     */
+    NioHttpConnection(URL url, NioTransport transport) {
+        super(url);
+        this.transport = transport;
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        if (connected) throw new IllegalStateException("Already connected");
+        if (key == null) throw new NullPointerException("key is null");
+        ArrayList<String> values = new ArrayList<>(1);
+        values.add(value);
+        requestProperties.put(key, values);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        if (connected) throw new IllegalStateException("Already connected");
+        if (key == null) throw new NullPointerException("key is null");
+        List<String> values = requestProperties.get(key);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            requestProperties.put(key, values);
+        }
+        values.add(value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        if (key == null) return null;
+        List<String> values = requestProperties.get(key);
+        return values != null ? values.get(0) : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        if (connected) throw new IllegalStateException("Already connected");
+        return Collections.unmodifiableMap(new TreeMap<>(requestProperties));
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) return;
+        connected = true;
+        if (!doOutput) send(false);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        if (streamingBody != null) return streamingBody;
+        if (exchange != null) throw new ProtocolException("Cannot write output after reading input");
+        if (requestBody != null) return requestBody;
+        if ("GET".equals(method)) method = "POST";
+        connected = true;
+        if (fixedContentLength != -1 || chunkLength != -1) {
+            send(true);
+            streamingBody = new StreamingOutputStream(fixedContentLength);
+            return streamingBody;
+        }
+        requestBody = new RequestOutputStream(256);
+        return requestBody;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        awaitHead();
+        return exchange.code();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        awaitHead();
+        return exchange.message();
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        ArrayList<String[]> headers = headersOrNull();
+        return headers != null && n >= 0 && n < headers.size() ? headers.get(n)[1] : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        ArrayList<String[]> headers = headersOrNull();
+        return headers != null && n >= 0 && n < headers.size() ? headers.get(n)[0] : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        ArrayList<String[]> headers = headersOrNull();
+        if (headers == null) return null;
+        if (name == null) return headers.get(0)[1];
+        for (int i = headers.size() - 1; i > 0; i--) {
+            if (name.equalsIgnoreCase(headers.get(i)[0])) return headers.get(i)[1];
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (headerFields != null) return headerFields;
+        ArrayList<String[]> headers = headersOrNull();
+        if (headers == null) return Collections.emptyMap();
+        LinkedHashMap<String, List<String>> fields = new LinkedHashMap<>();
+        TreeMap<String, String> names = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String[] header : headers) {
+            String name = header[0];
+            if (name != null) {
+                String first = names.get(name);
+                if (first == null) names.put(name, name);
+                else name = first;
+            }
+            List<String> values = fields.get(name);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                fields.put(name, values);
+            }
+            values.add(header[1]);
+        }
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            field.setValue(Collections.unmodifiableList(field.getValue()));
+        }
+        headerFields = Collections.unmodifiableMap(fields);
+        return headerFields;
+    }
+
+    @Override
+    public int getContentLength() {
+        String length = getHeaderField("Content-Length");
+        if (length == null) return -1;
+        try {
+            long value = Long.parseLong(length.trim());
+            return value <= Integer.MAX_VALUE ? (int) value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput) throw new ProtocolException("Cannot read from URLConnection if doInput=false (call setDoInput(true))");
+        int code = getResponseCode();
+        if (code >= 400) {
+            if (code == HTTP_NOT_FOUND || code == HTTP_GONE) throw new FileNotFoundException(url.toString());
+            throw new IOException("Server returned HTTP response code: " + code + " for URL: " + url);
+        }
+        return body();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (exchange == null || headersOrNull() == null || exchange.code() < 400) return null;
+        if (exchange.isExhausted()) return null;
+        return body();
+    }
+
+    @Override
+    public void disconnect() {
+        canceled = true;
+        NioExchange sent = exchange;
+        if (sent != null) sent.cancel();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    /**
+     * Send the request if it wasn't, and find out when its whole response arrived, following redirects
+     *
+     * A response waited for this way is buffered whole, the selector thread doesn't stop reading while it waits to be read
+     * @param listener run on a selector thread once the whole response arrived or the request failed
+     * @return true if the response can be read right away, then the listener isn't run
+     */
+    boolean awaitResponse(Runnable listener) {
+        try {
+            if (failure != null) return true;
+            while (true) {
+                send(false);
+                if (!exchange.whenComplete(listener)) return false;
+                exchange.awaitHead();
+                if (!followRedirect()) return true;
+            }
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+            return true;
+        }
+    }
+
+    /**
+     * Get when the response head arrived
+     * @return the time in nanoseconds, after the response code was read
+     */
+    long getHeadNanos() {
+        NioExchange sent = exchange;
+        return sent != null ? sent.headNanos() : System.nanoTime();
+    }
+
+    /**
+     * Helper for sending the request if it wasn't, and waiting for the response head, following redirects
+     * @throws IOException if the request failed
+     */
+    private void awaitHead() throws IOException {
+        if (failure != null) throw failure;
+        try {
+            while (true) {
+                send(false);
+                exchange.awaitHead();
+                if (!followRedirect()) return;
+            }
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Helper for getting the response headers, sending the request if it wasn't
+     * @return the headers, or null if the request failed
+     */
+    private ArrayList<String[]> headersOrNull() {
+        try {
+            awaitHead();
+            return exchange.headers();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper for getting the response body stream
+     * @return the stream, the same one every time
+     */
+    private InputStream body() {
+        if (responseBody == null) responseBody = new ResponseInputStream(exchange);
+        return responseBody;
+    }
+
+    /**
+     * Helper for sending the request again to where the response redirects it
+     * @return true if the redirect is followed, its request is then not sent yet
+     * @throws IOException if there were too many redirects
+     */
+    private boolean followRedirect() throws IOException {
+        if (!getInstanceFollowRedirects()) return false;
+        int code = exchange.code();
+        boolean sameMethod = code == HTTP_TEMPORARY_REDIRECT || code == HTTP_PERMANENT_REDIRECT;
+        if (!sameMethod && code != HTTP_MOVED_PERM && code != HTTP_MOVED_TEMP && code != HTTP_SEE_OTHER) return false;
+        String location = lastHeader(exchange.headers(), "Location");
+        if (location == null) return false;
+        URL target;
+        try {
+            target = new URL(url, location);
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        if (!url.getProtocol().equalsIgnoreCase(target.getProtocol())) return false;
+        if (sameMethod && streamingBody != null) return false;
+        if (++redirects > MAX_REDIRECTS) throw new ProtocolException("Too many follow-up requests: " + redirects);
+
+        exchange.cancel();
+        exchange = null;
+        responseBody = null;
+        headerFields = null;
+        if (!target.getHost().equalsIgnoreCase(url.getHost())) requestProperties.remove("Authorization");
+        url = target;
+        if (!sameMethod && !"HEAD".equals(method)) {
+            method = "GET";
+            doOutput = false;
+            requestBody = null;
+            streamingBody = null;
+            requestProperties.remove("Content-Type");
+            requestProperties.remove("Content-Encoding");
+        }
+        return true;
+    }
+
+    /**
+     * Send the request, once
+     * @param streaming whether the body is streamed after the head, in the streaming mode set
+     * @throws IOException if it can't be sent
+     */
+    private void send(boolean streaming) throws IOException {
+        if (exchange != null) return;
+        if (canceled) throw new IOException("Canceled");
+        connected = true;
+        byte[] body = streaming ? null : (requestBody != null ? requestBody.toByteArray() : (doOutput ? new byte[0] : null));
+        StringBuilder head = new StringBuilder(256);
+        String file = url.getFile();
+        head.append(method).append(' ').append(file.length() != 0 ? file : "/").append(" HTTP/1.1\r\n");
+        if (!requestProperties.containsKey("Host")) {
+            head.append("Host: ").append(url.getHost());
+            if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) head.append(':').append(url.getPort());
+            head.append("\r\n");
+        }
+        for (Map.Entry<String, List<String>> property : requestProperties.entrySet()) {
+            String name = property.getKey();
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")) continue;
+            for (String value : property.getValue()) {
+                if (value != null) head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (getIfModifiedSince() != 0 && !requestProperties.containsKey("If-Modified-Since")) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            head.append("If-Modified-Since: ").append(format.format(new Date(getIfModifiedSince()))).append("\r\n");
+        }
+        if (streaming) {
+            if (fixedContentLength != -1) head.append("Content-Length: ").append(fixedContentLength).append("\r\n");
+            else head.append("Transfer-Encoding: chunked\r\n");
+        } else if (body != null) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        NioExchange sent = transport.execute(url, head.toString().getBytes("ISO-8859-1"), body, streaming,
+                "HEAD".equals(method), getConnectTimeout(), getReadTimeout());
+        exchange = sent;
+        if (canceled) sent.cancel();
+    }
+
+    /**
+     * Helper for finding the last value of a response header
+     * @param headers the headers, the status line first
+     * @param name the header name
+     * @return the value, or null if there is none
+     */
+    private static String lastHeader(ArrayList<String[]> headers, String name) {
+        for (int i = headers.size() - 1; i > 0; i--) {
+            if (name.equalsIgnoreCase(headers.get(i)[0])) return headers.get(i)[1];
+        }
+        return null;
+    }
+
+    /**
+     * The request body held in memory, sent once it is closed
+     */
+    private class RequestOutputStream extends ByteArrayOutputStream {
+
+        /**
+         * Whether it was closed
+         */
+        private boolean closed;
+
+        RequestOutputStream(int size) {
+            super(size);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (closed) throw new IllegalStateException("Request body closed");
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (closed) throw new IllegalStateException("Request body closed");
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            send(false);
+        }
+    }
+
+    /**
+     * The streamed request body, handed to the exchange as it is written
+     */
+    private class StreamingOutputStream extends OutputStream {
+
+        /**
+         * The length set by the fixed length streaming mode, or -1 for a chunked body
+         */
+        private final long length;
+
+        /**
+         * The bytes written but not handed to the exchange yet
+         */
+        private final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+
+        /**
+         * The number of bytes in the buffer
+         */
+        private int count;
+
+        /**
+         * The number of bytes written so far
+         */
+        private long written;
+
+        /**
+         * Whether it was closed
+         */
+        private boolean closed;
+
+        StreamingOutputStream(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+            if (length != -1 && written + len > length) {
+                throw new IOException("Expected " + length + " bytes but received " + (written + len));
+            }
+            written += len;
+            while (len > 0) {
+                int copied = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, copied);
+                count += copied;
+                off += copied;
+                len -= copied;
+                if (count == buffer.length) flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed || count == 0) return;
+            byte[] data;
+            if (length != -1) {
+                data = Arrays.copyOf(buffer, count);
+            } else {
+                byte[] size = (Integer.toHexString(count) + "\r\n").getBytes("ISO-8859-1");
+                data = new byte[size.length + count + 2];
+                System.arraycopy(size, 0, data, 0, size.length);
+                System.arraycopy(buffer, 0, data, size.length, count);
+                data[data.length - 2] = '\r';
+                data[data.length - 1] = '\n';
+            }
+            count = 0;
+            exchange.writeBody(data);
+        }
+
+        /**
+         * End the body, a fixed length body that is too short fails the request
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            flush();
+            closed = true;
+            if (length != -1 && written != length) {
+                exchange.cancel();
+                throw new IOException("Expected " + length + " bytes but received " + written);
+            }
+            if (length == -1) exchange.writeBody("0\r\n\r\n".getBytes("ISO-8859-1"));
+            exchange.endBody();
+        }
+    }
+
+    /**
+     * The response body, read from the exchange
+     */
+    private static class ResponseInputStream extends InputStream {
+
+        /**
+         * The exchange
+         */
+        private final NioExchange exchange;
+
+        /**
+         * Whether it was closed
+         */
+        private boolean closed;
+
+        ResponseInputStream(NioExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+            return exchange.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed ? 0 : exchange.available();
+        }
+
+        /**
+         * Close the body, a body not read to the end closes the socket
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (!exchange.isExhausted()) exchange.cancel();
+        }
+    }
+}
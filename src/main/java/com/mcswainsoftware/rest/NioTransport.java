@@ -0,0 +1,278 @@
+package com.mcswainsoftware.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A non-blocking HTTP/1.1 transport, driving every socket from a few selector threads
+ *
+ * Connecting, writing requests and reading responses happen on the selector threads, so hundreds of requests can be
+ * in flight at once without a thread for each
+ * Requests with a buffered return type (JSON, XML, plain text and binary) give their worker thread back while they wait,
+ * the selector thread hands them to a worker again once the whole response arrived
+ * Streamed return types, downloads and request bodies still hold a worker thread while they are read or written
+ * Response bodies are decoded into pooled buffers, and a socket stops being read while its body waits to be read,
+ * see {@link NioExchange#MAX_BUFFERED}
+ *
+ * Idle keep-alive sockets are kept in the {@link ConnectionPool} of the transport, see {@link #prewarm(URL, int)} to open them early
+ * Host names are resolved with {@link Rest#getDns()}, a new socket tries the addresses in order until one connects
+ *
+ * Only plain http URLs are sent this way, there is no TLS
+ * https and other schemes go to the fallback transport, blocking a worker thread each like without this transport,
+ * see {@link #getFallbackCount()}
+ * Proxies aren't supported
+ */
+public class NioTransport implements Transport, Closeable {
+
+    /**
+     * The default number of selector threads
+     */
+    public static final int DEFAULT_SELECTOR_THREADS = 2;
+
+    /**
+     * The number of selector threads
+     */
+    private final int selectorThreads;
+
+    /**
+     * The pool of idle sockets
+     */
+    private final ConnectionPool connectionPool;
+
+    /**
+     * The transport for URLs that aren't plain http
+     */
+    private final Transport fallback;
+
+    /**
+     * The selector loops, or null until the first request
+     */
+    private SelectorLoop[] loops;
+
+    /**
+     * The loop the next new socket goes to
+     */
+    private int nextLoop;
+
+    /**
+     * Whether the transport was closed
+     */
+    private boolean closed;
+
+    /**
+     * The number of connections opened by the fallback transport
+     */
+    private long fallbackCount;
+
+    /**
+     * Form a NioTransport with {@link #DEFAULT_SELECTOR_THREADS} selector threads
+     */
+    public NioTransport() {
+        this(DEFAULT_SELECTOR_THREADS, new ConnectionPool(), new UrlConnectionTransport());
+    }
+
+    /**
+     * Form a NioTransport
+     * @param selectorThreads the number of selector threads, started with the first request
+     * @param connectionPool the pool for idle sockets
+     * @param fallback the transport for URLs that aren't plain http
+     */
+    public NioTransport(int selectorThreads, ConnectionPool connectionPool, Transport fallback) {
+        if (selectorThreads < 1) throw new IllegalArgumentException("selectorThreads < 1: " + selectorThreads);
+        if (connectionPool == null || fallback == null) throw new IllegalArgumentException("connectionPool and fallback must be set");
+        this.selectorThreads = selectorThreads;
+        this.connectionPool = connectionPool;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Open a connection, plain http URLs are sent by this transport and the others by the fallback transport
+     * @param url the URL of the request, including its arguments
+     * @return the connection
+     * @throws IOException if the connection can't be opened
+     */
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            synchronized (this) {
+                fallbackCount++;
+            }
+            return fallback.open(url);
+        }
+        return new NioHttpConnection(url, this);
+    }
+
+    /**
+     * Get the number of connections handed to the fallback transport, for https and other URLs that aren't plain http
+     * @return the count
+     */
+    public synchronized long getFallbackCount() {
+        return fallbackCount;
+    }
+
+    /**
+     * Open idle sockets to the server of a URL ahead of the first request, they are connected in the background
+     *
+     * Sockets already idle count towards the number, which is capped by the idle limit of the pool
+     * @param url a URL on the server
+     * @param connections the number of idle sockets wanted
+     * @return the number of sockets being opened, 0 for URLs that aren't plain http
+     * @throws IOException if the host can't be resolved or the transport was closed
+     */
+    public int prewarm(URL url, int connections) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) return 0;
+        String address = ConnectionPool.addressOf(url);
+        int missing = Math.min(connections, connectionPool.getMaxIdlePerAddress()) - connectionPool.idleConnectionCount(address);
+        if (missing <= 0) return 0;
+        List<InetSocketAddress> remotes = resolve(url);
+        for (int i = 0; i < missing; i++) {
+            new NioExchange(this, nextLoop(), null, address, remotes, null, null, false, false, Rest.getConnectTimeoutMillis(), 0).start();
+        }
+        return missing;
+    }
+
+    /**
+     * Get the number of selector threads
+     * @return the number of threads
+     */
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * Get the pool of idle sockets
+     * @return the pool
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Get the number of requests in flight
+     * @return the count, an estimate while requests start and finish
+     */
+    public synchronized int inFlightCount() {
+        int count = 0;
+        if (loops != null) {
+            for (SelectorLoop loop : loops) count += loop.activeCount();
+        }
+        return count;
+    }
+
+    /**
+     * Stop the selector threads, failing the requests in flight and closing every socket
+     */
+    @Override
+    public void close() {
+        SelectorLoop[] stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = loops;
+            loops = null;
+        }
+        if (stopped != null) {
+            for (SelectorLoop loop : stopped) loop.close();
+        }
+        connectionPool.evictAll();
+    }
+
+    /**
+     * Send a request
+     * @param url the URL
+     * @param head the request head
+     * @param body the request body, or null
+     * @param streaming whether the body is streamed after the head instead
+     * @param headRequest whether it is a HEAD request
+     * @param connectTimeout the connect timeout in milliseconds, 0 means none
+     * @param readTimeout the read timeout in milliseconds, 0 means none
+     * @return the exchange, already on its way
+     * @throws IOException if the host can't be resolved or the transport was closed
+     */
+    NioExchange execute(URL url, byte[] head, byte[] body, boolean streaming, boolean headRequest,
+                        int connectTimeout, int readTimeout) throws IOException {
+        String address = ConnectionPool.addressOf(url);
+        NioConnection connection = (NioConnection) connectionPool.acquire(address);
+        List<InetSocketAddress> remotes = null;
+        SelectorLoop loop;
+        if (connection != null && !connection.loop.isClosed()) {
+            loop = connection.loop;
+        } else {
+            if (connection != null) connection.close();
+            connection = null;
+            remotes = resolve(url);
+            loop = nextLoop();
+        }
+        NioExchange exchange = new NioExchange(this, loop, connection, address, remotes, head, body, streaming, headRequest,
+                connectTimeout, readTimeout);
+        exchange.start();
+        return exchange;
+    }
+
+    /**
+     * Hand back a socket whose response arrived completely, called on its loop
+     * @param address the pool address
+     * @param connection the socket
+     */
+    void release(String address, NioConnection connection) {
+        boolean open;
+        synchronized (this) {
+            open = !closed;
+        }
+        if (open) connectionPool.release(address, connection);
+        else connection.close();
+    }
+
+    /**
+     * Helper for resolving the server of a URL
+     * @param url the URL
+     * @return the addresses of the server, in the order the resolver gave them
+     * @throws UnknownHostException if the host can't be resolved
+     */
+    private static List<InetSocketAddress> resolve(URL url) throws UnknownHostException {
+        String host = url.getHost();
+        if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+        List<InetAddress> addresses = Rest.getDns().lookup(host);
+        if (addresses == null || addresses.isEmpty()) throw new UnknownHostException(host);
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        List<InetSocketAddress> remotes = new ArrayList<>(addresses.size());
+        for (InetAddress address : addresses) remotes.add(new InetSocketAddress(address, port));
+        return remotes;
+    }
+
+    /**
+     * Helper for picking the loop for a new socket, starting the loops with the first request
+     *
+     * A loop that stopped after an error is replaced
+     * @return the loop
+     * @throws IOException if the transport was closed or a selector can't be opened
+     */
+    private synchronized SelectorLoop nextLoop() throws IOException {
+        if (closed) throw new IOException("Transport closed");
+        if (loops == null) {
+            SelectorLoop[] started = new SelectorLoop[selectorThreads];
+            try {
+                for (int i = 0; i < started.length; i++) started[i] = new SelectorLoop("Rest NIO selector #" + (i + 1));
+            } catch (IOException e) {
+                for (SelectorLoop loop : started) {
+                    if (loop != null) loop.close();
+                }
+                throw e;
+            }
+            loops = started;
+        }
+        SelectorLoop loop = loops[nextLoop];
+        if (loop.isClosed()) {
+            loop = new SelectorLoop("Rest NIO selector #" + (nextLoop + 1));
+            loops[nextLoop] = loop;
+        }
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+}
@@ -0,0 +1,402 @@
+package com.mcswainsoftware.rest;
+
+import android.os.Looper;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.json.JSONObject;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the pages of a paged API, fetching the next pages while the current one is processed
+ *
+ * The first request is given, every following request is formed from the previous page by a {@link NextPage}
+ * See {@link #linkHeader()} for APIs with a Link: &lt;...&gt;; rel="next" header and {@link #cursor(String, String...)} for cursor fields
+ *
+ * Up to the prefetch depth of pages are fetched ahead of the consumer, fetching then waits until a page is taken
+ * Pages are read either by iterating, on a thread other than the main thread, or with {@link #start(Rest.OnPageReceiver)}
+ * A page that failed with an error status is handed over as the last page, a request that failed completely ends the pages
+ *
+ * A Paginator walks the pages once
+ */
+public class Paginator implements Iterable<RestResponse> {
+
+    /**
+     * The default number of pages fetched ahead of the consumer
+     */
+    public static final int DEFAULT_PREFETCH_DEPTH = 1;
+
+    /**
+     * Forms the request for the page after a given one
+     */
+    public interface NextPage {
+
+        /**
+         * Form the request for the next page
+         * @param request the request of the current page
+         * @param page the current page, always successful
+         * @return the request for the next page, or null if this was the last page
+         */
+        RestRequest nextRequest(RestRequest request, RestResponse page);
+    }
+
+    /**
+     * Forms the following requests
+     */
+    private final NextPage nextPage;
+
+    /**
+     * The pages fetched and not taken yet
+     */
+    private final ArrayDeque<RestResponse> ready = new ArrayDeque<>();
+
+    /**
+     * The number of pages fetched ahead of the consumer
+     */
+    private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+
+    /**
+     * The request for the next page to fetch, or null if there is none
+     */
+    private RestRequest next;
+
+    /**
+     * The running request, or null
+     */
+    private Call call;
+
+    /**
+     * Whether a page is being fetched
+     */
+    private boolean fetching;
+
+    /**
+     * The number of pages fetched or being fetched
+     */
+    private int fetches;
+
+    /**
+     * Whether a request failed without a response
+     */
+    private boolean failed;
+
+    /**
+     * Whether the pages were started, by iterating or with a receiver
+     */
+    private boolean started;
+
+    /**
+     * Whether the pages were canceled
+     */
+    private boolean canceled;
+
+    /**
+     * The receiver of the pages, or null when iterating
+     */
+    private Rest.OnPageReceiver receiver;
+
+    /**
+     * Whether a thread is handing pages to the receiver
+     */
+    private boolean delivering;
+
+    /**
+     * The index of the next page handed to the receiver
+     */
+    private int delivered;
+
+    /**
+     * Form a Paginator
+     * @param first the request for the first page
+     * @param nextPage forms the request for each following page
+     */
+    public Paginator(RestRequest first, NextPage nextPage) {
+        if (first == null || nextPage == null) throw new IllegalArgumentException("first and nextPage must be set");
+        this.next = first;
+        this.nextPage = nextPage;
+    }
+
+    /**
+     * Get the number of pages fetched ahead of the consumer
+     * @return the depth
+     */
+    public synchronized int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Set the number of pages fetched ahead of the consumer
+     *
+     * Pages are still fetched one after the other, as each request comes from the page before it
+     * @param prefetchDepth the depth, at least 1
+     */
+    public synchronized void setPrefetchDepth(int prefetchDepth) {
+        if (prefetchDepth < 1) throw new IllegalArgumentException("prefetchDepth < 1: " + prefetchDepth);
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * Start fetching and hand every page to a receiver, on the callback thread
+     * @param receiver the receiver, given a null page after the last one
+     */
+    public void start(Rest.OnPageReceiver receiver) {
+        if (receiver == null) throw new IllegalArgumentException("receiver == null");
+        synchronized (this) {
+            if (started) throw new IllegalStateException("Paginator already started");
+            started = true;
+            this.receiver = receiver;
+        }
+        fetchMore();
+    }
+
+    /**
+     * Iterate over the pages, blocking until each one arrives
+     *
+     * Must not be used on the main thread when the callbacks run there, as it waits on them
+     * @return the iterator
+     */
+    @Override
+    public Iterator<RestResponse> iterator() {
+        if (Looper.myLooper() != null && Looper.myLooper() == Looper.getMainLooper() && Rest.getCallbackExecutor() == null) {
+            throw new IllegalStateException("Paginator can't be iterated on the main thread");
+        }
+        synchronized (this) {
+            if (started) throw new IllegalStateException("Paginator already started");
+            started = true;
+        }
+        fetchMore();
+        return new Iterator<RestResponse>() {
+            @Override
+            public boolean hasNext() {
+                synchronized (Paginator.this) {
+                    while (ready.isEmpty() && !canceled && (fetching || next != null)) {
+                        try {
+                            Paginator.this.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            cancelLocked();
+                        }
+                    }
+                    return !ready.isEmpty();
+                }
+            }
+
+            @Override
+            public RestResponse next() {
+                RestResponse page;
+                synchronized (Paginator.this) {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    page = ready.poll();
+                }
+                fetchMore();
+                return page;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Stop fetching pages, pages already fetched are dropped
+     */
+    public void cancel() {
+        Call running;
+        synchronized (this) {
+            running = call;
+            cancelLocked();
+        }
+        if (running != null) running.cancel();
+    }
+
+    /**
+     * Whether a request failed without a response, which ended the pages early
+     * @return true if it failed
+     */
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Helper for canceling while holding the lock
+     */
+    private void cancelLocked() {
+        canceled = true;
+        next = null;
+        ready.clear();
+        notifyAll();
+    }
+
+    /**
+     * Start fetching the next page if there is one and there is room for it
+     */
+    private void fetchMore() {
+        final RestRequest request;
+        int fetch;
+        synchronized (this) {
+            if (fetching || canceled || next == null || ready.size() >= prefetchDepth) return;
+            fetching = true;
+            fetch = ++fetches;
+            request = next;
+            next = null;
+        }
+        Call running = Rest.executeRequest(request, new Rest.OnRestCompletedReceiver() {
+            @Override
+            public void onRestCompleted(RestResponse response) {
+                fetched(request, response);
+            }
+        });
+        synchronized (this) {
+            if (fetching && fetches == fetch) call = running;
+        }
+    }
+
+    /**
+     * Store a fetched page, start on the following one, and hand pages to the receiver
+     * @param request the request of the page
+     * @param response the page, or null if the request failed
+     */
+    private void fetched(RestRequest request, RestResponse response) {
+        RestRequest following = null;
+        if (response != null && response.isSuccessful()) following = nextPage.nextRequest(request, response);
+        synchronized (this) {
+            fetching = false;
+            call = null;
+            if (canceled) return;
+            if (response != null) ready.add(response);
+            else failed = true;
+            next = following;
+            notifyAll();
+        }
+        fetchMore();
+        deliver();
+    }
+
+    /**
+     * Hand the fetched pages to the receiver in order, from one thread at a time
+     */
+    private void deliver() {
+        while (true) {
+            Rest.OnPageReceiver receiver;
+            RestResponse page;
+            int index;
+            synchronized (this) {
+                receiver = this.receiver;
+                if (receiver == null || delivering || canceled) return;
+                page = ready.poll();
+                if (page == null && (fetching || next != null)) return;
+                index = delivered++;
+                delivering = true;
+                if (page == null) this.receiver = null;
+            }
+            boolean carryOn;
+            try {
+                carryOn = receiver.onPage(index, page);
+            } finally {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+            if (page == null) return;
+            if (!carryOn) {
+                cancel();
+                return;
+            }
+            fetchMore();
+        }
+    }
+
+    /**
+     * Follow the Link header with rel="next", as used by GitHub and many others
+     * @return the next page extractor
+     */
+    public static NextPage linkHeader() {
+        return new NextPage() {
+            @Override
+            public RestRequest nextRequest(RestRequest request, RestResponse page) {
+                List<String> links = page.getHeaders().get("Link");
+                if (links == null) return null;
+                for (String link : links) {
+                    String url = nextLinkOf(link);
+                    if (url == null) continue;
+                    try {
+                        url = new URL(new URL(Rest.buildUrl(request)), url).toString();
+                    } catch (MalformedURLException e) {
+                        return null;
+                    }
+                    RestRequest nextRequest = request.copy();
+                    nextRequest.setBaseURL(url);
+                    nextRequest.setArguments(new HashMap<String, String>());
+                    return nextRequest;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Follow a cursor in the JSON body, sent back as an argument of the next request
+     *
+     * For {"data": [...], "paging": {"next_cursor": "abc"}} the path is "paging", "next_cursor"
+     * The pages end when the cursor is missing, null or empty
+     * @param argument the name of the argument the cursor is sent as
+     * @param path the object property names leading to the cursor
+     * @return the next page extractor, for requests with {@link RestRequest#RETURN_TYPE_JSON}
+     */
+    public static NextPage cursor(final String argument, final String... path) {
+        if (argument == null || path.length == 0) throw new IllegalArgumentException("argument and path must be set");
+        return new NextPage() {
+            @Override
+            public RestRequest nextRequest(RestRequest request, RestResponse page) {
+                Object value = page.getContent();
+                for (String name : path) {
+                    if (!(value instanceof JSONObject)) return null;
+                    value = ((JSONObject) value).opt(name);
+                }
+                if (value == null || value == JSONObject.NULL) return null;
+                String cursor = value.toString();
+                if (cursor.length() == 0) return null;
+                RestRequest nextRequest = request.copy();
+                nextRequest.getArguments().put(argument, cursor);
+                return nextRequest;
+            }
+        };
+    }
+
+    /**
+     * Helper for finding the next page URL in one Link header value, which may hold several links
+     * @param link the header value, such as &lt;https://api.example.com/items?page=2&gt;; rel="next", &lt;...&gt;; rel="last"
+     * @return the URL, or null if there is no next link
+     */
+    static String nextLinkOf(String link) {
+        int start = 0;
+        while (true) {
+            int open = link.indexOf('<', start);
+            if (open == -1) return null;
+            int close = link.indexOf('>', open);
+            if (close == -1) return null;
+            int end = link.indexOf('<', close);
+            String params = link.substring(close + 1, end != -1 ? end : link.length()).toLowerCase(Locale.US);
+            for (String param : params.split(";")) {
+                param = param.trim();
+                if (!param.startsWith("rel=")) continue;
+                String rel = param.substring(4).replace("\"", "").replace(",", "").trim();
+                for (String value : rel.split(" ")) {
+                    if (value.equals("next")) return link.substring(open + 1, close).trim();
+                }
+            }
+            if (end == -1) return null;
+            start = end;
+        }
+    }
+}
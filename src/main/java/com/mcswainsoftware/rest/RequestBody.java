@@ -0,0 +1,71 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The body of a POST request, streamed to the server instead of held in memory as a String
+ *
+ * A body with a known length is sent in fixed-length streaming mode, one with an unknown length in chunked mode
+ * A body may be written more than once, when a request is retried or answers an authentication challenge
+ *
+ * See {@link RequestBodyBytes}, {@link RequestBodyFile} and {@link RequestBodyStream}
+ */
+public abstract class RequestBody {
+
+    /**
+     * Size of the buffer used to copy streamed bodies
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The Content-Type, or null
+     */
+    private final String contentType;
+
+    /**
+     * Form a RequestBody
+     * @param contentType the Content-Type, or null to leave it to the headers
+     */
+    protected RequestBody(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Get the Content-Type, sent unless the request headers set one
+     * @return the Content-Type, or null
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the size of the body
+     * @return the size in bytes, or -1 if it isn't known before writing
+     */
+    public abstract long getContentLength();
+
+    /**
+     * Write the whole body
+     * @param out the stream to the server, not to be closed
+     * @throws IOException if the body can't be read or sent
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Helper for copying a stream into the body with a small buffer, taken from the pool shared with response reading
+     * @param in the stream to copy, it is not closed
+     * @param out the stream to the server
+     * @throws IOException if the stream can't be read or sent
+     */
+    protected static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = BufferPool.SHARED.acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request body held in memory
+ */
+public class RequestBodyBytes extends RequestBody {
+
+    /**
+     * The body
+     */
+    private final byte[] bytes;
+
+    /**
+     * Form a RequestBodyBytes
+     * @param bytes the body, not copied so it must not change while the request runs
+     * @param contentType the Content-Type, or null to leave it to the headers
+     */
+    public RequestBodyBytes(byte[] bytes, String contentType) {
+        super(contentType);
+        if (bytes == null) throw new IllegalArgumentException("bytes == null");
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the body
+     * @return the bytes
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public long getContentLength() {
+        return bytes.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (int offset = 0; offset < bytes.length; offset += BUFFER_SIZE) {
+            out.write(bytes, offset, Math.min(BUFFER_SIZE, bytes.length - offset));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.mcswainsoftware.rest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A request body read from a file as it is sent, so the file never has to fit in memory
+ */
+public class RequestBodyFile extends RequestBody {
+
+    /**
+     * The file
+     */
+    private final File file;
+
+    /**
+     * Form a RequestBodyFile
+     * @param file the file, it must not change while the request runs
+     * @param contentType the Content-Type, or null to leave it to the headers
+     */
+    public RequestBodyFile(File file, String contentType) {
+        super(contentType);
+        if (file == null) throw new IllegalArgumentException("file == null");
+        this.file = file;
+    }
+
+    /**
+     * Get the file
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public long getContentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A request body read from a stream as it is sent
+ *
+ * The stream comes from a {@link Source} that opens a fresh one every time the body is written
+ */
+public class RequestBodyStream extends RequestBody {
+
+    /**
+     * Opens the stream
+     */
+    private final Source source;
+
+    /**
+     * The size of the body, or -1 if it isn't known
+     */
+    private final long contentLength;
+
+    /**
+     * Form a RequestBodyStream
+     * @param source opens the stream
+     * @param contentLength the size of the body in bytes, or -1 to send it chunked
+     * @param contentType the Content-Type, or null to leave it to the headers
+     */
+    public RequestBodyStream(Source source, long contentLength, String contentType) {
+        super(contentType);
+        if (source == null) throw new IllegalArgumentException("source == null");
+        if (contentLength < -1) throw new IllegalArgumentException("contentLength < -1: " + contentLength);
+        this.source = source;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = source.open();
+        try {
+            copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens the stream of a body
+     */
+    public interface Source {
+
+        /**
+         * Open a new stream positioned at the start of the body, called on a worker thread
+         * @return the stream, closed once it is sent
+         * @throws IOException if it can't be opened
+         */
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,215 @@
+package com.mcswainsoftware.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable template for REST requests that are made over and over with only a few values changing
+ *
+ * The URL may hold {name} placeholders, which are filled in order by {@link #newRequest(String...)}
+ * Placeholders in the path are encoded as path segments, placeholders after the ? as query values
+ *
+ * The fixed parts of the URL, the default arguments and the default headers are prepared once when the template is formed,
+ * each request is then built with a single StringBuilder and has its URL fully encoded already
+ *
+ * A template can be shared between threads
+ */
+public class RequestTemplate {
+
+    /**
+     * The URL with its placeholders
+     */
+    private final String urlTemplate;
+
+    /**
+     * The fixed parts of the URL, one more than there are placeholders
+     */
+    private final String[] literals;
+
+    /**
+     * The names of the placeholders, in order
+     */
+    private final String[] names;
+
+    /**
+     * Whether each placeholder is in the query rather than the path
+     */
+    private final boolean[] inQuery;
+
+    /**
+     * Whether the URL has a query before the default arguments are added
+     */
+    private final boolean hasQuery;
+
+    /**
+     * The default arguments, URL encoded and joined with &amp;, or null if there are none
+     */
+    private final String encodedArguments;
+
+    /**
+     * The return data type
+     */
+    private final int dataType;
+
+    /**
+     * The HTTP method
+     */
+    private final int method;
+
+    /**
+     * The default headers, never handed out
+     */
+    private final HashMap<String, String> headers;
+
+    /**
+     * The length of the URL without placeholder values, used to size the StringBuilder
+     */
+    private final int fixedLength;
+
+    /**
+     * Form a RequestTemplate for GET requests
+     * @param urlTemplate the URL, with {name} placeholders
+     * @param dataType the return data type
+     */
+    public RequestTemplate(String urlTemplate, int dataType) {
+        this(urlTemplate, dataType, RestRequest.METHOD_GET);
+    }
+
+    /**
+     * Form a RequestTemplate
+     * @param urlTemplate the URL, with {name} placeholders
+     * @param dataType the return data type
+     * @param method the HTTP method
+     */
+    public RequestTemplate(String urlTemplate, int dataType, int method) {
+        this(urlTemplate, dataType, method, null, null);
+    }
+
+    /**
+     * Form a RequestTemplate
+     * @param urlTemplate the URL, with {name} placeholders
+     * @param dataType the return data type
+     * @param method the HTTP method
+     * @param arguments the arguments every request gets, or null
+     * @param headers the headers every request gets, or null
+     */
+    public RequestTemplate(String urlTemplate, int dataType, int method, HashMap<String, String> arguments, HashMap<String, String> headers) {
+        if (urlTemplate == null) throw new IllegalArgumentException("urlTemplate == null");
+        this.urlTemplate = urlTemplate;
+        this.dataType = dataType;
+        this.method = method;
+        this.headers = headers != null ? new HashMap<>(headers) : new HashMap<String, String>();
+
+        ArrayList<String> literals = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = urlTemplate.indexOf('{', start)) != -1) {
+            int close = urlTemplate.indexOf('}', open);
+            if (close == -1) throw new IllegalArgumentException("Unclosed placeholder in " + urlTemplate);
+            literals.add(urlTemplate.substring(start, open));
+            names.add(urlTemplate.substring(open + 1, close));
+            start = close + 1;
+        }
+        literals.add(urlTemplate.substring(start));
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.names = names.toArray(new String[names.size()]);
+
+        inQuery = new boolean[this.names.length];
+        boolean query = false;
+        int length = 0;
+        for (int i = 0; i < this.literals.length; i++) {
+            query |= this.literals[i].indexOf('?') != -1;
+            if (i < inQuery.length) inQuery[i] = query;
+            length += this.literals[i].length();
+        }
+        hasQuery = query;
+
+        if (arguments != null && !arguments.isEmpty()) {
+            StringBuilder encoded = new StringBuilder(arguments.size() * 32);
+            Rest.appendArguments(encoded, arguments, false);
+            encodedArguments = encoded.substring(1);
+            length += encodedArguments.length() + 1;
+        } else {
+            encodedArguments = null;
+        }
+        fixedLength = length;
+    }
+
+    /**
+     * Form a request from the template
+     * @param values the values of the placeholders, in order
+     * @return the request, a new object that may be changed freely
+     */
+    public RestRequest newRequest(String... values) {
+        return newRequest(null, values);
+    }
+
+    /**
+     * Form a request from the template with extra arguments
+     * @param arguments the arguments of this request only, added after the default arguments, or null
+     * @param values the values of the placeholders, in order
+     * @return the request, a new object that may be changed freely
+     */
+    public RestRequest newRequest(Map<String, String> arguments, String... values) {
+        if (values.length != names.length) {
+            throw new IllegalArgumentException("Expected " + names.length + " placeholder values but got " + values.length);
+        }
+        int length = fixedLength;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) throw new IllegalArgumentException("Value of {" + names[i] + "} is null");
+            length += values[i].length() + 8;
+        }
+        if (arguments != null) length += arguments.size() * 32;
+
+        StringBuilder url = new StringBuilder(length);
+        for (int i = 0; i < names.length; i++) {
+            url.append(literals[i]);
+            Rest.appendEncoded(url, values[i], inQuery[i]);
+        }
+        url.append(literals[names.length]);
+        boolean first = !hasQuery;
+        if (encodedArguments != null) {
+            url.append(first ? '?' : '&').append(encodedArguments);
+            first = false;
+        }
+        if (arguments != null) Rest.appendArguments(url, arguments, first);
+
+        RestRequest request = new RestRequest(url.toString(), dataType, method);
+        if (!headers.isEmpty()) request.setHeaders(new HashMap<>(headers));
+        return request;
+    }
+
+    /**
+     * Get the URL with its placeholders
+     * @return the URL template
+     */
+    public String getUrlTemplate() {
+        return urlTemplate;
+    }
+
+    /**
+     * Get the names of the placeholders, in the order their values are given
+     * @return a copy of the names
+     */
+    public String[] getPlaceholderNames() {
+        return names.clone();
+    }
+
+    /**
+     * Get the return data type
+     * @return the return data type
+     */
+    public int getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Get the HTTP method
+     * @return the HTTP method
+     */
+    public int getMethod() {
+        return method;
+    }
+}
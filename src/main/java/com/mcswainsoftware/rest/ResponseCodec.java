@@ -0,0 +1,25 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a response body straight into an object, for {@link RestRequest#RETURN_TYPE_TYPED}
+ *
+ * The codec reads the live body on the worker thread as it arrives, so nothing is buffered or built in between
+ * A codec is shared by every request it is set on, so it must be thread safe
+ *
+ * {@link JsonBinders#codecFor(Class)} gives a codec for classes annotated with {@link JsonModel}
+ * @param <T> the type of the decoded object
+ */
+public interface ResponseCodec<T> {
+
+    /**
+     * Decode a response body
+     * @param body the body, already decompressed, closed by the caller
+     * @param charset the charset declared in the Content-Type, or null if none was declared
+     * @return the decoded object
+     * @throws IOException if the body can't be read or doesn't match the type, a {@link MalformedJsonException} is not retried
+     */
+    T decode(InputStream body, String charset) throws IOException;
+}
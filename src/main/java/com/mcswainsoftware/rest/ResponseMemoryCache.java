@@ -0,0 +1,246 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory cache of parsed GET responses, keyed on the normalized request
+ *
+ * Entries expire after a fixed time to live, and the least recently used entry is evicted once the cache is full
+ * Identical requests made while one is already running don't go to the network again,
+ * they wait for the running request and all of their callbacks get its response
+ *
+ * Cached responses are shared between callers, so they must not be modified
+ *
+ * Requests with a username and password are keyed on both, so callers with other credentials never share a response
+ * Requests that would get their credentials from a {@link CredentialsProvider} bypass the cache,
+ * as their credentials aren't known until they run
+ */
+public class ResponseMemoryCache {
+
+    /**
+     * The limit of entries
+     */
+    private final int maxEntries;
+
+    /**
+     * The time an entry stays valid, in milliseconds
+     */
+    private final long ttlMillis;
+
+    /**
+     * The entries by request key, the least recently used is first
+     */
+    private final LinkedHashMap<String, CachedResponse> entries;
+
+    /**
+     * The callbacks waiting on each running request, by request key
+     */
+    private final HashMap<String, List<Rest.OnRestCompletedReceiver>> inFlight = new HashMap<>();
+
+    /**
+     * Number of requests answered from the cache
+     */
+    private long hitCount;
+
+    /**
+     * Number of requests that joined one already running
+     */
+    private long coalescedCount;
+
+    /**
+     * Number of requests that went to the network
+     */
+    private long missCount;
+
+    /**
+     * Form a ResponseMemoryCache
+     * @param maxEntries the limit of entries
+     * @param ttlMillis the time an entry stays valid, in milliseconds
+     */
+    public ResponseMemoryCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries < 1: " + maxEntries);
+        if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis <= 0: " + ttlMillis);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > ResponseMemoryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Look up a parsed response
+     * @param key the request key, see {@link #keyOf(RestRequest)}
+     * @return the response, or null if there is none or it expired
+     */
+    synchronized RestResponse get(String key) {
+        CachedResponse cached = entries.get(key);
+        if (cached == null) return null;
+        if (System.currentTimeMillis() - cached.storedAt >= ttlMillis) {
+            entries.remove(key);
+            return null;
+        }
+        hitCount++;
+        return cached.response;
+    }
+
+    /**
+     * Wait on a running request with the same key, or register as the one that runs it
+     * @param key the request key, see {@link #keyOf(RestRequest)}
+     * @param receiver the callback for the response
+     * @return true if a request was already running and the callback will get its response,
+     *         false if the caller has to run the request and then call {@link #complete(String, RestResponse)}
+     */
+    synchronized boolean join(String key, Rest.OnRestCompletedReceiver receiver) {
+        List<Rest.OnRestCompletedReceiver> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(receiver);
+            coalescedCount++;
+            return true;
+        }
+        waiting = new ArrayList<>(1);
+        waiting.add(receiver);
+        inFlight.put(key, waiting);
+        missCount++;
+        return false;
+    }
+
+    /**
+     * Store the response of a running request and take the callbacks waiting on it
+     * @param key the request key, see {@link #keyOf(RestRequest)}
+     * @param response the response, not stored if null or not successful
+     * @return the callbacks to hand the response to
+     */
+    synchronized List<Rest.OnRestCompletedReceiver> complete(String key, RestResponse response) {
+        if (response != null && response.isSuccessful()) entries.put(key, new CachedResponse(response, System.currentTimeMillis()));
+        List<Rest.OnRestCompletedReceiver> waiting = inFlight.remove(key);
+        return waiting != null ? waiting : new ArrayList<Rest.OnRestCompletedReceiver>(0);
+    }
+
+    /**
+     * Remove every entry, running requests are not affected
+     */
+    public synchronized void evictAll() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of entries, including expired ones not evicted yet
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of requests answered from the cache
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of requests that joined an identical one already running
+     * @return the coalesced count
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Get the number of requests that went to the network
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Helper for building the key of a request
+     *
+     * Two requests have the same key if they have the same method, return type, base URL, arguments, headers and credentials,
+     * in any order of arguments and headers
+     * @param request the Request
+     * @return the key
+     */
+    static String keyOf(RestRequest request) {
+        StringBuilder key = new StringBuilder(request.getBaseURL().length() + 64);
+        key.append(request.getMethod()).append(' ').append(request.getDataType()).append(' ').append(request.getBaseURL());
+        for (Map.Entry<String, String> argument : new TreeMap<>(request.getArguments()).entrySet()) {
+            key.append('\n').append(argument.getKey()).append('=').append(argument.getValue());
+        }
+        for (Map.Entry<String, String> header : new TreeMap<>(request.getHeaders()).entrySet()) {
+            key.append('\n').append(header.getKey()).append(':').append(header.getValue());
+        }
+        Credentials credentials = request.getCredentials();
+        if (credentials != null) {
+            key.append("\nuser:").append(credentials.getUsername());
+            key.append("\nauth:").append(fingerprint(credentials.getBasicAuthorization()));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Helper for deciding whether a request may be answered from the cache or share a running request
+     * @param request the Request
+     * @param defaultProvider the provider of credentials for requests that don't set their own, or null
+     * @return false if the request would get its credentials from a provider
+     */
+    static boolean isSharable(RestRequest request, CredentialsProvider defaultProvider) {
+        if (request.getCredentials() != null) return true;
+        for (String name : request.getHeaders().keySet()) {
+            if ("Authorization".equalsIgnoreCase(name)) return true;
+        }
+        return request.getCredentialsProvider() == null && defaultProvider == null;
+    }
+
+    /**
+     * Helper for a digest of a secret, so the key doesn't hold the secret itself
+     * @param secret the secret
+     * @return the SHA-256 of the secret in hex
+     */
+    private static String fingerprint(String secret) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A parsed response and the time it was stored
+     */
+    private static class CachedResponse {
+
+        /**
+         * The response
+         */
+        final RestResponse response;
+
+        /**
+         * When it was stored, in milliseconds
+         */
+        final long storedAt;
+
+        CachedResponse(RestResponse response, long storedAt) {
+            this.response = response;
+            this.storedAt = storedAt;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reads response bodies into memory with as little copying and garbage as possible
+ *
+ * A body of known length up to {@link #MAX_PRESIZE_BYTES} is read straight into an array of that size
+ * A longer or unknown length is read into pooled chunks and copied once into an array of the exact size,
+ * instead of growing a buffer by doubling, so a Content-Length the server doesn't send can't allocate memory up front
+ *
+ * Text is decoded with the charset declared in the Content-Type, bytes are handed to parsers that find the encoding themselves
+ */
+final class ResponseReader {
+
+    /**
+     * The chunks shared by every request
+     */
+    private static final BufferPool buffers = BufferPool.SHARED;
+
+    /**
+     * The most bytes of an unread body read just to reuse the connection, past that the connection is dropped instead
+     */
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * The largest declared length an array is allocated for before the body arrives
+     */
+    static final int MAX_PRESIZE_BYTES = 64 * 1024;
+
+    private ResponseReader() {
+    }
+
+    /**
+     * Read a whole response body
+     * @param in the response body
+     * @param contentLength the length the server declared for the body, or -1 if it isn't known
+     * @return the bytes of the body, fewer than declared if it ended early
+     * @throws IOException if the body can't be read
+     */
+    static byte[] readFully(InputStream in, int contentLength) throws IOException {
+        if (contentLength >= 0 && contentLength <= MAX_PRESIZE_BYTES) {
+            byte[] body = new byte[contentLength];
+            int length = 0;
+            while (length < contentLength) {
+                int read = in.read(body, length, contentLength - length);
+                if (read == -1) break;
+                length += read;
+            }
+            return length == contentLength ? body : Arrays.copyOf(body, length);
+        }
+
+        ArrayList<byte[]> chunks = new ArrayList<>(4);
+        byte[] chunk = buffers.acquire();
+        int filled = 0;
+        int total = 0;
+        try {
+            while (true) {
+                if (filled == chunk.length) {
+                    chunks.add(chunk);
+                    chunk = buffers.acquire();
+                    filled = 0;
+                }
+                int read = in.read(chunk, filled, chunk.length - filled);
+                if (read == -1) break;
+                filled += read;
+                total += read;
+            }
+            byte[] body = new byte[total];
+            int offset = 0;
+            for (byte[] full : chunks) {
+                System.arraycopy(full, 0, body, offset, full.length);
+                offset += full.length;
+            }
+            System.arraycopy(chunk, 0, body, offset, filled);
+            return body;
+        } finally {
+            for (byte[] full : chunks) buffers.release(full);
+            buffers.release(chunk);
+        }
+    }
+
+    /**
+     * Read what is left of a response body, so the connection can be reused
+     * @param in the response body
+     * @return true if the end was reached, false if more than {@link #MAX_DRAIN_BYTES} were left
+     * @throws IOException if the body can't be read
+     */
+    static boolean drain(InputStream in) throws IOException {
+        byte[] skip = buffers.acquire();
+        try {
+            long drained = 0;
+            while (drained <= MAX_DRAIN_BYTES) {
+                int read = in.read(skip);
+                if (read == -1) return true;
+                drained += read;
+            }
+            return false;
+        } finally {
+            buffers.release(skip);
+        }
+    }
+
+    /**
+     * Find the charset declared in a Content-Type header, such as text/plain; charset="ISO-8859-1"
+     * @param contentType the header, or null
+     * @return the canonical name of the charset, or null if none is declared or it isn't supported
+     */
+    static String charsetOf(String contentType) {
+        if (contentType == null) return null;
+        int start = contentType.toLowerCase(Locale.US).indexOf("charset=");
+        if (start == -1) return null;
+        start += 8;
+        int end = contentType.indexOf(';', start);
+        String charset = contentType.substring(start, end != -1 ? end : contentType.length()).trim();
+        if (charset.length() > 1 && charset.charAt(0) == '"' && charset.charAt(charset.length() - 1) == '"') {
+            charset = charset.substring(1, charset.length() - 1);
+        }
+        try {
+            return Charset.isSupported(charset) ? Charset.forName(charset).name() : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode a text body
+     * @param body the bytes of the body
+     * @param charset the declared charset, or null for UTF-8
+     * @return the text
+     * @throws IOException if the charset isn't supported
+     */
+    static String decodeText(byte[] body, String charset) throws IOException {
+        return new String(body, charset != null ? charset : "UTF-8");
+    }
+}
@@ -0,0 +1,55 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The key the library fills in the status and sizes of responses with
+ *
+ * The setters of {@link RestResponse} need the key, and the only instance is private to this class,
+ * so a callback can't change a response it shares with others
+ */
+public final class Responses {
+
+    /**
+     * The only key
+     */
+    private static final Responses KEY = new Responses();
+
+    private Responses() {
+    }
+
+    /**
+     * Check that a key is the library's
+     * @param key the key given to a setter
+     * @throws SecurityException if it isn't
+     */
+    public static void check(Responses key) {
+        if (key != KEY) throw new SecurityException("Only the library can change a response");
+    }
+
+    /**
+     * Set the status code and headers of a response
+     * @param response the response
+     * @param statusCode the HTTP status code
+     * @param headers the headers as HttpURLConnection gives them, or null
+     */
+    static void status(RestResponse response, int statusCode, Map<String, List<String>> headers) {
+        response.setStatus(KEY, statusCode, headers);
+    }
+
+    /**
+     * Set the transfer sizes of a response
+     * @param response the response
+     * @param requestBodyBytes size of the request body before compression
+     * @param requestBodyWireBytes size of the request body as sent
+     * @param responseBodyWireBytes size of the response body as received
+     * @param responseBodyBytes size of the response body after decompression
+     */
+    static void transferSizes(RestResponse response, long requestBodyBytes, long requestBodyWireBytes,
+                              long responseBodyWireBytes, long responseBodyBytes) {
+        response.setTransferSizes(KEY, requestBodyBytes, requestBodyWireBytes, responseBodyWireBytes, responseBodyBytes);
+    }
+}
@@ -1,31 +1,59 @@
 package com.mcswainsoftware.rest;
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.mcswainsoftware.rest.responses.RestResponse;
+import com.mcswainsoftware.rest.responses.RestResponseBinary;
+import com.mcswainsoftware.rest.responses.RestResponseFile;
 import com.mcswainsoftware.rest.responses.RestResponseJSON;
+import com.mcswainsoftware.rest.responses.RestResponseJSONStream;
 import com.mcswainsoftware.rest.responses.RestResponsePlainText;
+import com.mcswainsoftware.rest.responses.RestResponseStream;
+import com.mcswainsoftware.rest.responses.RestResponseTimeout;
+import com.mcswainsoftware.rest.responses.RestResponseTyped;
 import com.mcswainsoftware.rest.responses.RestResponseXML;
+import com.mcswainsoftware.rest.responses.RestResponseXMLStream;
 
 import org.json.JSONTokener;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.Authenticator;
 import java.net.HttpURLConnection;
-import java.net.PasswordAuthentication;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
 /**
  * The main class for the REST library
@@ -34,74 +62,1302 @@ import javax.xml.parsers.DocumentBuilderFactory;
  */
 public class Rest {
 
+    /**
+     * Batch policy that finishes the batch at the first failed request or error status, requests not started yet are skipped
+     */
+    public static final int BATCH_FAIL_FAST = 0;
+
+    /**
+     * Batch policy that runs every request, failed ones have a null result and those with an error status their error response
+     */
+    public static final int BATCH_COLLECT_ALL = 1;
+
+    /**
+     * The default connect timeout, in milliseconds
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * The default read timeout, in milliseconds
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * The dispatcher that runs every request
+     */
+    private static Dispatcher dispatcher = new Dispatcher();
+
+    /**
+     * The pool that keeps track of idle keep-alive connections
+     */
+    private static ConnectionPool connectionPool = new ConnectionPool();
+
+    /**
+     * The cache for GET responses, or null if responses aren't cached
+     */
+    private static DiskResponseCache responseCache;
+
+    /**
+     * The cache for parsed GET responses, or null if they aren't cached
+     */
+    private static ResponseMemoryCache memoryCache;
+
+    /**
+     * The policy for retrying failed requests, or null if they aren't retried
+     */
+    private static RetryPolicy retryPolicy;
+
+    /**
+     * The breaker that stops requests to failing hosts, or null if there is none
+     */
+    private static CircuitBreaker circuitBreaker;
+
+    /**
+     * The connect timeout for requests that don't set their own, in milliseconds
+     */
+    private static int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    /**
+     * The read timeout for requests that don't set their own, in milliseconds
+     */
+    private static int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    /**
+     * Aborts requests that go past their deadline
+     */
+    private static ScheduledExecutorService watchdog;
+
+    /**
+     * Gets told about each phase of every request
+     */
+    private static EventListener eventListener;
+
+    /**
+     * Runs the callbacks, or null to run them on the main thread
+     */
+    private static Executor callbackExecutor;
+
+    /**
+     * Supplies credentials for requests that don't carry their own
+     */
+    private static CredentialsProvider credentialsProvider;
+
+    /**
+     * Opens the connection of every request
+     */
+    private static Transport transport = new UrlConnectionTransport();
+
+    /**
+     * Resolves host names for transports that connect their own sockets
+     */
+    private static Dns dns = new DnsCache();
+
+    /**
+     * Runs {@link #prewarm(String, int)} in the background
+     */
+    private static ThreadPoolExecutor prewarmExecutor;
+
+    /**
+     * Digits for percent encoding
+     */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The status code of a Range request past the end of the body, missing from HttpURLConnection
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * DOM builders, one per thread parsing XML
+     */
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+
+    /**
+     * Parses buffered JSON bodies, when their content is first asked for
+     */
+    private static final RestResponse.BodyParser JSON_PARSER = new RestResponse.BodyParser() {
+        @Override
+        public Object parse(byte[] body, String charset) throws Exception {
+            return new JSONTokener(ResponseReader.decodeText(body, charset)).nextValue();
+        }
+    };
+
+    /**
+     * Parses buffered XML bodies, when their content is first asked for
+     */
+    private static final RestResponse.BodyParser XML_PARSER = new RestResponse.BodyParser() {
+        @Override
+        public Object parse(byte[] body, String charset) throws Exception {
+            return createXMLDocument(body, charset);
+        }
+    };
+
+    /**
+     * Decodes buffered plain text bodies, when their content is first asked for
+     */
+    private static final RestResponse.BodyParser TEXT_PARSER = new RestResponse.BodyParser() {
+        @Override
+        public Object parse(byte[] body, String charset) throws Exception {
+            return ResponseReader.decodeText(body, charset);
+        }
+    };
+
+    /**
+     * SAX parsers, one per worker thread
+     */
+    private static final ThreadLocal<SAXParser> saxParsers = new ThreadLocal<>();
+
+    /**
+     * Delivers callbacks on the main thread
+     */
+    private static Handler mainHandler;
+
     /**
      * Run a REST request
      * @param request The object containing a REST API request
      * @param receiver The callback for when the REST call is done
+     * @return a handle that can cancel the call
      */
-    public static void executeRequest(RestRequest request, OnRestCompletedReceiver receiver) {
-        RestRequestTask task = new RestRequestTask();
+    public static Call executeRequest(RestRequest request, OnRestCompletedReceiver receiver) {
+        ResponseMemoryCache memoryCache = isCacheable(request)
+                && ResponseMemoryCache.isSharable(request, getCredentialsProvider()) ? getMemoryCache() : null;
+        if (memoryCache != null) {
+            String key = ResponseMemoryCache.keyOf(request);
+            final RestResponse cached = memoryCache.get(key);
+            final ReceiverCall call = new ReceiverCall(request, receiver);
+            if (cached != null) {
+                postCallback(new Runnable() {
+                    @Override
+                    public void run() {
+                        call.onRestCompleted(cached);
+                    }
+                });
+                return call;
+            }
+            if (memoryCache.join(key, call)) return call;
+            receiver = new CoalescingReceiver(memoryCache, key);
+            RestRequestTask task = new RestRequestTask(request, getDispatcher());
+            task.setOnRestCompletedReceiver(receiver);
+            task.enqueue();
+            return call;
+        }
+        RestRequestTask task = new RestRequestTask(request, getDispatcher());
         task.setOnRestCompletedReceiver(receiver);
-        task.execute(request);
+        task.enqueue();
+        return task;
+    }
+
+    /**
+     * Run a group of REST requests in parallel, collecting every result
+     * @param requests the requests
+     * @param receiver the callback for when every request is done, results are in the order of the requests
+     */
+    public static void executeAll(List<RestRequest> requests, OnBatchCompletedReceiver receiver) {
+        executeAll(requests, Math.max(requests.size(), 1), BATCH_COLLECT_ALL, null, receiver);
+    }
+
+    /**
+     * Run a group of REST requests with bounded parallelism
+     *
+     * The total time is close to that of the slowest request instead of the sum of all of them
+     * @param requests the requests
+     * @param maxParallel the limit of requests of this group running at once
+     * @param policy {@link #BATCH_FAIL_FAST} or {@link #BATCH_COLLECT_ALL}
+     * @param itemReceiver the callback for each result as it arrives, may be null
+     * @param receiver the callback for when the batch is done, results are in the order of the requests and null for failed or skipped requests
+     */
+    public static void executeAll(List<RestRequest> requests, int maxParallel, int policy,
+                                  OnBatchItemReceiver itemReceiver, final OnBatchCompletedReceiver receiver) {
+        if (maxParallel < 1) throw new IllegalArgumentException("maxParallel < 1: " + maxParallel);
+        if (requests.isEmpty()) {
+            postCallback(new Runnable() {
+                @Override
+                public void run() {
+                    receiver.onBatchCompleted(new ArrayList<RestResponse>(0));
+                }
+            });
+            return;
+        }
+        new Batch(new ArrayList<>(requests), maxParallel, policy, itemReceiver, receiver).start();
+    }
+
+    /**
+     * Get the dispatcher that runs every request
+     * @return the dispatcher
+     */
+    public static synchronized Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Replace the dispatcher that runs every request, requests already queued stay on the old one
+     * @param dispatcher the new dispatcher
+     */
+    public static synchronized void setDispatcher(Dispatcher dispatcher) {
+        if (dispatcher == null) throw new IllegalArgumentException("dispatcher == null");
+        Rest.dispatcher = dispatcher;
+    }
+
+    /**
+     * Get the pool that counts how connections are handed back
+     *
+     * The default pool leaves the settings of the platform HttpURLConnection socket cache as they are
+     * @return the pool
+     */
+    public static synchronized ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Replace the pool that counts how connections are handed back, the old one is emptied
+     *
+     * The limits of the pool are passed on to the platform HttpURLConnection socket cache
+     * through the http.keepAlive, http.maxConnections and http.keepAliveDuration system properties,
+     * which are process wide, so they also apply to HttpURLConnections the app opens itself
+     * @param connectionPool the new pool
+     */
+    public static synchronized void setConnectionPool(ConnectionPool connectionPool) {
+        if (connectionPool == null) throw new IllegalArgumentException("connectionPool == null");
+        Rest.connectionPool.evictAll();
+        Rest.connectionPool = connectionPool;
+        connectionPool.applyToPlatform();
+    }
+
+    /**
+     * Get the cache for GET responses
+     * @return the cache, or null if responses aren't cached
+     */
+    public static synchronized DiskResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Set the cache for GET responses, only buffered return types (JSON, XML, plain text and binary) are cached
+     * @param responseCache the cache, or null to stop caching
+     */
+    public static synchronized void setResponseCache(DiskResponseCache responseCache) {
+        Rest.responseCache = responseCache;
+    }
+
+    /**
+     * Get the cache for parsed GET responses
+     * @return the cache, or null if they aren't cached
+     */
+    public static synchronized ResponseMemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Set the cache for parsed GET responses, only buffered return types (JSON, XML, plain text and binary) are cached
+     *
+     * While a cache is set, identical requests made while one is running share its response instead of going to the network
+     * Requests that would get their credentials from a {@link CredentialsProvider} always go to the network
+     * @param memoryCache the cache, or null to stop caching
+     */
+    public static synchronized void setMemoryCache(ResponseMemoryCache memoryCache) {
+        Rest.memoryCache = memoryCache;
+    }
+
+    /**
+     * Get the policy for retrying failed requests
+     * @return the policy, or null if they aren't retried
+     */
+    public static synchronized RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the policy for retrying failed requests
+     * @param retryPolicy the policy, or null to stop retrying
+     */
+    public static synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        Rest.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Get the breaker that stops requests to failing hosts
+     * @return the breaker, or null if there is none
+     */
+    public static synchronized CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Set the breaker that stops requests to failing hosts, requests it rejects complete with a null response
+     * @param circuitBreaker the breaker, or null to remove it
+     */
+    public static synchronized void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        Rest.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Get the listener that gets told about each phase of every request
+     * @return the listener, or null if there is none
+     */
+    public static synchronized EventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * Set the listener that gets told about each phase of every request, see {@link LatencyAggregator}
+     *
+     * Requests answered from the memory cache or joined to an identical running request aren't reported
+     * @param eventListener the listener, or null to remove it, requests already queued keep the old one
+     */
+    public static synchronized void setEventListener(EventListener eventListener) {
+        Rest.eventListener = eventListener;
+    }
+
+    /**
+     * Get the connect timeout for requests that don't set their own
+     * @return the timeout in milliseconds, 0 means none
+     */
+    public static synchronized int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Set the connect timeout for requests that don't set their own
+     * @param connectTimeoutMillis the timeout in milliseconds, 0 means none
+     */
+    public static synchronized void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) throw new IllegalArgumentException("connectTimeoutMillis < 0: " + connectTimeoutMillis);
+        Rest.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Get the read timeout for requests that don't set their own
+     * @return the timeout in milliseconds, 0 means none
+     */
+    public static synchronized int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Set the read timeout for requests that don't set their own, the longest the server may go quiet
+     * @param readTimeoutMillis the timeout in milliseconds, 0 means none
+     */
+    public static synchronized void setReadTimeoutMillis(int readTimeoutMillis) {
+        if (readTimeoutMillis < 0) throw new IllegalArgumentException("readTimeoutMillis < 0: " + readTimeoutMillis);
+        Rest.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Get the executor that aborts requests past their deadline
+     * @return the executor
+     */
+    private static synchronized ScheduledExecutorService getWatchdog() {
+        if (watchdog == null) {
+            watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Rest Watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return watchdog;
+    }
+
+    /**
+     * Get the source of credentials for requests that don't carry their own
+     * @return the provider, or null if there is none
+     */
+    public static synchronized CredentialsProvider getCredentialsProvider() {
+        return credentialsProvider;
+    }
+
+    /**
+     * Set the source of credentials for requests that don't carry their own, see {@link BasicCredentialsProvider}
+     * @param credentialsProvider the provider, or null to remove it
+     */
+    public static synchronized void setCredentialsProvider(CredentialsProvider credentialsProvider) {
+        Rest.credentialsProvider = credentialsProvider;
+    }
+
+    /**
+     * Get the transport that opens the connection of every request
+     * @return the transport
+     */
+    public static synchronized Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set the transport that opens the connection of every request
+     *
+     * With a {@link NioTransport} requests with a buffered return type don't hold a worker thread while they wait for the answer,
+     * so a few workers keep the request limits of the dispatcher busy, see {@link Dispatcher#setMaxRequests(int)}
+     * @param transport the transport, or null for the default {@link UrlConnectionTransport}
+     */
+    public static synchronized void setTransport(Transport transport) {
+        Rest.transport = transport != null ? transport : new UrlConnectionTransport();
+    }
+
+    /**
+     * Get the resolver for host names
+     * @return the resolver
+     */
+    public static synchronized Dns getDns() {
+        return dns;
+    }
+
+    /**
+     * Set the resolver for host names, used by {@link NioTransport} and {@link #prewarm(String, int)}
+     *
+     * The platform HttpURLConnection resolves hosts itself, through the platform cache the default {@link DnsCache} also fills
+     * @param dns the resolver, or null to resolve every time with {@link Dns#SYSTEM}
+     */
+    public static synchronized void setDns(Dns dns) {
+        Rest.dns = dns != null ? dns : Dns.SYSTEM;
+    }
+
+    /**
+     * Resolve the host of a URL and open an idle connection to it in the background, see {@link #prewarm(String, int)}
+     * @param baseURL a URL on the server, such as http://api.example.com
+     */
+    public static void prewarm(String baseURL) {
+        prewarm(baseURL, 1);
+    }
+
+    /**
+     * Resolve the host of a URL and open idle connections to it in the background,
+     * such as at startup or when a screen appears, so the first request doesn't wait on a lookup or a connect
+     *
+     * The host always goes into the DNS cache, connections are only opened by a transport that keeps its own sockets,
+     * see {@link NioTransport#prewarm(URL, int)}
+     * Only plain http connections are opened, an https host only gets its DNS warmed, whichever transport is set
+     * Failures are ignored, the first request will try again
+     * @param baseURL a URL on the server, such as http://api.example.com
+     * @param connections the number of idle connections wanted
+     */
+    public static void prewarm(String baseURL, final int connections) {
+        final URL url;
+        try {
+            url = new URL(baseURL);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Malformed URL " + baseURL, e);
+        }
+        getPrewarmExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getDns().lookup(url.getHost());
+                    Transport transport = getTransport();
+                    if (transport instanceof NioTransport) ((NioTransport) transport).prewarm(url, connections);
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the executor that runs {@link #prewarm(String, int)}
+     * @return the executor
+     */
+    private static synchronized ThreadPoolExecutor getPrewarmExecutor() {
+        if (prewarmExecutor == null) {
+            prewarmExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Rest Prewarm");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            prewarmExecutor.allowCoreThreadTimeOut(true);
+        }
+        return prewarmExecutor;
+    }
+
+    /**
+     * Get the executor that runs the callbacks
+     * @return the executor, or null if they run on the main thread
+     */
+    public static synchronized Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Set the executor that runs the callbacks, for code that has no main thread Looper such as tests and benchmarks
+     *
+     * Streaming responses are still handed to the callback on the worker thread
+     * @param callbackExecutor the executor, or null to run them on the main thread
+     */
+    public static synchronized void setCallbackExecutor(Executor callbackExecutor) {
+        Rest.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Run a callback on the callback executor, or on the main thread if there is none
+     * @param callback the callback
+     */
+    private static void postCallback(Runnable callback) {
+        Executor executor = getCallbackExecutor();
+        if (executor != null) executor.execute(callback);
+        else getMainHandler().post(callback);
+    }
+
+    /**
+     * Get the handler that delivers callbacks on the main thread
+     * @return the handler
+     */
+    private static synchronized Handler getMainHandler() {
+        if (mainHandler == null) mainHandler = new Handler(Looper.getMainLooper());
+        return mainHandler;
+    }
+
+    /**
+     * The callback for a rest request
+     */
+    public interface OnRestCompletedReceiver {
+
+        /**
+         * Callback method, must be overridden
+         * @param response an object representing your response, null if no response arrived, see {@link RestResponse#isSuccessful()} for error statuses
+         */
+        void onRestCompleted(RestResponse response);
+    }
+
+    /**
+     * The callback for a batch of requests
+     */
+    public interface OnBatchCompletedReceiver {
+
+        /**
+         * Callback method, must be overridden
+         * @param responses the responses, in the order of the requests
+         */
+        void onBatchCompleted(List<RestResponse> responses);
+    }
+
+    /**
+     * The callback for each request of a batch
+     */
+    public interface OnBatchItemReceiver {
+
+        /**
+         * Callback method, run as soon as a request of the batch is done
+         * @param index the index of the request in the batch
+         * @param response the response, null if the request failed
+         */
+        void onBatchItem(int index, RestResponse response);
+    }
+
+    /**
+     * The callback for the progress of sending a request body
+     */
+    public interface OnUploadProgressReceiver {
+
+        /**
+         * Callback method, run on the worker thread each time part of the body was handed to the connection
+         * @param bytesWritten the number of bytes of the body written so far, before compression
+         * @param contentLength the size of the body, or -1 if it isn't known
+         */
+        void onUploadProgress(long bytesWritten, long contentLength);
+    }
+
+    /**
+     * The callback for each item of a streamed JSON response
+     */
+    public interface OnJsonItemReceiver {
+
+        /**
+         * Callback method, run on the worker thread for every item as soon as it is parsed
+         * @param item a JSONObject, JSONArray, String, Boolean, Number or JSONObject.NULL
+         */
+        void onJsonItem(Object item);
+    }
+
+    /**
+     * The callback for each page of a {@link Paginator}
+     */
+    public interface OnPageReceiver {
+
+        /**
+         * Callback method, run for every page in order while the following pages are already being fetched
+         * @param index the index of the page, from 0
+         * @param page the page, or null once there are no more pages
+         * @return true to carry on, false to stop fetching pages
+         */
+        boolean onPage(int index, RestResponse page);
+    }
+
+    /**
+     * A call answered from the memory cache or shared with an identical running request
+     *
+     * Canceling only drops its own callback, the shared request keeps running for the others,
+     * and the deadline of the shared request is the one that applies
+     */
+    private static class ReceiverCall implements Call, OnRestCompletedReceiver {
+
+        /**
+         * The request
+         */
+        private final RestRequest request;
+
+        /**
+         * The callback
+         */
+        private final OnRestCompletedReceiver receiver;
+
+        /**
+         * Whether the call was canceled
+         */
+        private volatile boolean canceled;
+
+        ReceiverCall(RestRequest request, OnRestCompletedReceiver receiver) {
+            this.request = request;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public RestRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public void onRestCompleted(RestResponse response) {
+            if (!canceled) receiver.onRestCompleted(response);
+        }
+    }
+
+    /**
+     * The callback for a request shared by identical requests, hands the response to all of them
+     */
+    private static class CoalescingReceiver implements OnRestCompletedReceiver {
+
+        /**
+         * The cache holding the waiting callbacks
+         */
+        private final ResponseMemoryCache memoryCache;
+
+        /**
+         * The key of the shared request
+         */
+        private final String key;
+
+        CoalescingReceiver(ResponseMemoryCache memoryCache, String key) {
+            this.memoryCache = memoryCache;
+            this.key = key;
+        }
+
+        @Override
+        public void onRestCompleted(RestResponse response) {
+            List<OnRestCompletedReceiver> waiting = memoryCache.complete(key, response);
+            for (OnRestCompletedReceiver receiver : waiting) {
+                receiver.onRestCompleted(response);
+            }
+        }
     }
 
-    /**
-     * The callback for a rest request
-     */
-    public interface OnRestCompletedReceiver {
+    /**
+     * The background task that preforms the REST transaction
+     */
+    static class RestRequestTask implements Runnable, Call {
+
+        /**
+         * The request to preform
+         */
+        private final RestRequest request;
+
+        /**
+         * The dispatcher running this task
+         */
+        private final Dispatcher dispatcher;
+
+        /**
+         * The host the request goes to, used for the per host limit
+         */
+        private final String host;
+
+        /**
+         * The priority in the dispatcher queue
+         */
+        private final int priority;
+
+        /**
+         * The order the task was enqueued in, among tasks of the same priority
+         */
+        private long sequence;
+
+        /**
+         * Whether the call was canceled
+         */
+        private volatile boolean canceled;
+
+        /**
+         * The open connection, so a cancel from another thread can abort it
+         */
+        private volatile HttpURLConnection connection;
+
+        /**
+         * When the deadline passes, in milliseconds, or 0 if there is none
+         */
+        private final long deadlineAt;
+
+        /**
+         * Whether the deadline passed before the request was done
+         */
+        private volatile boolean timedOut;
+
+        /**
+         * The scheduled deadline abort, or null
+         */
+        private ScheduledFuture<?> deadline;
+
+        /**
+         * Set once a worker thread or the deadline has taken the request, so only one of them handles it
+         */
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        /**
+         * Gets told about each phase of the request
+         */
+        private final EventListener listener;
+
+        /**
+         * Whether the current attempt got past connecting, to tell connect timeouts from read timeouts
+         */
+        private boolean connected;
+
+        /**
+         * When the first byte of the answer to the current attempt arrived, in nanoseconds, or 0 if none did
+         */
+        private long firstByteNanos;
+
+        /**
+         * The credentials that answered a Basic challenge, sent with any later attempt
+         */
+        private Credentials challengeCredentials;
+
+        /**
+         * The callback
+         */
+        private OnRestCompletedReceiver receiver;
+
+        /**
+         * Whether the callback was already run on the worker thread, for streaming responses
+         */
+        private boolean delivered;
+
+        /**
+         * Whether the result was handed to the callback, or to the main thread for it
+         */
+        private boolean answered;
+
+        /**
+         * The retry policy, read when a worker thread starts the request
+         */
+        private RetryPolicy retryPolicy;
+
+        /**
+         * The circuit breaker, read when a worker thread starts the request
+         */
+        private CircuitBreaker breaker;
+
+        /**
+         * The number of attempts made before the current one
+         */
+        private int retries;
+
+        /**
+         * When the current attempt started, in nanoseconds
+         */
+        private long attemptStart;
+
+        /**
+         * The step to run when the task is run again, after waiting for an answer or a retry delay
+         */
+        private volatile Runnable continuation;
+
+        /**
+         * Whether the dispatcher was told the request is done
+         */
+        private boolean finished;
+
+        /**
+         * Returned by an attempt that goes on once its answer arrived, instead of a response
+         */
+        private static final RestResponse PENDING = new RestResponseBinary(new byte[0]);
+
+        /**
+         * Form a task
+         * @param request the Request to preform
+         * @param dispatcher the dispatcher that will run it
+         */
+        RestRequestTask(RestRequest request, Dispatcher dispatcher) {
+            this.request = request;
+            this.dispatcher = dispatcher;
+            this.host = hostOf(request.getBaseURL());
+            this.priority = request.getPriority();
+            this.deadlineAt = request.getDeadlineMillis() > 0 ? System.currentTimeMillis() + request.getDeadlineMillis() : 0;
+            EventListener listener = getEventListener();
+            this.listener = listener != null ? listener : EventListener.NONE;
+        }
+
+        /**
+         * Hand the task to its dispatcher, and schedule the abort of the request at its deadline if it has one
+         */
+        void enqueue() {
+            if (deadlineAt != 0) {
+                deadline = getWatchdog().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDeadline();
+                    }
+                }, deadlineAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            }
+            listener.callQueued(this, System.nanoTime());
+            if (!dispatcher.enqueue(this)) reject();
+        }
+
+        /**
+         * Fail the request right away because the queue of its host is full
+         */
+        private void reject() {
+            if (deadline != null) deadline.cancel(false);
+            if (!started.compareAndSet(false, true)) return;
+            listener.callFailed(this, System.nanoTime(), new IOException("Too many requests waiting for " + host));
+            deliver(null);
+        }
+
+        /**
+         * Abort the request once its deadline passed, a request that hasn't started completes right away
+         */
+        private void onDeadline() {
+            if (canceled) return;
+            timedOut = true;
+            if (dispatcher.cancel(this) || started.compareAndSet(false, true)) {
+                deliver(new RestResponseTimeout(RestResponseTimeout.KIND_DEADLINE));
+                return;
+            }
+            HttpURLConnection conn = connection;
+            if (conn != null) conn.disconnect();
+        }
+
+        /**
+         * Whether the deadline has passed
+         * @return true if it has
+         */
+        private boolean isPastDeadline() {
+            return timedOut || (deadlineAt != 0 && System.currentTimeMillis() >= deadlineAt);
+        }
+
+        /**
+         * Helper for working out a timeout that also fits within the deadline
+         * @param requestTimeout the timeout set on the request, or -1
+         * @param clientTimeout the client default
+         * @return the timeout in milliseconds, 0 means none
+         */
+        private int timeoutFor(int requestTimeout, int clientTimeout) {
+            long timeout = requestTimeout >= 0 ? requestTimeout : clientTimeout;
+            if (deadlineAt != 0) {
+                long remaining = Math.max(1, deadlineAt - System.currentTimeMillis());
+                timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+            }
+            return (int) Math.min(timeout, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public RestRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            if (dispatcher.cancel(this)) {
+                listener.callCanceled(this, System.nanoTime());
+                return;
+            }
+            HttpURLConnection conn = connection;
+            if (conn != null) conn.disconnect();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
 
         /**
-         * Callback method, must be overridden
-         * @param response an object representing your response
+         * Get the priority in the dispatcher queue
+         * @return the priority
          */
-        void onRestCompleted(RestResponse response);
-    }
+        int priority() {
+            return priority;
+        }
 
-    /**
-     * The background task that preforms the REST transaction
-     */
-    private static class RestRequestTask extends AsyncTask<RestRequest, Void, RestResponse> {
+        /**
+         * Get the order the task was enqueued in
+         * @return the sequence number
+         */
+        long sequence() {
+            return sequence;
+        }
 
         /**
-         * The callback
+         * Set the order the task was enqueued in, called by the dispatcher
+         * @param sequence the sequence number
          */
-        private OnRestCompletedReceiver receiver;
+        void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * Get the host the request goes to
+         * @return the host name, or an empty String if the URL can't be parsed
+         */
+        String host() {
+            return host;
+        }
 
         /**
-         * Do the request
-         * @param requests the Request to preform
-         * @return the response from the server
+         * Run the request on a worker thread, then hand the result to the main thread
+         *
+         * Streaming responses are handed to the callback on the worker thread instead
+         * An attempt waiting for the answer of a {@link NioTransport} gives the worker thread back,
+         * the task is run again to go on once the answer arrived, see {@link #resume(Runnable)}
          */
         @Override
-        protected RestResponse doInBackground(RestRequest... requests) {
+        public void run() {
+            Runnable step = continuation;
+            try {
+                if (step != null) {
+                    continuation = null;
+                    step.run();
+                    return;
+                }
+                if (!started.compareAndSet(false, true)) {
+                    dispatcher.finished(this);
+                    return;
+                }
+                listener.callDequeued(this, System.nanoTime());
+                retryPolicy = getRetryPolicy();
+                breaker = getCircuitBreaker();
+                attempt();
+            } catch (RuntimeException e) {
+                crashed(e);
+                throw e;
+            } catch (Error e) {
+                crashed(new RuntimeException(e));
+                throw e;
+            } finally {
+                dispatcher.released(this);
+            }
+        }
+
+        /**
+         * Free the slot of a request a listener or parser threw from, then hand null to the callback if it didn't run yet
+         *
+         * Identical requests sharing this one and the listener are waiting for the result, they would never get it otherwise
+         * @param failure what was thrown
+         */
+        private void crashed(RuntimeException failure) {
+            abandon();
+            if (delivered || answered) return;
+            try {
+                listener.callFailed(this, System.nanoTime(), failure);
+            } catch (RuntimeException ignored) {
+            }
+            deliver(null);
+        }
+
+        /**
+         * Run a step of the request on a worker thread, once what it waited for happened
+         * @param step the step
+         */
+        private void resume(Runnable step) {
+            continuation = step;
+            dispatcher.resume(this);
+        }
+
+        /**
+         * Free the slot of the request, then hand the result to the callback
+         * @param result the response to give the callback
+         */
+        private void complete(RestResponse result) {
+            abandon();
+            if (delivered) return;
+            if (canceled) {
+                listener.callCanceled(this, System.nanoTime());
+                return;
+            }
+            deliver(result);
+        }
+
+        /**
+         * Free the slot of the request once, without running the callback
+         */
+        private void abandon() {
+            if (finished) return;
+            finished = true;
+            if (deadline != null) deadline.cancel(false);
+            dispatcher.finished(this);
+        }
+
+        /**
+         * Hand the result to the main thread, or to the callback right away for streaming responses
+         * @param result the response to give the callback
+         */
+        private void deliver(final RestResponse result) {
+            answered = true;
+            if (request.getDataType() == RestRequest.RETURN_TYPE_STREAM) {
+                onPostExecute(result);
+                return;
+            }
+            postCallback(new Runnable() {
+                @Override
+                public void run() {
+                    onPostExecute(result);
+                }
+            });
+        }
+
+        /**
+         * Start an attempt of the request, checking the circuit breaker and deadline first
+         */
+        private void attempt() {
+            if (canceled) {
+                complete(null);
+                return;
+            }
+            if (isPastDeadline()) {
+                complete(new RestResponseTimeout(RestResponseTimeout.KIND_DEADLINE));
+                return;
+            }
+            if (breaker != null && !breaker.allowRequest(host)) {
+                listener.callFailed(this, System.nanoTime(), new IOException("Circuit breaker open for " + host));
+                complete(null);
+                return;
+            }
+            attemptStart = System.nanoTime();
+            firstByteNanos = 0;
             RestResponse response = null;
-            HttpURLConnection conn = null;
+            Exception failure = null;
+            try {
+                response = proceed(request, sendRequest(request));
+            } catch (Exception e) {
+                failure = e;
+            }
+            if (response != PENDING) attempted(response, failure);
+        }
+
+        /**
+         * Go on with an attempt whose answer arrived, called on a worker thread
+         * @param attempt the attempt
+         */
+        private void answered(Attempt attempt) {
+            RestResponse response = null;
+            Exception failure = null;
             try {
-                final RestRequest req = requests[0];
+                response = proceed(request, attempt);
+            } catch (Exception e) {
+                failure = e;
+            }
+            if (response != PENDING) attempted(response, failure);
+        }
 
-                String baseUrlString = req.getBaseURL() + "?";
-                String urlString = "";
-                for (HashMap.Entry<String, String> param : req.getArguments().entrySet()) {
-                    if (urlString.length() != 0) urlString += '&';
-                    urlString += param.getKey() + '=' + param.getValue();
+        /**
+         * Finish an attempt, completing the request or scheduling a retry as the retry policy, breaker and deadline say
+         * @param response the response, if the attempt succeeded
+         * @param failure why the attempt failed, or null if it succeeded
+         */
+        private void attempted(RestResponse response, Exception failure) {
+            if (failure == null) {
+                if (breaker != null) {
+                    if (canceled) breaker.recordAbandoned(host);
+                    else breaker.recordSuccess(host);
                 }
-                baseUrlString += urlString;
+                if (!canceled && firstByteNanos != 0) dispatcher.onSample(this, firstByteNanos - attemptStart, false);
+                if (timedOut && !delivered) response = new RestResponseTimeout(RestResponseTimeout.KIND_DEADLINE);
+                complete(response);
+                return;
+            }
 
-                URL url = new URL(baseUrlString);
-                conn = (HttpURLConnection) url.openConnection();
-                if (req.getHttpUsername() != null && req.getHttpPassword() != null) {
-                    Authenticator.setDefault(new Authenticator() {
-                        protected PasswordAuthentication getPasswordAuthentication() {
-                            return new PasswordAuthentication(req.getHttpUsername(), req.getHttpPassword().toCharArray());
+            if (canceled) {
+                if (breaker != null) breaker.recordAbandoned(host);
+                complete(null);
+                return;
+            }
+            if (timedOut) {
+                if (breaker != null) breaker.recordAbandoned(host);
+                dispatcher.onSample(this, System.nanoTime() - attemptStart, true);
+                complete(new RestResponseTimeout(RestResponseTimeout.KIND_DEADLINE));
+                return;
+            }
+            boolean retryable = RetryPolicy.isRetryable(failure);
+            if (retryable) dispatcher.onSample(this, System.nanoTime() - attemptStart, true);
+            else if (firstByteNanos != 0) dispatcher.onSample(this, firstByteNanos - attemptStart, false);
+            if (breaker != null) {
+                if (retryable) breaker.recordFailure(host);
+                else if (firstByteNanos != 0) breaker.recordSuccess(host);
+                else breaker.recordAbandoned(host);
+            }
+            long delay = retryPolicy != null && retryable && !delivered
+                    ? retryPolicy.delayBeforeRetry(request, retries, failure) : -1;
+            if (delay < 0) {
+                listener.callFailed(this, System.nanoTime(), failure);
+                if (failure instanceof HttpStatusException && ((HttpStatusException) failure).getResponse() != null) {
+                    complete(((HttpStatusException) failure).getResponse());
+                } else if (failure instanceof SocketTimeoutException) {
+                    complete(new RestResponseTimeout(connected ? RestResponseTimeout.KIND_READ : RestResponseTimeout.KIND_CONNECT));
+                } else {
+                    complete(null);
+                }
+                return;
+            }
+            if (deadlineAt != 0 && System.currentTimeMillis() + delay >= deadlineAt) {
+                listener.callFailed(this, System.nanoTime(), failure);
+                complete(new RestResponseTimeout(RestResponseTimeout.KIND_DEADLINE));
+                return;
+            }
+            retries++;
+            getWatchdog().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    resume(new Runnable() {
+                        @Override
+                        public void run() {
+                            attempt();
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Read the answer of an attempt, sending it again if a Basic challenge was answered
+         * @param req the Request
+         * @param attempt the attempt, sent
+         * @return the response, or {@link #PENDING} if the attempt goes on once its answer arrived
+         * @throws Exception if the request or its parsing failed
+         */
+        private RestResponse proceed(RestRequest req, Attempt attempt) throws Exception {
+            while (true) {
+                if (attempt.conn == null) return attempt.response;
+                if (!awaitAnswer(attempt)) return PENDING;
+                RestResponse response = readResponse(req, attempt);
+                if (!attempt.resend) return response;
+                attempt = sendRequest(req);
+            }
+        }
+
+        /**
+         * Helper for waiting for the answer of an attempt without holding the worker thread, when the transport allows it
+         *
+         * Only buffered return types wait this way, their whole body is read at once
+         * @param attempt the attempt, sent
+         * @return true if the answer can be read now, false if {@link #answered(Attempt)} runs once it arrived
+         */
+        private boolean awaitAnswer(final Attempt attempt) {
+            if (!(attempt.conn instanceof NioHttpConnection) || attempt.download != null || !isBuffered(request)) return true;
+            return ((NioHttpConnection) attempt.conn).awaitResponse(new Runnable() {
+                @Override
+                public void run() {
+                    resume(new Runnable() {
+                        @Override
+                        public void run() {
+                            answered(attempt);
                         }
                     });
                 }
+            });
+        }
+
+        /**
+         * Helper for parsing a successful buffered body here on the worker thread, if the request asked for it
+         *
+         * Otherwise, and for error bodies and empty bodies, it is left to parse the first time its content is asked for
+         * A body that can't be parsed leaves null content and its error in {@link RestResponse#getParseError()}
+         * @param req the Request the response belongs to, see {@link RestRequest#setParseOnWorker(boolean)}
+         * @param response the response, not parsed yet
+         */
+        private void parseContent(RestRequest req, RestResponse response) {
+            if (!req.isParseOnWorker()) return;
+            byte[] body = response.getBody();
+            if (!response.isSuccessful() || body == null || body.length == 0 || response instanceof RestResponseBinary) return;
+            listener.parseStart(this, System.nanoTime());
+            response.getContent();
+            listener.parseEnd(this, System.nanoTime());
+        }
+
+
+        /**
+         * Send one attempt of the request, unless the cache answers it
+         * @param req the Request to preform
+         * @return the attempt, holding the response already if the cache answered
+         * @throws Exception if the request can't be sent
+         */
+        private Attempt sendRequest(final RestRequest req) throws Exception {
+            Attempt attempt = new Attempt();
+            HttpURLConnection conn = null;
+            long requestBodyBytes = 0;
+            long requestBodyWireBytes = 0;
+            boolean sent = false;
+            connected = false;
+            try {
+
+                String baseUrlString = buildUrl(req);
+                URL url = new URL(baseUrlString);
+
+                String authorization = null;
+                boolean hasContentType = false;
+                for (Map.Entry<String, String> header : req.getHeaders().entrySet()) {
+                    if ("Authorization".equalsIgnoreCase(header.getKey())) authorization = header.getValue();
+                    hasContentType |= "Content-Type".equalsIgnoreCase(header.getKey());
+                }
+                boolean hasAuthorization = authorization != null;
+                CredentialsProvider provider = req.getCredentialsProvider() != null
+                        ? req.getCredentialsProvider() : getCredentialsProvider();
+                Credentials credentials = null;
+                if (!hasAuthorization) {
+                    credentials = challengeCredentials != null ? challengeCredentials : req.getCredentials();
+                    if (credentials == null && provider != null) credentials = provider.getCredentials(url, null);
+                    if (credentials != null) authorization = credentials.getBasicAuthorization();
+                }
+
+                DiskResponseCache cache = isCacheable(req) ? getResponseCache() : null;
+                DiskResponseCache.Entry cached = cache != null ? cache.get(baseUrlString, authorization, req.getHeaders()) : null;
+                if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+                    cache.trackHit();
+                    RestResponse response = parse(req, cached.body, ResponseReader.charsetOf(cached.contentType));
+                    Responses.status(response, HttpURLConnection.HTTP_OK, null);
+                    parseContent(req, response);
+                    attempt.response = response;
+                    return attempt;
+                }
 
+                conn = getTransport().open(url);
+                connection = conn;
+                if (canceled || timedOut) throw new IOException("Canceled");
+                conn.setConnectTimeout(timeoutFor(req.getConnectTimeoutMillis(), getConnectTimeoutMillis()));
+                conn.setReadTimeout(timeoutFor(req.getReadTimeoutMillis(), getReadTimeoutMillis()));
 
-                for (int i = 0; i < req.getHeaders().size(); i++) {
-                    String key = (String) req.getHeaders().keySet().toArray()[i];
-                    conn.setRequestProperty(key, req.getHeaders().get(key));
+                for (Map.Entry<String, String> header : req.getHeaders().entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
                 }
+                if (credentials != null) conn.setRequestProperty("Authorization", credentials.getBasicAuthorization());
+                FileDownload download = null;
+                if (req.getDataType() == RestRequest.RETURN_TYPE_FILE) {
+                    download = new FileDownload(req.getDownloadFile());
+                    download.addRangeHeaders(conn);
+                }
+                if (conn.getRequestProperty("Accept-Encoding") == null) {
+                    conn.setRequestProperty("Accept-Encoding", download != null ? "identity" : "gzip, deflate");
+                }
+                if (cached != null) cached.addValidators(conn);
 
                 switch (req.getMethod()) {
                     case RestRequest.METHOD_POST:
@@ -112,40 +1368,218 @@ public class Rest {
                         break;
                 }
 
-                if (req.getMethod() == RestRequest.METHOD_POST) {
+                RequestBody requestBody = req.getMethod() == RestRequest.METHOD_POST ? req.getBody() : null;
+                if (requestBody == null && req.getMethod() == RestRequest.METHOD_POST && req.getPostData() != null) {
+                    requestBody = new RequestBodyBytes(req.getPostData().getBytes("UTF-8"), null);
+                }
+                if (requestBody != null) {
                     conn.setDoOutput(true);
-                    String post = req.getPostData();
-                    OutputStream outputStream = new BufferedOutputStream(conn.getOutputStream());
-                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
-                    writer.write(post);
-                    writer.flush();
-                    writer.close();
-                    outputStream.close();
+                    if (requestBody.getContentType() != null && !hasContentType) {
+                        conn.setRequestProperty("Content-Type", requestBody.getContentType());
+                    }
+                    long length = requestBody.getContentLength();
+                    int threshold = req.getCompressionThreshold();
+                    boolean compress = threshold >= 0 && (length == -1 || length >= threshold);
+                    byte[] compressed = null;
+                    if (compress) {
+                        conn.setRequestProperty("Content-Encoding", "gzip");
+                        if (requestBody instanceof RequestBodyBytes) compressed = gzip(((RequestBodyBytes) requestBody).getBytes());
+                    }
+                    long wireLength = compressed != null ? compressed.length : (compress ? -1 : length);
+                    if (wireLength >= 0 && wireLength <= Integer.MAX_VALUE) conn.setFixedLengthStreamingMode((int) wireLength);
+                    else conn.setChunkedStreamingMode(0);
+
+                    listener.connectStart(this, System.nanoTime());
+                    OutputStream outputStream = conn.getOutputStream();
+                    connected = true;
+                    listener.connectEnd(this, System.nanoTime());
+                    OnUploadProgressReceiver progress = req.getUploadProgressReceiver();
+                    CountingOutputStream wire = new CountingOutputStream(outputStream, null, -1);
+                    try {
+                        if (compressed != null) {
+                            wire.write(compressed);
+                            requestBodyBytes = length;
+                            if (progress != null) progress.onUploadProgress(length, length);
+                        } else if (compress) {
+                            GZIPOutputStream gzip = new GZIPOutputStream(wire, RequestBody.BUFFER_SIZE);
+                            CountingOutputStream plain = new CountingOutputStream(gzip, progress, length);
+                            requestBody.writeTo(plain);
+                            gzip.finish();
+                            requestBodyBytes = plain.getCount();
+                        } else {
+                            CountingOutputStream plain = new CountingOutputStream(wire, progress, length);
+                            requestBody.writeTo(plain);
+                            requestBodyBytes = plain.getCount();
+                        }
+                    } finally {
+                        outputStream.close();
+                    }
+                    requestBodyWireBytes = wire.getCount();
+                    listener.requestBodyEnd(this, System.nanoTime(), requestBodyBytes, requestBodyWireBytes);
+                } else {
+                    listener.connectStart(this, System.nanoTime());
+                    conn.connect();
+                    connected = true;
+                    listener.connectEnd(this, System.nanoTime());
                 }
+                if (canceled || timedOut) throw new IOException("Canceled");
 
-                conn.connect();
+                attempt.url = url;
+                attempt.baseUrlString = baseUrlString;
+                attempt.authorization = authorization;
+                attempt.hasAuthorization = hasAuthorization;
+                attempt.provider = provider;
+                attempt.credentials = credentials;
+                attempt.cache = cache;
+                attempt.cached = cached;
+                attempt.conn = conn;
+                attempt.download = download;
+                attempt.requestBodyBytes = requestBodyBytes;
+                attempt.requestBodyWireBytes = requestBodyWireBytes;
+                sent = true;
+                return attempt;
+            } finally {
+                if (conn != null && !sent) {
+                    connection = null;
+                    conn.disconnect();
+                    getConnectionPool().recordDisconnected();
+                }
+            }
+        }
 
-                Scanner s = new Scanner(conn.getInputStream()).useDelimiter("\\A");
-                String respon = (s.hasNext() ? s.next() : "");
+        /**
+         * Read the answer of an attempt
+         * @param req the Request to preform
+         * @param attempt the attempt, sent
+         * @return the response from the server, or null with {@link Attempt#resend} set if it must be sent again
+         * @throws Exception if the request or its parsing failed
+         */
+        private RestResponse readResponse(final RestRequest req, Attempt attempt) throws Exception {
+            RestResponse response = null;
+            HttpURLConnection conn = attempt.conn;
+            URL url = attempt.url;
+            String baseUrlString = attempt.baseUrlString;
+            String authorization = attempt.authorization;
+            boolean hasAuthorization = attempt.hasAuthorization;
+            CredentialsProvider provider = attempt.provider;
+            Credentials credentials = attempt.credentials;
+            DiskResponseCache cache = attempt.cache;
+            DiskResponseCache.Entry cached = attempt.cached;
+            FileDownload download = attempt.download;
+            long requestBodyBytes = attempt.requestBodyBytes;
+            long requestBodyWireBytes = attempt.requestBodyWireBytes;
+            boolean reusable = false;
+            ConnectionPool pool = getConnectionPool();
+            try {
+                int code = conn.getResponseCode();
+                firstByteNanos = conn instanceof NioHttpConnection ? ((NioHttpConnection) conn).getHeadNanos() : System.nanoTime();
+                listener.responseFirstByte(this, firstByteNanos, code);
+                if (code == HttpURLConnection.HTTP_UNAUTHORIZED && credentials == null && !hasAuthorization && provider != null) {
+                    String realm = basicRealmOf(conn.getHeaderField("WWW-Authenticate"));
+                    Credentials answer = realm != null ? provider.getCredentials(url, realm) : null;
+                    if (answer != null) {
+                        InputStream error = conn.getErrorStream();
+                        boolean drained = true;
+                        if (error != null) {
+                            drained = ResponseReader.drain(error);
+                            error.close();
+                        }
+                        if (drained && !"close".equalsIgnoreCase(conn.getHeaderField("Connection"))) {
+                            reusable = true;
+                            pool.recordReleased();
+                        }
+                        challengeCredentials = answer;
+                        attempt.resend = true;
+                        return null;
+                    }
+                }
+                if (download != null && code == HTTP_RANGE_NOT_SATISFIABLE) {
+                    response = new RestResponseFile(download.rangeNotSatisfiable(conn));
+                    Responses.status(response, HttpURLConnection.HTTP_OK, conn.getHeaderFields());
+                    return response;
+                }
+                if (code >= 400) {
+                    RestResponse error = errorResponse(req, conn, code);
+                    if (error != null && !"close".equalsIgnoreCase(conn.getHeaderField("Connection"))) {
+                        reusable = true;
+                        pool.recordReleased();
+                    }
+                    throw new HttpStatusException(code, retryAfterMillis(conn), error);
+                }
+                String encoding = conn.getContentEncoding();
+                boolean decode = encoding != null && conn.getContentLength() != 0
+                        && code != HttpURLConnection.HTTP_NO_CONTENT && code != HttpURLConnection.HTTP_NOT_MODIFIED;
+                CountingInputStream wire = new CountingInputStream(conn.getInputStream());
+                CountingInputStream in = new CountingInputStream(decode ? decode(wire, encoding) : wire);
+                String contentType = conn.getContentType();
+                if (contentType == null && cached != null) contentType = cached.contentType;
+                String charset = ResponseReader.charsetOf(contentType);
+                byte[] body = null;
+                boolean drained;
+                try {
+                    if (cached != null && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        cache.trackConditionalHit();
+                        body = cached.body;
+                        DiskResponseCache.Entry revalidated = cached.revalidated(conn);
+                        if (revalidated != null) cache.put(revalidated, authorization);
+                        else cache.remove(baseUrlString, authorization);
+                    } else if (req.getDataType() == RestRequest.RETURN_TYPE_STREAM) {
+                        delivered = true;
+                        response = new RestResponseStream(in);
+                        Responses.status(response, code, conn.getHeaderFields());
+                        onPostExecute(response);
+                    } else if (req.getDataType() == RestRequest.RETURN_TYPE_XML_STREAM) {
+                        listener.parseStart(this, System.nanoTime());
+                        parseXMLStream(in, req.getXmlHandler(), charset);
+                        listener.parseEnd(this, System.nanoTime());
+                        response = new RestResponseXMLStream(req.getXmlHandler());
+                    } else if (req.getDataType() == RestRequest.RETURN_TYPE_JSON_STREAM) {
+                        listener.parseStart(this, System.nanoTime());
+                        int items = streamJSON(in, req.getJsonItemPath(), req.getJsonItemReceiver(), charset);
+                        listener.parseEnd(this, System.nanoTime());
+                        response = new RestResponseJSONStream(items);
+                    } else if (req.getDataType() == RestRequest.RETURN_TYPE_TYPED) {
+                        listener.parseStart(this, System.nanoTime());
+                        Object value = decodeTyped(in, req.getResponseCodec(), charset);
+                        listener.parseEnd(this, System.nanoTime());
+                        response = new RestResponseTyped<>(value);
+                    } else if (download != null) {
+                        response = new RestResponseFile(download.receive(conn, code, in, decode));
+                    } else {
+                        body = ResponseReader.readFully(in, decode ? -1 : conn.getContentLength());
+                        if (cache != null) {
+                            cache.trackNetwork();
+                            DiskResponseCache.Entry entry = DiskResponseCache.Entry.fromResponse(baseUrlString, req.getHeaders(), conn, body);
+                            if (entry != null) cache.put(entry, authorization);
+                        }
+                    }
+                    drained = ResponseReader.drain(in) && ResponseReader.drain(wire);
+                    if (!delivered) listener.responseBodyEnd(this, System.nanoTime(), wire.getCount(), in.getCount());
+                } finally {
+                    in.close();
+                }
+                if (drained && !"close".equalsIgnoreCase(conn.getHeaderField("Connection"))) {
+                    reusable = true;
+                    pool.recordReleased();
+                }
 
-                switch (req.getDataType()) {
-                    case RestRequest.RETURN_TYPE_JSON:
-                        Object json = new JSONTokener(respon).nextValue();
-                        response = new RestResponseJSON(json);
-                        break;
-                    case RestRequest.RETURN_TYPE_XML:
-                        Document xmlRoot = createXMLDocument(respon);
-                        response = new RestResponseXML(xmlRoot);
-                        break;
-                    case RestRequest.RETURN_TYPE_PLAIN_TEXT:
-                        response = new RestResponsePlainText(respon);
-                        break;
+                if (canceled) return null;
+                if (body != null) response = parse(req, body, charset);
+                if (response != null) {
+                    Responses.transferSizes(response, requestBodyBytes, requestBodyWireBytes, wire.getCount(), in.getCount());
+                    if (!delivered) {
+                        int status = code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null ? HttpURLConnection.HTTP_OK : code;
+                        Responses.status(response, status, conn.getHeaderFields());
+                    }
+                    if (body != null) parseContent(req, response);
                 }
 
-            } catch (Exception e) {
-                e.printStackTrace();
             } finally {
-                if(conn != null) conn.disconnect();
+                connection = null;
+                if (!reusable) {
+                    conn.disconnect();
+                    pool.recordDisconnected();
+                }
             }
             return response;
         }
@@ -154,33 +1588,454 @@ public class Rest {
          * Call the callback
          * @param result the response to give the callback
          */
-        @Override
-        protected void onPostExecute(RestResponse result) {
+        private void onPostExecute(RestResponse result) {
+            if (canceled) {
+                listener.callCanceled(this, System.nanoTime());
+                return;
+            }
+            listener.callDelivered(this, System.nanoTime(), result);
             receiver.onRestCompleted(result);
         }
 
         public void setOnRestCompletedReceiver(OnRestCompletedReceiver receiver) {
             this.receiver = receiver;
         }
+
+        /**
+         * What an attempt needs between sending the request and reading the answer
+         */
+        private static final class Attempt {
+
+            /**
+             * The response the cache answered with, without sending anything, or null
+             */
+            RestResponse response;
+
+            /**
+             * The URL, including its arguments
+             */
+            URL url;
+
+            /**
+             * The URL as a String, the key in the cache
+             */
+            String baseUrlString;
+
+            /**
+             * The Authorization sent, or null
+             */
+            String authorization;
+
+            /**
+             * Whether the request set its own Authorization header
+             */
+            boolean hasAuthorization;
+
+            /**
+             * The provider asked for credentials, or null
+             */
+            CredentialsProvider provider;
+
+            /**
+             * The credentials sent, or null
+             */
+            Credentials credentials;
+
+            /**
+             * The cache, or null if the request doesn't use it
+             */
+            DiskResponseCache cache;
+
+            /**
+             * The cached entry being revalidated, or null
+             */
+            DiskResponseCache.Entry cached;
+
+            /**
+             * The connection, or null if the cache answered
+             */
+            HttpURLConnection conn;
+
+            /**
+             * The download of a file, or null
+             */
+            FileDownload download;
+
+            /**
+             * Size of the request body before compression, in bytes
+             */
+            long requestBodyBytes;
+
+            /**
+             * Size of the request body as sent, in bytes
+             */
+            long requestBodyWireBytes;
+
+            /**
+             * Whether the request must be sent again, after a Basic challenge was answered
+             */
+            boolean resend;
+        }
+    }
+
+    /**
+     * Helper for building the full URL of a request from its base URL and URL encoded arguments
+     * @param req the Request
+     * @return the URL, the base URL itself if there are no arguments
+     */
+    static String buildUrl(RestRequest req) {
+        HashMap<String, String> arguments = req.getArguments();
+        String baseURL = req.getBaseURL();
+        if (arguments.isEmpty()) return baseURL;
+        StringBuilder url = new StringBuilder(baseURL.length() + arguments.size() * 32);
+        url.append(baseURL);
+        appendArguments(url, arguments, baseURL.indexOf('?') == -1);
+        return url.toString();
+    }
+
+    /**
+     * Helper for appending URL encoded arguments to a URL
+     * @param url the URL so far
+     * @param arguments the arguments
+     * @param first whether the URL has no query yet, so the arguments start with ? instead of &amp;
+     */
+    static void appendArguments(StringBuilder url, Map<String, String> arguments, boolean first) {
+        for (Map.Entry<String, String> argument : arguments.entrySet()) {
+            url.append(first ? '?' : '&');
+            first = false;
+            appendEncoded(url, argument.getKey(), true);
+            url.append('=');
+            if (argument.getValue() != null) appendEncoded(url, argument.getValue(), true);
+        }
+    }
+
+    /**
+     * Helper for percent encoding a value as UTF-8 into a URL
+     *
+     * Only letters, digits and -._~ are left as they are
+     * @param url the URL so far
+     * @param value the value
+     * @param query true to encode a query argument, where spaces become +, false for a path segment
+     */
+    static void appendEncoded(StringBuilder url, String value, boolean query) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~') {
+                url.append(c);
+            } else if (c == ' ' && query) {
+                url.append('+');
+            } else if (c < 0x80) {
+                appendEscaped(url, c);
+            } else if (c < 0x800) {
+                appendEscaped(url, 0xc0 | (c >> 6));
+                appendEscaped(url, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEscaped(url, 0xf0 | (codePoint >> 18));
+                appendEscaped(url, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendEscaped(url, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendEscaped(url, 0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                appendEscaped(url, '?');
+            } else {
+                appendEscaped(url, 0xe0 | (c >> 12));
+                appendEscaped(url, 0x80 | ((c >> 6) & 0x3f));
+                appendEscaped(url, 0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Helper for appending one percent encoded byte
+     * @param url the URL so far
+     * @param b the byte
+     */
+    private static void appendEscaped(StringBuilder url, int b) {
+        url.append('%').append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+    }
+
+    /**
+     * Helper for finding the realm of a Basic challenge
+     * @param challenges the WWW-Authenticate header, or null
+     * @return the realm, an empty String if the challenge has none, or null if there is no Basic challenge
+     */
+    static String basicRealmOf(String challenges) {
+        if (challenges == null) return null;
+        String lower = challenges.toLowerCase(Locale.US);
+        int basic = -1;
+        for (int i = lower.indexOf("basic"); i != -1; i = lower.indexOf("basic", i + 5)) {
+            boolean startsToken = i == 0 || lower.charAt(i - 1) == ' ' || lower.charAt(i - 1) == ',';
+            boolean endsToken = i + 5 == lower.length() || lower.charAt(i + 5) == ' ';
+            if (startsToken && endsToken) {
+                basic = i;
+                break;
+            }
+        }
+        if (basic == -1) return null;
+        int realm = lower.indexOf("realm=", basic + 5);
+        if (realm == -1) return "";
+        int start = realm + 6;
+        if (start < challenges.length() && challenges.charAt(start) == '"') {
+            int end = challenges.indexOf('"', start + 1);
+            return challenges.substring(start + 1, end != -1 ? end : challenges.length());
+        }
+        int end = challenges.indexOf(',', start);
+        return challenges.substring(start, end != -1 ? end : challenges.length()).trim();
+    }
+
+    /**
+     * Helper for turning a buffered body into the response for its return type
+     *
+     * JSON, XML and plain text are not parsed here, the response parses them the first time its content is asked for
+     * The worker asks for it right away on successful responses of requests that parse on the worker, see RestRequestTask#parseContent
+     * @param req the Request the body belongs to
+     * @param body the bytes of the body
+     * @param charset the charset declared in the Content-Type, or null
+     * @return the response, or null if the return type isn't buffered
+     */
+    static RestResponse parse(RestRequest req, byte[] body, String charset) {
+        switch (req.getDataType()) {
+            case RestRequest.RETURN_TYPE_JSON:
+                return new RestResponseJSON(body, charset, JSON_PARSER);
+            case RestRequest.RETURN_TYPE_XML:
+                return new RestResponseXML(body, charset, XML_PARSER);
+            case RestRequest.RETURN_TYPE_PLAIN_TEXT:
+                return new RestResponsePlainText(body, charset, TEXT_PARSER);
+            case RestRequest.RETURN_TYPE_BINARY:
+                return new RestResponseBinary(body);
+        }
+        return null;
+    }
+
+    /**
+     * Helper for reading the body of an error response, so the callback gets it instead of the body being lost
+     *
+     * Buffered return types get a response of their own type, the others the raw body as a {@link RestResponseBinary}
+     * @param req the Request
+     * @param conn the connection, after the response arrived
+     * @param code the status code
+     * @return the response, or null if the body can't be read
+     */
+    private static RestResponse errorResponse(RestRequest req, HttpURLConnection conn, int code) {
+        byte[] body = new byte[0];
+        try {
+            InputStream error = conn.getErrorStream();
+            if (error != null) {
+                String encoding = conn.getContentEncoding();
+                boolean decode = encoding != null && conn.getContentLength() != 0;
+                InputStream in = decode ? decode(error, encoding) : error;
+                try {
+                    body = ResponseReader.readFully(in, decode ? -1 : conn.getContentLength());
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        RestResponse response = parse(req, body, ResponseReader.charsetOf(conn.getContentType()));
+        if (response == null) response = new RestResponseBinary(body);
+        Responses.status(response, code, conn.getHeaderFields());
+        return response;
+    }
+
+    /**
+     * Helper for deciding whether a request may use the response cache
+     * @param req the Request
+     * @return true for GET requests with a buffered return type
+     */
+    private static boolean isCacheable(RestRequest req) {
+        return req.getMethod() == RestRequest.METHOD_GET && isBuffered(req);
+    }
+
+    /**
+     * Helper for deciding whether the whole body of a response is read at once
+     * @param req the Request
+     * @return true for JSON, XML, plain text and binary
+     */
+    private static boolean isBuffered(RestRequest req) {
+        switch (req.getDataType()) {
+            case RestRequest.RETURN_TYPE_JSON:
+            case RestRequest.RETURN_TYPE_XML:
+            case RestRequest.RETURN_TYPE_PLAIN_TEXT:
+            case RestRequest.RETURN_TYPE_BINARY:
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper for reading the Retry-After header, either a number of seconds or a date
+     * @param conn the connection, after the response arrived
+     * @return the delay in milliseconds, or -1 if there is no valid header
+     */
+    private static long retryAfterMillis(HttpURLConnection conn) {
+        String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException ignored) {
+            long date = conn.getHeaderFieldDate("Retry-After", -1);
+            return date == -1 ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Helper for gzip compressing a request body
+     * @param data the uncompressed bytes
+     * @return the compressed bytes
+     * @throws IOException if they can't be compressed
+     */
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper for decompressing a response body as it is read
+     *
+     * Deflate is meant to be zlib wrapped, but some servers send raw deflate, so the first byte decides
+     * @param in the body as received
+     * @param encoding the Content-Encoding of the response
+     * @return the decompressed body
+     * @throws IOException if the encoding isn't supported or the gzip header is malformed
+     */
+    static InputStream decode(InputStream in, String encoding) throws IOException {
+        encoding = encoding.trim();
+        if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+            return new GZIPInputStream(in);
+        }
+        if (encoding.equalsIgnoreCase("deflate")) {
+            BufferedInputStream buffered = new BufferedInputStream(in);
+            buffered.mark(1);
+            int first = buffered.read();
+            buffered.reset();
+            boolean zlib = first != -1 && (first & 0x0f) == 8;
+            return new InflaterInputStream(buffered, new Inflater(!zlib)) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+        if (encoding.equalsIgnoreCase("identity")) return in;
+        throw new IOException("Unsupported Content-Encoding " + encoding);
+    }
+
+    /**
+     * Helper for finding the host of a URL
+     * @param url the URL
+     * @return the host name, or an empty String if the URL can't be parsed
+     */
+    static String hostOf(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host != null ? host : "";
+        } catch (Exception ex) {
+            return "";
+        }
     }
 
     /**
      * Helper for parsing XML to a Document object
-     * @param xml the String containing the XML
+     *
+     * The bytes go to the parser as they are, so it can honour the encoding in the XML declaration
+     * @param xml the bytes containing the XML
+     * @param charset the charset declared in the Content-Type, or null to let the parser find it
      * @return the formed Document
+     * @throws Exception if the XML can't be parsed
      */
-    private static Document createXMLDocument(String xml) {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(false);
-        DocumentBuilder builder = null;
-        try {
+    static Document createXMLDocument(byte[] xml, String charset) throws Exception {
+        DocumentBuilder builder = documentBuilders.get();
+        if (builder == null) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(false);
             builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new ByteArrayInputStream(Charset.forName("UTF-8").encode(xml).array()));
-            return doc;
+            documentBuilders.set(builder);
+        } else {
+            builder.reset();
+        }
+        InputSource source = new InputSource(new ByteArrayInputStream(xml));
+        if (charset != null) source.setEncoding(charset);
+        return builder.parse(source);
+    }
+
+    /**
+     * Helper for streaming XML to a handler, no Document is built
+     * @param xml the stream containing the XML
+     * @param handler the handler given each element
+     * @param charset the charset declared in the Content-Type, or null to let the parser find it
+     * @throws Exception if the XML can't be read or parsed
+     */
+    private static void parseXMLStream(InputStream xml, DefaultHandler handler, String charset) throws Exception {
+        if (handler == null) throw new IllegalStateException("RETURN_TYPE_XML_STREAM requires an XML handler");
+        SAXParser parser = saxParsers.get();
+        if (parser == null) {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            parser = factory.newSAXParser();
+            saxParsers.set(parser);
+        } else {
+            parser.reset();
+        }
+        InputSource source = new InputSource(xml);
+        if (charset != null) source.setEncoding(charset);
+        parser.parse(source, handler);
+    }
+
+    /**
+     * Helper for decoding a body with the request's codec
+     * @param body the stream containing the body
+     * @param codec the codec
+     * @param charset the charset declared in the Content-Type, or null
+     * @return the decoded object
+     * @throws IOException if the body can't be read or decoded
+     */
+    static Object decodeTyped(InputStream body, ResponseCodec<?> codec, String charset) throws IOException {
+        if (codec == null) throw new IllegalStateException("RETURN_TYPE_TYPED requires a response codec");
+        return codec.decode(body, charset);
+    }
+
+    /**
+     * Helper for streaming JSON items to a receiver, only one item is built at a time
+     *
+     * If the value at the path is not an array it is handed to the receiver as the only item
+     * @param json the stream containing the JSON
+     * @param path the object property names leading to the items
+     * @param receiver the receiver given each item
+     * @param charset the charset declared in the Content-Type, or null for UTF-8
+     * @return the number of items handed to the receiver
+     * @throws Exception if the JSON can't be read or parsed
+     */
+    static int streamJSON(InputStream json, String[] path, OnJsonItemReceiver receiver, String charset) throws Exception {
+        if (receiver == null) throw new IllegalStateException("RETURN_TYPE_JSON_STREAM requires a JSON item receiver");
+        JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(json, charset != null ? charset : "UTF-8"));
+        for (String name : path) {
+            if (reader.peek() != JsonStreamReader.TOKEN_BEGIN_OBJECT) return 0;
+            reader.beginObject();
+            while (true) {
+                if (!reader.hasNext()) return 0;
+                if (reader.nextName().equals(name)) break;
+                reader.skipValue();
+            }
         }
-        catch (Exception ex) {
-            ex.printStackTrace();
+        if (reader.peek() != JsonStreamReader.TOKEN_BEGIN_ARRAY) {
+            receiver.onJsonItem(reader.nextValue());
+            return 1;
         }
-        return null;
+        int items = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            receiver.onJsonItem(reader.nextValue());
+            items++;
+        }
+        reader.endArray();
+        return items;
     }
 }
@@ -1,5 +1,8 @@
 package com.mcswainsoftware.rest;
 
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
 import java.util.HashMap;
 
 /**
@@ -8,13 +11,18 @@ import java.util.HashMap;
  * A URL to connect to, and the return data type are required
  * The default HTTP method is GET
  *
- * Basic HTTP authentication is supported
+ * Basic HTTP authentication is supported, the credentials are sent with the request instead of waiting for a challenge
+ * See {@link CredentialsProvider} for credentials shared between requests
  *
- * Arguments are to be appended to the URL in a GET request
+ * Arguments are to be appended to the URL in a GET request, they are URL encoded when the request is made
+ * For requests made over and over, see {@link RequestTemplate}
  *
  * Any headers you'd like to add must be explicitly added by addHeader or passing a HashMap of names and values
  *
  * Post data is a String object that must be formed by the user, this allows for flexibility sending JSON data, URL encoded values, etc.
+ * Large bodies can be streamed from a file or a stream instead, see {@link RequestBody}
+ *
+ * A JSON body can be decoded straight into a model class with {@link #setResponseClass(Class)}, see {@link JsonModel}
  */
 public class RestRequest {
 
@@ -48,6 +56,16 @@ public class RestRequest {
      */
     private String postData;
 
+    /**
+     * The streamed POST body, or null to send the POST data
+     */
+    private RequestBody body;
+
+    /**
+     * Gets the progress of sending the body, or null
+     */
+    private Rest.OnUploadProgressReceiver uploadProgressReceiver;
+
     /**
      * The HTTP username
      */
@@ -58,6 +76,71 @@ public class RestRequest {
      */
     private String httpPassword;
 
+    /**
+     * The credentials formed from the username and password, kept so the header is only encoded once
+     */
+    private Credentials credentials;
+
+    /**
+     * The source of credentials for this request, or null for the client default
+     */
+    private CredentialsProvider credentialsProvider;
+
+    /**
+     * The handler for streamed XML
+     */
+    private DefaultHandler xmlHandler;
+
+    /**
+     * The receiver for streamed JSON items
+     */
+    private Rest.OnJsonItemReceiver jsonItemReceiver;
+
+    /**
+     * The object property names leading to the streamed JSON items
+     */
+    private String[] jsonItemPath = new String[0];
+
+    /**
+     * The file a download is written to
+     */
+    private File downloadFile;
+
+    /**
+     * The codec the body is decoded with
+     */
+    private ResponseCodec<?> responseCodec;
+
+    /**
+     * The POST data size from which it is gzip compressed, or -1 to never compress
+     */
+    private int compressionThreshold = -1;
+
+    /**
+     * The priority in the dispatcher queue
+     */
+    private int priority = PRIORITY_NORMAL;
+
+    /**
+     * The connect timeout in milliseconds, or -1 for the client default
+     */
+    private int connectTimeoutMillis = -1;
+
+    /**
+     * The read timeout in milliseconds, or -1 for the client default
+     */
+    private int readTimeoutMillis = -1;
+
+    /**
+     * The time the whole request may take in milliseconds, or 0 for no deadline
+     */
+    private long deadlineMillis;
+
+    /**
+     * Whether a successful buffered body is parsed on the worker thread instead of when its content is first asked for
+     */
+    private boolean parseOnWorker;
+
     /**
      * JSON data type
      */
@@ -73,6 +156,61 @@ public class RestRequest {
      */
     public static final int RETURN_TYPE_PLAIN_TEXT = 2;
 
+    /**
+     * Binary data type, the body is returned as bytes
+     */
+    public static final int RETURN_TYPE_BINARY = 3;
+
+    /**
+     * Streaming data type, the callback gets the live InputStream of the body
+     *
+     * The callback is run on the worker thread instead of the main thread, and the stream is closed when it returns
+     */
+    public static final int RETURN_TYPE_STREAM = 4;
+
+    /**
+     * Streamed XML data type, the body is parsed as it arrives and each element is handed to the XML handler
+     *
+     * The handler is run on the worker thread, no Document is built
+     */
+    public static final int RETURN_TYPE_XML_STREAM = 5;
+
+    /**
+     * Streamed JSON data type, each element of the array at the JSON item path is parsed and handed to the item receiver as it arrives
+     *
+     * The receiver is run on the worker thread, the array itself is never built
+     */
+    public static final int RETURN_TYPE_JSON_STREAM = 6;
+
+    /**
+     * File data type, the body is written straight to the download file and the callback gets the finished file
+     *
+     * An interrupted download is resumed with a Range request the next time the same file is requested
+     */
+    public static final int RETURN_TYPE_FILE = 7;
+
+    /**
+     * Typed data type, the body is decoded straight into an object by the response codec
+     *
+     * The codec reads the body as it arrives on the worker thread, no JSONObject or Document is built
+     */
+    public static final int RETURN_TYPE_TYPED = 8;
+
+    /**
+     * Priority for background work such as prefetching, runs after everything else queued
+     */
+    public static final int PRIORITY_LOW = 0;
+
+    /**
+     * The default priority
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Priority for requests the user is waiting on, runs before everything else queued
+     */
+    public static final int PRIORITY_HIGH = 2;
+
     /**
      * POST HTTP method
      */
@@ -264,6 +402,7 @@ public class RestRequest {
      */
     public void setHttpUsername(String httpUsername) {
         this.httpUsername = httpUsername;
+        this.credentials = null;
     }
 
     /**
@@ -280,6 +419,33 @@ public class RestRequest {
      */
     public void setHttpPassword(String httpPassword) {
         this.httpPassword = httpPassword;
+        this.credentials = null;
+    }
+
+    /**
+     * Get the credentials formed from the HTTP auth username and password
+     * @return the credentials, or null if either is missing
+     */
+    synchronized Credentials getCredentials() {
+        if (httpUsername == null || httpPassword == null) return null;
+        if (credentials == null) credentials = new Credentials(httpUsername, httpPassword);
+        return credentials;
+    }
+
+    /**
+     * Get the source of credentials for this request
+     * @return the provider, or null to use {@link Rest#getCredentialsProvider()}
+     */
+    public CredentialsProvider getCredentialsProvider() {
+        return credentialsProvider;
+    }
+
+    /**
+     * Set the source of credentials for this request, used when no username and password are set
+     * @param credentialsProvider the provider, or null to use {@link Rest#getCredentialsProvider()}
+     */
+    public void setCredentialsProvider(CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
     }
 
     /**
@@ -298,6 +464,205 @@ public class RestRequest {
         this.dataType = dataType;
     }
 
+    /**
+     * Get the handler for streamed XML
+     * @return the handler
+     */
+    public DefaultHandler getXmlHandler() {
+        return xmlHandler;
+    }
+
+    /**
+     * Set the handler for streamed XML, required for {@link #RETURN_TYPE_XML_STREAM}
+     * @param xmlHandler the handler
+     */
+    public void setXmlHandler(DefaultHandler xmlHandler) {
+        this.xmlHandler = xmlHandler;
+    }
+
+    /**
+     * Get the receiver for streamed JSON items
+     * @return the receiver
+     */
+    public Rest.OnJsonItemReceiver getJsonItemReceiver() {
+        return jsonItemReceiver;
+    }
+
+    /**
+     * Set the receiver for streamed JSON items, required for {@link #RETURN_TYPE_JSON_STREAM}
+     * @param jsonItemReceiver the receiver
+     */
+    public void setJsonItemReceiver(Rest.OnJsonItemReceiver jsonItemReceiver) {
+        this.jsonItemReceiver = jsonItemReceiver;
+    }
+
+    /**
+     * Get the object property names leading to the streamed JSON items
+     * @return the names, empty if the items are the top level array
+     */
+    public String[] getJsonItemPath() {
+        return jsonItemPath;
+    }
+
+    /**
+     * Set the object property names leading to the streamed JSON items
+     *
+     * For {"data": {"items": [...]}} the path is "data", "items", leave it empty if the body is the array
+     * @param jsonItemPath the names
+     */
+    public void setJsonItemPath(String... jsonItemPath) {
+        this.jsonItemPath = jsonItemPath != null ? jsonItemPath : new String[0];
+    }
+
+    /**
+     * Get the file a download is written to
+     * @return the file, or null
+     */
+    public File getDownloadFile() {
+        return downloadFile;
+    }
+
+    /**
+     * Set the file a download is written to, for {@link #RETURN_TYPE_FILE}
+     *
+     * While the download runs the body goes to a .part file next to it, with the validators of the download in a .part.meta file
+     * @param downloadFile the file, replaced once the download is complete
+     */
+    public void setDownloadFile(File downloadFile) {
+        this.downloadFile = downloadFile;
+    }
+
+    /**
+     * Get the codec the body is decoded with
+     * @return the codec, or null
+     */
+    public ResponseCodec<?> getResponseCodec() {
+        return responseCodec;
+    }
+
+    /**
+     * Set the codec the body is decoded with, required for {@link #RETURN_TYPE_TYPED}
+     * @param responseCodec the codec
+     */
+    public void setResponseCodec(ResponseCodec<?> responseCodec) {
+        this.responseCodec = responseCodec;
+    }
+
+    /**
+     * Decode the JSON body into a class, using the binder generated for it
+     *
+     * Sets the return data type to {@link #RETURN_TYPE_TYPED} and the codec to {@link JsonBinders#codecFor(Class)}
+     * @param type a class annotated with {@link JsonModel}
+     * @throws IllegalArgumentException if no binder was generated for the class
+     */
+    public void setResponseClass(Class<?> type) {
+        this.responseCodec = JsonBinders.codecFor(type);
+        this.dataType = RETURN_TYPE_TYPED;
+    }
+
+    /**
+     * Get the POST data size from which it is gzip compressed
+     * @return the size in bytes, or -1 if it is never compressed
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Gzip compress the POST data once it is at least this big, the server must accept Content-Encoding: gzip
+     *
+     * A body of unknown length is always compressed when this is set, and streamed bodies are compressed as they are sent
+     * @param compressionThreshold the size in bytes, or -1 to never compress
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Get the priority in the dispatcher queue
+     * @return the priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the priority in the dispatcher queue, queued requests with a higher priority are started first
+     * @param priority {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL}, {@link #PRIORITY_HIGH} or any other int
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Get the connect timeout
+     * @return the timeout in milliseconds, or -1 for the client default
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Set the connect timeout, overriding {@link Rest#setConnectTimeoutMillis(int)}
+     * @param connectTimeoutMillis the timeout in milliseconds, or -1 for the client default
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Get the read timeout
+     * @return the timeout in milliseconds, or -1 for the client default
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Set the read timeout, the longest the server may go quiet, overriding {@link Rest#setReadTimeoutMillis(int)}
+     * @param readTimeoutMillis the timeout in milliseconds, or -1 for the client default
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Get the time the whole request may take
+     * @return the deadline in milliseconds, or 0 for none
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Set the time the whole request may take, from executeRequest until the response is parsed
+     *
+     * This covers waiting in the queue, connecting, uploading, downloading, parsing and any retries
+     * A request past its deadline is aborted and completes with a {@link com.mcswainsoftware.rest.responses.RestResponseTimeout}
+     * @param deadlineMillis the deadline in milliseconds, or 0 for none
+     */
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Get whether a successful buffered body is parsed on the worker thread
+     * @return true if it is parsed before the callback runs
+     */
+    public boolean isParseOnWorker() {
+        return parseOnWorker;
+    }
+
+    /**
+     * Parse a successful JSON, XML or plain text body on the worker thread, so the callback doesn't pay for it
+     *
+     * By default the body is only parsed the first time its content is asked for, so a callback that only checks the status skips it
+     * @param parseOnWorker true to parse it before the callback runs
+     */
+    public void setParseOnWorker(boolean parseOnWorker) {
+        this.parseOnWorker = parseOnWorker;
+    }
+
     /**
      * Get the base URL
      * @return the URL
@@ -380,4 +745,61 @@ public class RestRequest {
         this.postData = postData;
     }
 
+    /**
+     * Get the streamed POST body
+     * @return the body, or null if the POST data is sent
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * Set the streamed POST body, sent instead of the POST data
+     * @param body the body, or null to send the POST data
+     */
+    public void setBody(RequestBody body) {
+        this.body = body;
+    }
+
+    /**
+     * Get the receiver of the progress of sending the body
+     * @return the receiver, or null
+     */
+    public Rest.OnUploadProgressReceiver getUploadProgressReceiver() {
+        return uploadProgressReceiver;
+    }
+
+    /**
+     * Set the receiver of the progress of sending the body, it is called on the worker thread
+     * @param uploadProgressReceiver the receiver, or null
+     */
+    public void setUploadProgressReceiver(Rest.OnUploadProgressReceiver uploadProgressReceiver) {
+        this.uploadProgressReceiver = uploadProgressReceiver;
+    }
+
+    /**
+     * Form a copy of the request, such as the request for the next page of a paged API
+     *
+     * The copy has its own arguments and headers, the body, handlers and receivers are shared
+     * @return the copy
+     */
+    public RestRequest copy() {
+        RestRequest copy = new RestRequest(baseURL, dataType, method, new HashMap<>(arguments), new HashMap<>(headers), httpUsername, httpPassword);
+        copy.postData = postData;
+        copy.body = body;
+        copy.uploadProgressReceiver = uploadProgressReceiver;
+        copy.credentialsProvider = credentialsProvider;
+        copy.xmlHandler = xmlHandler;
+        copy.jsonItemReceiver = jsonItemReceiver;
+        copy.jsonItemPath = jsonItemPath;
+        copy.downloadFile = downloadFile;
+        copy.responseCodec = responseCodec;
+        copy.compressionThreshold = compressionThreshold;
+        copy.priority = priority;
+        copy.connectTimeoutMillis = connectTimeoutMillis;
+        copy.readTimeoutMillis = readTimeoutMillis;
+        copy.deadlineMillis = deadlineMillis;
+        copy.parseOnWorker = parseOnWorker;
+        return copy;
+    }
 }
@@ -0,0 +1,165 @@
+package com.mcswainsoftware.rest;
+
+import java.io.EOFException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed request is tried again
+ *
+ * Only transient failures are retried: timeouts, refused or reset connections, unknown hosts, connections closed early,
+ * and the status codes 408, 429, 500, 502, 503 and 504
+ * Other errors such as a malformed URL, a 404, an unsupported encoding or a body that can't be decoded are not
+ * Only GET requests are retried unless non-idempotent retries are allowed
+ * The delay doubles with every attempt up to a cap, and a random part of it is dropped (full jitter)
+ * so clients that failed together don't retry together
+ * A Retry-After header from the server is honored as long as it is within the cap
+ */
+public class RetryPolicy {
+
+    /**
+     * The default number of retries after the first attempt
+     */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /**
+     * The default delay before the first retry, in milliseconds
+     */
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 250;
+
+    /**
+     * The default cap of the delay, in milliseconds
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    /**
+     * The number of retries after the first attempt
+     */
+    private final int maxRetries;
+
+    /**
+     * The delay before the first retry, in milliseconds
+     */
+    private final long baseDelayMillis;
+
+    /**
+     * The cap of the delay, in milliseconds
+     */
+    private final long maxDelayMillis;
+
+    /**
+     * Whether POST requests are retried too
+     */
+    private final boolean retryNonIdempotent;
+
+    /**
+     * Source of the jitter
+     */
+    private final Random random = new Random();
+
+    /**
+     * Form a RetryPolicy with the default limits, retrying only GET requests
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, false);
+    }
+
+    /**
+     * Form a RetryPolicy
+     * @param maxRetries the number of retries after the first attempt
+     * @param baseDelayMillis the delay before the first retry, in milliseconds
+     * @param maxDelayMillis the cap of the delay, in milliseconds
+     * @param retryNonIdempotent whether POST requests are retried too
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, boolean retryNonIdempotent) {
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0: " + maxRetries);
+        if (baseDelayMillis < 0) throw new IllegalArgumentException("baseDelayMillis < 0: " + baseDelayMillis);
+        if (maxDelayMillis < baseDelayMillis) throw new IllegalArgumentException("maxDelayMillis < baseDelayMillis");
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    /**
+     * Work out the delay before the next attempt
+     * @param request the request that failed
+     * @param attempt the number of the attempt that failed, starting at 0
+     * @param failure why it failed
+     * @return the delay in milliseconds, or -1 if it must not be retried
+     */
+    long delayBeforeRetry(RestRequest request, int attempt, Exception failure) {
+        if (attempt >= maxRetries) return -1;
+        if (request.getMethod() != RestRequest.METHOD_GET && !retryNonIdempotent) return -1;
+        if (!isRetryable(failure)) return -1;
+
+        long retryAfter = failure instanceof HttpStatusException
+                ? ((HttpStatusException) failure).getRetryAfterMillis() : -1;
+        if (retryAfter > maxDelayMillis) return -1;
+        if (retryAfter >= 0) return retryAfter;
+
+        long backoff = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        synchronized (random) {
+            return (long) (random.nextDouble() * backoff);
+        }
+    }
+
+    /**
+     * Whether a failure is worth retrying
+     *
+     * SocketException covers refused connections (ConnectException), unreachable hosts (NoRouteToHostException)
+     * and connections reset or broken mid request
+     * @param failure why the request failed
+     * @return true for timeouts, network failures and transient status codes
+     */
+    static boolean isRetryable(Exception failure) {
+        if (failure instanceof HttpStatusException) return isTransient(((HttpStatusException) failure).getCode());
+        return failure instanceof InterruptedIOException
+                || failure instanceof SocketException
+                || failure instanceof UnknownHostException
+                || failure instanceof EOFException;
+    }
+
+    /**
+     * Whether a status code means the server may succeed if asked again
+     * @param code the status code
+     * @return true for 408, 429, 500, 502, 503 and 504
+     */
+    static boolean isTransient(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Get the number of retries after the first attempt
+     * @return the number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Get the delay before the first retry
+     * @return the delay in milliseconds
+     */
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /**
+     * Get the cap of the delay
+     * @return the cap in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Whether POST requests are retried too
+     * @return true if they are
+     */
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+}
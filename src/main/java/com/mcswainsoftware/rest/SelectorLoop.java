@@ -0,0 +1,222 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * One selector thread of a {@link NioTransport}, driving the sockets of many exchanges at once
+ *
+ * Exchanges and connections are only touched on this thread, other threads hand work over with {@link #execute(Runnable)}
+ * An error handling one socket only fails the exchange of that socket
+ * If the loop itself fails, its exchanges fail with the cause and the transport starts a new loop for the next sockets
+ */
+final class SelectorLoop implements Runnable {
+
+    /**
+     * How often timeouts are checked, in milliseconds
+     */
+    private static final long TICK_MILLIS = 100;
+
+    /**
+     * The size of the buffer sockets are read into
+     */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The selector
+     */
+    private final Selector selector;
+
+    /**
+     * The thread running this loop
+     */
+    private final Thread thread;
+
+    /**
+     * Work handed over from other threads
+     */
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    /**
+     * Exchanges in flight, checked for timeouts
+     */
+    private final HashSet<NioExchange> active = new HashSet<>();
+
+    /**
+     * The buffer every socket of this loop is read into
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Whether the loop was shut down
+     */
+    private volatile boolean closed;
+
+    /**
+     * Form and start a SelectorLoop
+     * @param name the name of its thread
+     * @throws IOException if the selector can't be opened
+     */
+    SelectorLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the selector, only used on the loop thread
+     * @return the selector
+     */
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * Run some work on the loop thread
+     * @param task the work
+     * @return false if the loop was shut down and the work won't run
+     */
+    boolean execute(Runnable task) {
+        synchronized (tasks) {
+            if (closed) return false;
+            tasks.add(task);
+        }
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Whether the loop was shut down
+     * @return true if it was
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Whether the caller is running on the loop thread
+     * @return true if it is
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Start checking an exchange for timeouts
+     * @param exchange the exchange
+     */
+    void add(NioExchange exchange) {
+        active.add(exchange);
+    }
+
+    /**
+     * Stop checking an exchange for timeouts
+     * @param exchange the exchange
+     */
+    void remove(NioExchange exchange) {
+        active.remove(exchange);
+    }
+
+    /**
+     * Get the number of exchanges in flight on this loop
+     * @return the count
+     */
+    int activeCount() {
+        return active.size();
+    }
+
+    /**
+     * Shut the loop down, failing the exchanges in flight and closing every socket
+     */
+    void close() {
+        synchronized (tasks) {
+            closed = true;
+        }
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long nextTimeoutCheck = 0;
+        IOException stopped = null;
+        try {
+            while (!closed) {
+                selector.select(TICK_MILLIS);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Object attachment = key.attachment();
+                    if (key.isValid() && attachment instanceof NioExchange) ready((NioExchange) attachment, key);
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextTimeoutCheck) {
+                    for (NioExchange exchange : active.toArray(new NioExchange[active.size()])) exchange.checkTimeout(now);
+                    nextTimeoutCheck = now + TICK_MILLIS;
+                }
+            }
+        } catch (IOException e) {
+            stopped = e;
+        } catch (RuntimeException e) {
+            stopped = new IOException("Selector loop failed", e);
+        } finally {
+            synchronized (tasks) {
+                closed = true;
+                tasks.clear();
+            }
+            IOException shutdown = stopped != null ? stopped : new IOException("Transport closed");
+            for (NioExchange exchange : active.toArray(new NioExchange[active.size()])) exchange.fail(shutdown);
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Helper for running the work handed over from other threads
+     */
+    private void runTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (tasks) {
+                task = tasks.poll();
+            }
+            if (task == null) return;
+            task.run();
+        }
+    }
+
+    /**
+     * Helper for handing a ready socket to its exchange
+     * @param exchange the exchange
+     * @param key the key of the socket
+     */
+    private void ready(NioExchange exchange, SelectionKey key) {
+        try {
+            if (key.isConnectable()) exchange.onConnectable();
+            else if (key.isWritable()) exchange.onWritable();
+            else if (key.isReadable()) exchange.onReadable(readBuffer);
+        } catch (IOException e) {
+            exchange.fail(e);
+        } catch (CancelledKeyException e) {
+            exchange.fail(NioExchange.connectionClosed(e));
+        } catch (RuntimeException e) {
+            exchange.fail(new IOException("Failed handling the socket", e));
+        }
+    }
+}
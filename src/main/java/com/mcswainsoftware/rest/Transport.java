@@ -0,0 +1,23 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections every request is sent over
+ *
+ * Rest configures the connection, writes the request body and reads the response through the HttpURLConnection API,
+ * so retries, authentication, caching and downloads work the same over every transport
+ * See {@link UrlConnectionTransport}, the default, and {@link NioTransport}
+ */
+public interface Transport {
+
+    /**
+     * Open a connection, not connected yet
+     * @param url the URL of the request, including its arguments
+     * @return the connection
+     * @throws IOException if the connection can't be opened
+     */
+    HttpURLConnection open(URL url) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.mcswainsoftware.rest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The default transport, using the platform HttpURLConnection
+ *
+ * Every request in flight blocks a worker thread, keep-alive sockets are kept by the platform,
+ * see {@link Rest#setConnectionPool(ConnectionPool)} for how their limits are set
+ */
+public class UrlConnectionTransport implements Transport {
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+}
@@ -1,7 +1,18 @@
 package com.mcswainsoftware.rest.responses;
 
+import com.mcswainsoftware.rest.Responses;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * An abstract implementation of a response from a rest request
+ *
+ * Besides the content, a response carries the status code, the headers and for buffered return types the raw body
+ * JSON, XML and plain text bodies are only parsed the first time getContent() is called, the result is then kept
+ * A request can ask for its successful body to be parsed on the worker thread instead, see RestRequest#setParseOnWorker(boolean)
  */
 public abstract class RestResponse {
 
@@ -30,6 +41,86 @@ public abstract class RestResponse {
      */
     public static final int TYPE_PLAIN_TEXT = 2;
 
+    /**
+     * Binary data type
+     */
+    public static final int TYPE_BINARY = 3;
+
+    /**
+     * Streaming data type
+     */
+    public static final int TYPE_STREAM = 4;
+
+    /**
+     * Streamed XML data type
+     */
+    public static final int TYPE_XML_STREAM = 5;
+
+    /**
+     * Streamed JSON data type
+     */
+    public static final int TYPE_JSON_STREAM = 6;
+
+    /**
+     * Timeout result type, the request ran out of time
+     */
+    public static final int TYPE_TIMEOUT = 7;
+
+    /**
+     * File data type, the body was downloaded to a file
+     */
+    public static final int TYPE_FILE = 8;
+
+    /**
+     * Typed data type, the body was decoded into an object by the request's codec
+     */
+    public static final int TYPE_TYPED = 9;
+
+    /**
+     * The HTTP status code, or 0 if no response arrived
+     */
+    private int statusCode;
+
+    /**
+     * The response headers by name, ignoring case
+     */
+    private Map<String, List<String>> headers = Collections.emptyMap();
+
+    /**
+     * The raw body, or null if it wasn't buffered
+     */
+    private byte[] body;
+
+    /**
+     * The charset declared for the body, or null
+     */
+    private String charset;
+
+    /**
+     * Size of the request body before compression, in bytes
+     */
+    private long requestBodyBytes;
+
+    /**
+     * Size of the request body as sent, in bytes
+     */
+    private long requestBodyWireBytes;
+
+    /**
+     * Size of the response body as received, in bytes
+     */
+    private long responseBodyWireBytes;
+
+    /**
+     * Size of the response body after decompression, in bytes
+     */
+    private long responseBodyBytes;
+
+    /**
+     * Why the body couldn't be parsed, or null
+     */
+    private Exception parseError;
+
     /**
      * Get the response's content
      * @return an Object representing your content
@@ -42,4 +133,181 @@ public abstract class RestResponse {
      */
     public abstract int getType();
 
+    /**
+     * Set the status code and headers, called by the library once the response arrived
+     * @param key the key only the library holds
+     * @param statusCode the HTTP status code
+     * @param headers the headers as HttpURLConnection gives them, the status line under the null name is left out
+     * @throws SecurityException if the key isn't the library's
+     */
+    public final void setStatus(Responses key, int statusCode, Map<String, List<String>> headers) {
+        Responses.check(key);
+        this.statusCode = statusCode;
+        if (headers == null || headers.isEmpty()) {
+            this.headers = Collections.emptyMap();
+            return;
+        }
+        TreeMap<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() != null) copy.put(header.getKey(), header.getValue());
+        }
+        this.headers = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Get the HTTP status code
+     *
+     * A body served from a cache, revalidated with 304 or completing an earlier download reports 200
+     * @return the status code, or 0 if no response arrived
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Whether the status code is 2xx
+     * @return true if the request succeeded
+     */
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Get the response headers
+     * @return the values of each header by name, ignoring case, empty for a body served from a cache without contacting the server
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get a response header
+     * @param name the name, ignoring case
+     * @return the last value of the header, or null if there is none
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    /**
+     * Get the raw response body
+     * @return the body, not copied, or null for return types that don't buffer it
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Set the raw response body
+     * @param body the body
+     */
+    protected void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    /**
+     * Get the charset the body is decoded with
+     * @return the charset declared in the Content-Type, or null if none was declared and the parser's default is used
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * Set the charset the body is decoded with
+     * @param charset the charset declared in the Content-Type, or null
+     */
+    protected void setCharset(String charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Helper for parsing the body the first time the content is asked for
+     * @param parser the parser
+     * @return the parsed content, or null if the body can't be parsed, see {@link #getParseError()}
+     */
+    protected Object parseBody(BodyParser parser) {
+        try {
+            return parser.parse(body, charset);
+        } catch (Exception e) {
+            parseError = e;
+            return null;
+        }
+    }
+
+    /**
+     * Get why the body couldn't be parsed
+     *
+     * The content is null when parsing failed, this tells that apart from a body that parsed to nothing
+     * @return the error thrown by the parser, or null if the body parsed or wasn't parsed yet
+     */
+    public Exception getParseError() {
+        return parseError;
+    }
+
+    /**
+     * Set the transfer sizes, called by the library once the exchange is done
+     * @param key the key only the library holds
+     * @param requestBodyBytes size of the request body before compression
+     * @param requestBodyWireBytes size of the request body as sent
+     * @param responseBodyWireBytes size of the response body as received
+     * @param responseBodyBytes size of the response body after decompression
+     * @throws SecurityException if the key isn't the library's
+     */
+    public final void setTransferSizes(Responses key, long requestBodyBytes, long requestBodyWireBytes,
+                                       long responseBodyWireBytes, long responseBodyBytes) {
+        Responses.check(key);
+        this.requestBodyBytes = requestBodyBytes;
+        this.requestBodyWireBytes = requestBodyWireBytes;
+        this.responseBodyWireBytes = responseBodyWireBytes;
+        this.responseBodyBytes = responseBodyBytes;
+    }
+
+    /**
+     * Get the size of the request body before compression
+     * @return the size in bytes
+     */
+    public long getRequestBodyBytes() {
+        return requestBodyBytes;
+    }
+
+    /**
+     * Get the size of the request body as sent
+     * @return the size in bytes
+     */
+    public long getRequestBodyWireBytes() {
+        return requestBodyWireBytes;
+    }
+
+    /**
+     * Get the size of the response body as received, 0 if it was served from a cache
+     * @return the size in bytes
+     */
+    public long getResponseBodyWireBytes() {
+        return responseBodyWireBytes;
+    }
+
+    /**
+     * Get the size of the response body after decompression
+     * @return the size in bytes
+     */
+    public long getResponseBodyBytes() {
+        return responseBodyBytes;
+    }
+
+    /**
+     * Parses a buffered body, run the first time the content of a response is asked for
+     */
+    public interface BodyParser {
+
+        /**
+         * Parse a body
+         * @param body the raw body
+         * @param charset the charset declared in the Content-Type, or null
+         * @return the content
+         * @throws Exception if the body can't be parsed
+         */
+        Object parse(byte[] body, String charset) throws Exception;
+    }
 }
@@ -0,0 +1,54 @@
+package com.mcswainsoftware.rest.responses;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A binary response from a Rest request
+ */
+public class RestResponseBinary extends RestResponse {
+
+    /**
+     * The data container holding the response
+     */
+    private byte[] content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_BINARY;
+
+    /**
+     * Create a binary response
+     * @param content the bytes of the response body
+     */
+    public RestResponseBinary(byte[] content) {
+        this.content = content;
+        setBody(content);
+    }
+
+    /**
+     * Get the response's bytes
+     * @return the response body, not copied
+     */
+    @Override
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Get the response's bytes as a ByteBuffer
+     * @return a read only ByteBuffer wrapping the response body, not copied
+     */
+    public ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
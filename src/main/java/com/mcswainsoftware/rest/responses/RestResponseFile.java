@@ -0,0 +1,53 @@
+package com.mcswainsoftware.rest.responses;
+
+import java.io.File;
+
+/**
+ * A response from a Rest request that was downloaded to a file
+ */
+public class RestResponseFile extends RestResponse {
+
+    /**
+     * The data container holding the response
+     */
+    private File content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_FILE;
+
+    /**
+     * Create a file response
+     * @param content the finished file
+     */
+    public RestResponseFile(File content) {
+        this.content = content;
+    }
+
+    /**
+     * Get the response's file
+     * @return the finished file
+     */
+    @Override
+    public File getContent() {
+        return content;
+    }
+
+    /**
+     * Get the path of the response's file
+     * @return the path
+     */
+    public String getPath() {
+        return content.getPath();
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
@@ -15,6 +15,11 @@ public class RestResponseJSON extends RestResponse {
     */
     private int type = RestResponse.TYPE_JSON;
 
+    /**
+     * The parser of the body, null once it is parsed
+     */
+    private BodyParser parser;
+
     /**
      * Create an JSON response
      * @param content the JSONArray or JSONObject representing your data
@@ -24,11 +29,27 @@ public class RestResponseJSON extends RestResponse {
     }
 
     /**
-     * Get the response's JSON data
-     * @return either a JSONObject or JSONArray representing your response
+     * Create an JSON response that is parsed the first time its content is asked for
+     * @param body the raw body
+     * @param charset the charset declared in the Content-Type, or null
+     * @param parser the parser forming the JSONArray or JSONObject
+     */
+    public RestResponseJSON(byte[] body, String charset, BodyParser parser) {
+        setBody(body);
+        setCharset(charset);
+        this.parser = parser;
+    }
+
+    /**
+     * Get the response's JSON data, parsing it on the first call
+     * @return either a JSONObject or JSONArray representing your response, or null if the body isn't valid JSON
      */
     @Override
-    public Object getContent() {
+    public synchronized Object getContent() {
+        if (parser != null) {
+            content = parseBody(parser);
+            parser = null;
+        }
         return content;
     }
 
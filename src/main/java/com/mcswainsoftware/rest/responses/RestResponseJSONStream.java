@@ -0,0 +1,45 @@
+package com.mcswainsoftware.rest.responses;
+
+/**
+ * A streamed JSON response from a Rest request
+ *
+ * The items were handed to the item receiver one by one as they were read, only their count is kept
+ */
+public class RestResponseJSONStream extends RestResponse {
+
+    /**
+     * The data container holding the response
+     */
+    private Integer content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_JSON_STREAM;
+
+    /**
+     * Create a streamed JSON response
+     * @param content the number of items that were handed to the item receiver
+     */
+    public RestResponseJSONStream(Integer content) {
+        this.content = content;
+    }
+
+    /**
+     * Get the number of items that were handed to the item receiver
+     * @return the item count
+     */
+    @Override
+    public Integer getContent() {
+        return content;
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
@@ -15,6 +15,11 @@ public class RestResponsePlainText extends RestResponse {
      */
     private int type = RestResponse.TYPE_PLAIN_TEXT;
 
+    /**
+     * The decoder of the body, null once it is decoded
+     */
+    private BodyParser parser;
+
     /**
      * Create an plain text response
      * @param content the String representing your content
@@ -24,11 +29,27 @@ public class RestResponsePlainText extends RestResponse {
     }
 
     /**
-     * Get the response's content
+     * Create an plain text response that is decoded the first time its content is asked for
+     * @param body the raw body
+     * @param charset the charset declared in the Content-Type, or null
+     * @param parser the parser forming the String
+     */
+    public RestResponsePlainText(byte[] body, String charset, BodyParser parser) {
+        setBody(body);
+        setCharset(charset);
+        this.parser = parser;
+    }
+
+    /**
+     * Get the response's content, decoding it on the first call
      * @return a String containing your response
      */
     @Override
-    public String getContent() {
+    public synchronized String getContent() {
+        if (parser != null) {
+            content = (String) parseBody(parser);
+            parser = null;
+        }
         return content;
     }
 
@@ -0,0 +1,48 @@
+package com.mcswainsoftware.rest.responses;
+
+import java.io.InputStream;
+
+/**
+ * A streaming response from a Rest request
+ *
+ * The stream is the live response body, it is only valid while the callback runs
+ * It is handed to the callback on the worker thread, and closed once the callback returns
+ */
+public class RestResponseStream extends RestResponse {
+
+    /**
+     * The data container holding the response
+     */
+    private InputStream content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_STREAM;
+
+    /**
+     * Create a streaming response
+     * @param content the InputStream of the response body
+     */
+    public RestResponseStream(InputStream content) {
+        this.content = content;
+    }
+
+    /**
+     * Get the response's body
+     * @return an InputStream reading the response body from the connection
+     */
+    @Override
+    public InputStream getContent() {
+        return content;
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
@@ -0,0 +1,58 @@
+package com.mcswainsoftware.rest.responses;
+
+/**
+ * The result of a Rest request that ran out of time
+ */
+public class RestResponseTimeout extends RestResponse {
+
+    /**
+     * The connection couldn't be opened within the connect timeout
+     */
+    public static final int KIND_CONNECT = 0;
+
+    /**
+     * The server went quiet for longer than the read timeout
+     */
+    public static final int KIND_READ = 1;
+
+    /**
+     * The request as a whole went past its deadline
+     */
+    public static final int KIND_DEADLINE = 2;
+
+    /**
+     * The data container holding the response
+     */
+    private Integer content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_TIMEOUT;
+
+    /**
+     * Create a timeout result
+     * @param content which timeout was hit, one of the KIND constants
+     */
+    public RestResponseTimeout(Integer content) {
+        this.content = content;
+    }
+
+    /**
+     * Get which timeout was hit
+     * @return {@link #KIND_CONNECT}, {@link #KIND_READ} or {@link #KIND_DEADLINE}
+     */
+    @Override
+    public Integer getContent() {
+        return content;
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
@@ -0,0 +1,44 @@
+package com.mcswainsoftware.rest.responses;
+
+/**
+ * A response from a Rest request that was decoded into an object by its codec
+ * @param <T> the type of the decoded object
+ */
+public class RestResponseTyped<T> extends RestResponse {
+
+    /**
+     * The data container holding the response
+     */
+    private T content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_TYPED;
+
+    /**
+     * Create a typed response
+     * @param content the decoded object, can be null
+     */
+    public RestResponseTyped(T content) {
+        this.content = content;
+    }
+
+    /**
+     * Get the response's decoded object
+     * @return the object the codec returned
+     */
+    @Override
+    public T getContent() {
+        return content;
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
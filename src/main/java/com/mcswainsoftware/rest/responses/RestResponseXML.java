@@ -17,6 +17,11 @@ public class RestResponseXML extends RestResponse {
      */
     private int type = RestResponse.TYPE_XML;
 
+    /**
+     * The parser of the body, null once it is parsed
+     */
+    private BodyParser parser;
+
     /**
      * Create an XML response
      * @param content the Document representing your XML
@@ -26,11 +31,27 @@ public class RestResponseXML extends RestResponse {
     }
 
     /**
-     * Get the response's XML Document
-     * @return a Document representing your XML
+     * Create an XML response that is parsed the first time its content is asked for
+     * @param body the raw body
+     * @param charset the charset declared in the Content-Type, or null
+     * @param parser the parser forming the Document
+     */
+    public RestResponseXML(byte[] body, String charset, BodyParser parser) {
+        setBody(body);
+        setCharset(charset);
+        this.parser = parser;
+    }
+
+    /**
+     * Get the response's XML Document, parsing it on the first call
+     * @return a Document representing your XML, or null if the body isn't valid XML
      */
     @Override
-    public Document getContent() {
+    public synchronized Document getContent() {
+        if (parser != null) {
+            content = (Document) parseBody(parser);
+            parser = null;
+        }
         return content;
     }
 
@@ -0,0 +1,47 @@
+package com.mcswainsoftware.rest.responses;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A streamed XML response from a Rest request
+ *
+ * The body was handed to the handler element by element as it was read, nothing else is kept
+ */
+public class RestResponseXMLStream extends RestResponse {
+
+    /**
+     * The data container holding the response
+     */
+    private DefaultHandler content;
+
+    /**
+     * The type of data this response represents
+     */
+    private int type = RestResponse.TYPE_XML_STREAM;
+
+    /**
+     * Create a streamed XML response
+     * @param content the handler that was given the XML events
+     */
+    public RestResponseXMLStream(DefaultHandler content) {
+        this.content = content;
+    }
+
+    /**
+     * Get the handler that was given the XML events
+     * @return the handler set on the request
+     */
+    @Override
+    public DefaultHandler getContent() {
+        return content;
+    }
+
+    /**
+     * Get the data type
+     * @return the data's type
+     */
+    @Override
+    public int getType() {
+        return type;
+    }
+}
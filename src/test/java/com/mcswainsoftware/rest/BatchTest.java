@@ -0,0 +1,79 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+
+    private MockServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setEventListener(null);
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void failFastCancelsTheOtherRequests() throws Exception {
+        final CountDownLatch canceled = new CountDownLatch(2);
+        Rest.setEventListener(new EventListener() {
+            @Override
+            public void callCanceled(Call call, long nanoTime) {
+                canceled.countDown();
+            }
+        });
+        server.enqueue(new MockServer.Response().setStatus(500).setBody("broken"));
+        server.enqueue(new MockServer.Response().setDelay(3000).setBody("slow"));
+        server.enqueue(new MockServer.Response().setDelay(3000).setBody("slow"));
+        List<RestRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) requests.add(new RestRequest(server.url("/" + i), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<List<RestResponse>> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+        Rest.executeAll(requests, 3, Rest.BATCH_FAIL_FAST, null, new Rest.OnBatchCompletedReceiver() {
+            @Override
+            public void onBatchCompleted(List<RestResponse> responses) {
+                results.add(responses);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(canceled.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2500);
+        int failed = 0;
+        for (RestResponse response : results.get(0)) {
+            if (response != null) {
+                assertFalse(response.isSuccessful());
+                failed++;
+            }
+        }
+        assertEquals(1, failed);
+    }
+}
@@ -0,0 +1,75 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompressionTest {
+
+    private MockServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void gzipResponseIsDecoded() throws Exception {
+        server.enqueue(new MockServer.Response().addHeader("Content-Encoding", "gzip").setBody(Rest.gzip("squeezed".getBytes("UTF-8"))));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+
+        assertEquals("squeezed", response.getContent());
+        assertEquals("gzip, deflate", server.takeRequest().getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void rawDeflateResponseIsDecoded() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        out.write("raw deflate".getBytes("UTF-8"));
+        out.close();
+        server.enqueue(new MockServer.Response().addHeader("Content-Encoding", "deflate").setBody(bytes.toByteArray()));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+
+        assertEquals("raw deflate", response.getContent());
+    }
+
+    @Test
+    public void postBodyIsGzippedOverThreshold() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("ok"));
+        RestRequest request = new RestRequest(server.url("/upload"), RestRequest.RETURN_TYPE_PLAIN_TEXT, RestRequest.METHOD_POST);
+        request.setPostData("a body long enough to be compressed");
+        request.setCompressionThreshold(8);
+
+        assertEquals("ok", SyncReceiver.execute(request).getContent());
+        MockServer.Request sent = server.takeRequest();
+        assertEquals("gzip", sent.getHeader("Content-Encoding"));
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(sent.getBody()));
+        assertEquals("a body long enough to be compressed", new String(ResponseReader.readFully(in, -1), "UTF-8"));
+    }
+}
@@ -0,0 +1,152 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DiskResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockServer server;
+
+    private DiskResponseCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        cache = new DiskResponseCache(folder.newFolder("cache"), 1024 * 1024);
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        Rest.setResponseCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setResponseCache(null);
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void freshEntryIsServedWithoutNetwork() throws Exception {
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody("fresh"));
+
+        assertEquals("fresh", get("/fresh").getContent());
+        RestResponse cached = get("/fresh");
+
+        assertEquals("fresh", cached.getContent());
+        assertEquals(200, cached.getStatusCode());
+        server.takeRequest();
+        assertEquals(0, server.requestCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getNetworkCount());
+    }
+
+    @Test
+    public void staleEntryIsRevalidated() throws Exception {
+        server.enqueue(new MockServer.Response().addHeader("ETag", "\"v1\"").addHeader("Cache-Control", "no-cache")
+                .setBody("tagged"));
+        server.enqueue(new MockServer.Response().setStatus(304).addHeader("ETag", "\"v1\""));
+
+        assertEquals("tagged", get("/etag").getContent());
+        RestResponse revalidated = get("/etag");
+
+        assertEquals("tagged", revalidated.getContent());
+        assertEquals(200, revalidated.getStatusCode());
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals(1, cache.getConditionalHitCount());
+    }
+
+    @Test
+    public void noStoreIsNotCached() throws Exception {
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "no-store, max-age=60").setBody("first"));
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "no-store, max-age=60").setBody("second"));
+
+        assertEquals("first", get("/private").getContent());
+        assertEquals("second", get("/private").getContent());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        File directory = folder.newFolder("small");
+        byte[] body = new byte[600];
+        cache = new DiskResponseCache(directory, 1000);
+        Rest.setResponseCache(cache);
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody(body));
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody(body));
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody(body));
+
+        getBinary("/a");
+        getBinary("/b");
+        getBinary("/a");
+
+        assertEquals(1, directory.list().length);
+        assertEquals(3, cache.getNetworkCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void entriesAreKeptPerCredentials() throws Exception {
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody("alice"));
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody("bob"));
+
+        assertEquals("alice", get("/me", "alice", "secret").getContent());
+        assertEquals("bob", get("/me", "bob", "secret").getContent());
+        assertEquals("alice", get("/me", "alice", "secret").getContent());
+        assertEquals(1, cache.getHitCount());
+
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").setBody("anonymous"));
+        assertEquals("anonymous", get("/me").getContent());
+    }
+
+    @Test
+    public void entryIsOnlyServedForTheSameVaryHeaders() throws Exception {
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").addHeader("Vary", "Accept-Language")
+                .setBody("english"));
+        server.enqueue(new MockServer.Response().addHeader("Cache-Control", "max-age=60").addHeader("Vary", "Accept-Language")
+                .setBody("french"));
+
+        assertEquals("english", getWithLanguage("en").getContent());
+        assertEquals("french", getWithLanguage("fr").getContent());
+        assertEquals("french", getWithLanguage("fr").getContent());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    private RestResponse get(String path) throws InterruptedException {
+        return SyncReceiver.execute(new RestRequest(server.url(path), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+    }
+
+    private RestResponse get(String path, String username, String password) throws InterruptedException {
+        return SyncReceiver.execute(new RestRequest(server.url(path), RestRequest.RETURN_TYPE_PLAIN_TEXT,
+                RestRequest.METHOD_GET, username, password));
+    }
+
+    private RestResponse getWithLanguage(String language) throws InterruptedException {
+        RestRequest request = new RestRequest(server.url("/greeting"), RestRequest.RETURN_TYPE_PLAIN_TEXT);
+        request.addHeader("Accept-Language", language);
+        return SyncReceiver.execute(request);
+    }
+
+    private RestResponse getBinary(String path) throws InterruptedException {
+        return SyncReceiver.execute(new RestRequest(server.url(path), RestRequest.RETURN_TYPE_BINARY));
+    }
+}
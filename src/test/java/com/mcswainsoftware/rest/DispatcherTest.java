@@ -0,0 +1,73 @@
+package com.mcswainsoftware.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherTest {
+
+    private MockServer server;
+
+    private Dispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        dispatcher = Rest.getDispatcher();
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setDispatcher(dispatcher);
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void requestsOnlyRunOnFreeWorkers() throws Exception {
+        Dispatcher workers = new Dispatcher(2);
+        Rest.setDispatcher(workers);
+        List<SyncReceiver> receivers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            server.enqueue(new MockServer.Response().setDelay(200).setBody("ok"));
+            SyncReceiver receiver = new SyncReceiver();
+            Rest.executeRequest(new RestRequest(server.url("/" + i), RestRequest.RETURN_TYPE_PLAIN_TEXT), receiver);
+            receivers.add(receiver);
+        }
+
+        assertEquals(2, workers.runningCallsCount());
+        assertEquals(4, workers.queuedCallsCount());
+        for (SyncReceiver receiver : receivers) assertEquals("ok", receiver.await().getContent());
+    }
+
+    @Test
+    public void limitFollowsTheRequestsWorkersCanRun() throws Exception {
+        Dispatcher workers = new Dispatcher(2);
+        AdaptiveLimiter limiter = new AdaptiveLimiter();
+        workers.setLimiter(limiter);
+        Rest.setDispatcher(workers);
+        List<SyncReceiver> receivers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            server.enqueue(new MockServer.Response().setDelay(5).setBody("ok"));
+            SyncReceiver receiver = new SyncReceiver();
+            Rest.executeRequest(new RestRequest(server.url("/" + i), RestRequest.RETURN_TYPE_PLAIN_TEXT), receiver);
+            receivers.add(receiver);
+        }
+        for (SyncReceiver receiver : receivers) receiver.await();
+
+        assertTrue(limiter.getLimit("127.0.0.1") <= 4);
+    }
+}
@@ -0,0 +1,572 @@
+package com.mcswainsoftware.rest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP/1.1 server for tests, answering requests with scripted responses in the order they were enqueued
+ *
+ * Every socket gets its own thread and is kept alive until a response asks to close it
+ * Requests are recorded with the number of the socket they came on, so tests can tell whether a socket was reused
+ * Once the script runs out every request gets a 500
+ */
+class MockServer implements Closeable {
+
+    /**
+     * The listening socket
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * The responses still to send
+     */
+    private final BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+
+    /**
+     * The requests received
+     */
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+    /**
+     * The accepted sockets still open
+     */
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    /**
+     * Number of sockets accepted
+     */
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /**
+     * Form a MockServer and start it on a free loopback port
+     * @throws IOException if the port can't be opened
+     */
+    MockServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "MockServer accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Add a response to the script
+     * @param response the response
+     * @return this server
+     */
+    MockServer enqueue(Response response) {
+        responses.add(response);
+        return this;
+    }
+
+    /**
+     * Get the URL of a path on this server
+     * @param path the path, starting with /
+     * @return the URL
+     */
+    String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Get the port the server listens on
+     * @return the port
+     */
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Take the next request received, waiting up to 5 seconds for it
+     * @return the request
+     * @throws InterruptedException if the thread was interrupted
+     */
+    Request takeRequest() throws InterruptedException {
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        if (request == null) throw new AssertionError("No request received");
+        return request;
+    }
+
+    /**
+     * Get the number of requests received and not taken yet
+     * @return the number of requests
+     */
+    int requestCount() {
+        return requests.size();
+    }
+
+    /**
+     * Get the number of sockets accepted
+     * @return the number of sockets
+     */
+    int connectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Stop listening and close every socket
+     */
+    @Override
+    public void close() {
+        closeQuietly(serverSocket);
+        synchronized (sockets) {
+            for (Socket socket : sockets) closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Accept sockets until the server is closed
+     */
+    private void accept() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            final int connection = connectionCount.incrementAndGet();
+            sockets.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket, connection);
+                    } catch (IOException ignored) {
+                    } finally {
+                        sockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            }, "MockServer socket #" + connection);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Answer the requests of one socket
+     * @param socket the socket
+     * @param connection the number of the socket
+     * @throws IOException if the socket fails
+     */
+    private void serve(Socket socket, int connection) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        for (int sequence = 0; ; sequence++) {
+            String requestLine = readLine(in);
+            if (requestLine == null) return;
+            TreeMap<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String line = readLine(in); line != null && line.length() != 0; line = readLine(in)) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            byte[] body = readBody(in, headers);
+            Request request = new Request(requestLine, headers, body, connection, sequence);
+            requests.add(request);
+
+            Response response = responses.poll();
+            if (response == null) response = new Response().setStatus(500).setBody("No response enqueued");
+            if (response.disconnectAtStart) return;
+            sleep(response.delayMillis);
+            response.writeTo(out, request.getMethod().equals("HEAD"));
+            if (response.closeAfter) return;
+        }
+    }
+
+    /**
+     * Helper for reading a request body of Content-Length or chunked encoding
+     * @param in the socket
+     * @param headers the request headers
+     * @return the body, empty if there is none
+     * @throws IOException if it can't be read
+     */
+    private static byte[] readBody(InputStream in, TreeMap<String, String> headers) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+            while (true) {
+                String size = readLine(in);
+                if (size == null) throw new IOException("Unexpected end of chunked body");
+                int semicolon = size.indexOf(';');
+                int length = Integer.parseInt((semicolon != -1 ? size.substring(0, semicolon) : size).trim(), 16);
+                if (length == 0) {
+                    while (true) {
+                        String trailer = readLine(in);
+                        if (trailer == null || trailer.length() == 0) break;
+                    }
+                    break;
+                }
+                copy(in, body, length);
+                readLine(in);
+            }
+        } else if (headers.containsKey("Content-Length")) {
+            copy(in, body, Long.parseLong(headers.get("Content-Length")));
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Helper for copying an exact number of bytes
+     * @param in the source
+     * @param out the destination
+     * @param length the number of bytes
+     * @throws IOException if the source ends early
+     */
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1) throw new IOException("Unexpected end of body");
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Helper for reading a line ended by CRLF
+     * @param in the socket
+     * @return the line without its end, or null at the end of the stream
+     * @throws IOException if it can't be read
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        try {
+            c = in.read();
+        } catch (SocketException e) {
+            return null;
+        }
+        if (c == -1) return null;
+        while (c != '\n' && c != -1) {
+            if (c != '\r') line.append((char) c);
+            c = in.read();
+        }
+        return line.toString();
+    }
+
+    /**
+     * Helper for waiting without caring about interrupts
+     * @param millis the time to wait, in milliseconds
+     */
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Helper for closing without caring about failures
+     * @param closeable the thing to close
+     */
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A scripted response
+     */
+    static class Response {
+
+        /**
+         * The status code
+         */
+        private int status = 200;
+
+        /**
+         * The headers, in the order they are sent
+         */
+        private final List<String[]> headers = new ArrayList<>();
+
+        /**
+         * The body
+         */
+        private byte[] body = new byte[0];
+
+        /**
+         * The size of each chunk, or 0 to send a Content-Length
+         */
+        private int chunkSize;
+
+        /**
+         * Whether no Content-Length is sent and the body is ended by closing the socket
+         */
+        private boolean untilClose;
+
+        /**
+         * Whether the socket is closed after the response, without saying so in the headers
+         */
+        private boolean closeAfter;
+
+        /**
+         * Whether the socket is closed as soon as the request arrived, without answering
+         */
+        private boolean disconnectAtStart;
+
+        /**
+         * The time to wait before answering, in milliseconds
+         */
+        private long delayMillis;
+
+        /**
+         * Set the status code
+         * @param status the status code
+         * @return this response
+         */
+        Response setStatus(int status) {
+            this.status = status;
+            return this;
+        }
+
+        /**
+         * Add a header
+         * @param name the name
+         * @param value the value
+         * @return this response
+         */
+        Response addHeader(String name, String value) {
+            headers.add(new String[]{name, value});
+            return this;
+        }
+
+        /**
+         * Set the body
+         * @param body the body, sent as UTF-8
+         * @return this response
+         */
+        Response setBody(String body) {
+            try {
+                return setBody(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Set the body
+         * @param body the body
+         * @return this response
+         */
+        Response setBody(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Send the body in chunks instead of with a Content-Length
+         * @param chunkSize the size of each chunk
+         * @return this response
+         */
+        Response setChunked(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Send the body without a Content-Length and close the socket after it
+         * @return this response
+         */
+        Response setUntilClose() {
+            this.untilClose = true;
+            this.closeAfter = true;
+            return this;
+        }
+
+        /**
+         * Close the socket after the response without a Connection: close, so the client finds out on its next request
+         * @return this response
+         */
+        Response setCloseAfter() {
+            this.closeAfter = true;
+            return this;
+        }
+
+        /**
+         * Close the socket as soon as the request arrived, without answering
+         * @return this response
+         */
+        Response setDisconnectAtStart() {
+            this.disconnectAtStart = true;
+            return this;
+        }
+
+        /**
+         * Wait before answering
+         * @param delayMillis the time to wait, in milliseconds
+         * @return this response
+         */
+        Response setDelay(long delayMillis) {
+            this.delayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * Write the response
+         * @param out the socket
+         * @param headRequest whether it answers a HEAD request, so no body is sent
+         * @throws IOException if it can't be written
+         */
+        void writeTo(OutputStream out, boolean headRequest) throws IOException {
+            boolean noBody = headRequest || status == 204 || status == 304 || status < 200;
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append(' ').append(reasonOf(status)).append("\r\n");
+            for (String[] header : headers) head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+            if (chunkSize > 0) head.append("Transfer-Encoding: chunked\r\n");
+            else if (!untilClose && !(noBody && !headRequest)) head.append("Content-Length: ").append(body.length).append("\r\n");
+            head.append("\r\n");
+            out.write(head.toString().getBytes("ISO-8859-1"));
+            if (!noBody) {
+                if (chunkSize > 0) {
+                    for (int offset = 0; offset < body.length; offset += chunkSize) {
+                        int length = Math.min(chunkSize, body.length - offset);
+                        out.write((Integer.toHexString(length) + "\r\n").getBytes("ISO-8859-1"));
+                        out.write(body, offset, length);
+                        out.write("\r\n".getBytes("ISO-8859-1"));
+                        out.flush();
+                    }
+                    out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+                } else {
+                    out.write(body);
+                }
+            }
+            out.flush();
+        }
+
+        /**
+         * Helper for the reason phrase of a status code
+         * @param status the status code
+         * @return the reason phrase
+         */
+        private static String reasonOf(int status) {
+            switch (status) {
+                case 200:
+                    return "OK";
+                case 204:
+                    return "No Content";
+                case 304:
+                    return "Not Modified";
+                case 404:
+                    return "Not Found";
+                case 500:
+                    return "Internal Server Error";
+                case 503:
+                    return "Service Unavailable";
+            }
+            return "Status";
+        }
+    }
+
+    /**
+     * A recorded request
+     */
+    static class Request {
+
+        /**
+         * The request line, such as GET / HTTP/1.1
+         */
+        private final String requestLine;
+
+        /**
+         * The headers
+         */
+        private final TreeMap<String, String> headers;
+
+        /**
+         * The body
+         */
+        private final byte[] body;
+
+        /**
+         * The number of the socket it came on, from 1
+         */
+        private final int connection;
+
+        /**
+         * The number of requests that came on the same socket before it
+         */
+        private final int sequence;
+
+        Request(String requestLine, TreeMap<String, String> headers, byte[] body, int connection, int sequence) {
+            this.requestLine = requestLine;
+            this.headers = headers;
+            this.body = body;
+            this.connection = connection;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Get the method
+         * @return the method, such as GET
+         */
+        String getMethod() {
+            return requestLine.substring(0, requestLine.indexOf(' ')).toUpperCase(Locale.US);
+        }
+
+        /**
+         * Get the path and query
+         * @return the path
+         */
+        String getPath() {
+            return requestLine.substring(requestLine.indexOf(' ') + 1, requestLine.lastIndexOf(' '));
+        }
+
+        /**
+         * Get a header
+         * @param name the name, in any case
+         * @return the value, or null if it wasn't sent
+         */
+        String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * Get the body
+         * @return the body, empty if there was none
+         */
+        byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Get the number of the socket the request came on
+         * @return the number, from 1
+         */
+        int getConnection() {
+            return connection;
+        }
+
+        /**
+         * Get the number of requests that came on the same socket before this one
+         * @return the number, 0 for the first request of a socket
+         */
+        int getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioTransportTest {
+
+    private MockServer server;
+
+    private NioTransport transport;
+
+    private Dispatcher dispatcher;
+
+    private Dns dns;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        transport = new NioTransport();
+        dispatcher = Rest.getDispatcher();
+        dns = Rest.getDns();
+        Rest.setTransport(transport);
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setDispatcher(dispatcher);
+        Rest.setDns(dns);
+        Rest.setEventListener(null);
+        Rest.setTransport(null);
+        Rest.setCallbackExecutor(null);
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void chunkedBodyIsRead() throws Exception {
+        server.enqueue(new MockServer.Response().setChunked(4).setBody("a body sent in chunks"));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+
+        assertEquals("a body sent in chunks", response.getContent());
+    }
+
+    @Test
+    public void socketIsReused() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("first"));
+        server.enqueue(new MockServer.Response().setChunked(3).setBody("second"));
+
+        assertEquals("first", SyncReceiver.execute(new RestRequest(server.url("/1"), RestRequest.RETURN_TYPE_PLAIN_TEXT)).getContent());
+        assertEquals("second", SyncReceiver.execute(new RestRequest(server.url("/2"), RestRequest.RETURN_TYPE_PLAIN_TEXT)).getContent());
+
+        assertEquals(1, server.connectionCount());
+        assertEquals(1, server.takeRequest().getSequence() + server.takeRequest().getSequence());
+    }
+
+    @Test
+    public void staleSocketIsRetriedOnANewOne() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("first").setCloseAfter());
+        server.enqueue(new MockServer.Response().setBody("second"));
+
+        assertEquals("first", SyncReceiver.execute(new RestRequest(server.url("/1"), RestRequest.RETURN_TYPE_PLAIN_TEXT)).getContent());
+        Thread.sleep(100);
+        assertEquals("second", SyncReceiver.execute(new RestRequest(server.url("/2"), RestRequest.RETURN_TYPE_PLAIN_TEXT)).getContent());
+
+        assertEquals(2, server.connectionCount());
+    }
+
+    @Test
+    public void headResponseHasNoBody() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("not sent"));
+        server.enqueue(new MockServer.Response().setBody("after"));
+
+        HttpURLConnection conn = transport.open(new URL(server.url("/")));
+        conn.setRequestMethod("HEAD");
+        assertEquals(200, conn.getResponseCode());
+        assertEquals(8, conn.getContentLength());
+        assertEquals(-1, conn.getInputStream().read());
+
+        assertEquals("after", SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT)).getContent());
+        assertEquals(1, server.connectionCount());
+    }
+
+    @Test
+    public void notModifiedAndNoContentHaveNoBody() throws Exception {
+        server.enqueue(new MockServer.Response().setStatus(304));
+        server.enqueue(new MockServer.Response().setStatus(204));
+        server.enqueue(new MockServer.Response().setBody("after"));
+
+        HttpURLConnection notModified = transport.open(new URL(server.url("/")));
+        assertEquals(304, notModified.getResponseCode());
+        assertEquals(-1, notModified.getInputStream().read());
+        HttpURLConnection noContent = transport.open(new URL(server.url("/")));
+        assertEquals(204, noContent.getResponseCode());
+        assertEquals(-1, noContent.getInputStream().read());
+
+        assertEquals("after", SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT)).getContent());
+        assertEquals(1, server.connectionCount());
+    }
+
+    @Test
+    public void cancelAbortsTheWaitingRequest() throws Exception {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        Rest.setEventListener(new EventListener() {
+            @Override
+            public void callCanceled(Call call, long nanoTime) {
+                canceled.countDown();
+            }
+        });
+        server.enqueue(new MockServer.Response().setDelay(3000).setBody("late"));
+        SyncReceiver receiver = new SyncReceiver();
+
+        Call call = Rest.executeRequest(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT), receiver);
+        server.takeRequest();
+        call.cancel();
+
+        assertTrue(canceled.await(1, TimeUnit.SECONDS));
+        assertTrue(!receiver.isDone());
+    }
+
+    @Test
+    public void disconnectBeforeSendingIsKept() throws Exception {
+        HttpURLConnection conn = transport.open(new URL(server.url("/")));
+        conn.disconnect();
+
+        try {
+            conn.getResponseCode();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, server.requestCount());
+    }
+
+    @Test
+    public void waitingRequestsDontHoldWorkers() throws Exception {
+        Rest.setDispatcher(new Dispatcher(1));
+        server.enqueue(new MockServer.Response().setDelay(1000).setBody("one"));
+        server.enqueue(new MockServer.Response().setDelay(1000).setBody("two"));
+        SyncReceiver first = new SyncReceiver();
+        SyncReceiver second = new SyncReceiver();
+
+        long start = System.nanoTime();
+        Rest.executeRequest(new RestRequest(server.url("/1"), RestRequest.RETURN_TYPE_PLAIN_TEXT), first);
+        Rest.executeRequest(new RestRequest(server.url("/2"), RestRequest.RETURN_TYPE_PLAIN_TEXT), second);
+        first.await();
+        second.await();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1800);
+        assertEquals(2, server.connectionCount());
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsStreamedChunked() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("ok"));
+        final byte[] upload = new byte[200 * 1024];
+        for (int i = 0; i < upload.length; i++) upload[i] = (byte) i;
+        RestRequest request = new RestRequest(server.url("/upload"), RestRequest.RETURN_TYPE_PLAIN_TEXT, RestRequest.METHOD_POST);
+        request.setBody(new RequestBodyStream(new RequestBodyStream.Source() {
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(upload);
+            }
+        }, -1, "application/octet-stream"));
+
+        assertEquals("ok", SyncReceiver.execute(request).getContent());
+        MockServer.Request sent = server.takeRequest();
+        assertEquals("chunked", sent.getHeader("Transfer-Encoding"));
+        assertTrue(Arrays.equals(upload, sent.getBody()));
+    }
+
+    @Test
+    public void bodyOfKnownLengthIsStreamedWithItsLength() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("ok"));
+        RestRequest request = new RestRequest(server.url("/upload"), RestRequest.RETURN_TYPE_PLAIN_TEXT, RestRequest.METHOD_POST);
+        request.setPostData("name=value");
+
+        assertEquals("ok", SyncReceiver.execute(request).getContent());
+        MockServer.Request sent = server.takeRequest();
+        assertEquals("10", sent.getHeader("Content-Length"));
+        assertEquals("name=value", new String(sent.getBody(), "UTF-8"));
+    }
+
+    @Test
+    public void redirectIsFollowed() throws Exception {
+        server.enqueue(new MockServer.Response().setStatus(302).addHeader("Location", "/moved"));
+        server.enqueue(new MockServer.Response().setBody("moved"));
+        RestRequest request = new RestRequest(server.url("/old"), RestRequest.RETURN_TYPE_PLAIN_TEXT, RestRequest.METHOD_POST);
+        request.setPostData("name=value");
+
+        assertEquals("moved", SyncReceiver.execute(request).getContent());
+        assertEquals("POST", server.takeRequest().getMethod());
+        MockServer.Request redirected = server.takeRequest();
+        assertEquals("GET", redirected.getMethod());
+        assertEquals("/moved", redirected.getPath());
+    }
+
+    @Test
+    public void redirectIsLeftToTheCallerWhenNotFollowed() throws Exception {
+        server.enqueue(new MockServer.Response().setStatus(302).addHeader("Location", "/moved"));
+
+        HttpURLConnection conn = transport.open(new URL(server.url("/old")));
+        conn.setInstanceFollowRedirects(false);
+
+        assertEquals(302, conn.getResponseCode());
+        assertEquals("/moved", conn.getHeaderField("Location"));
+    }
+
+    @Test
+    public void nextAddressIsTriedWhenConnectingFails() throws Exception {
+        final List<String> lookups = new ArrayList<>();
+        Rest.setDns(new Dns() {
+            @Override
+            public List<InetAddress> lookup(String host) throws UnknownHostException {
+                lookups.add(host);
+                return Arrays.asList(InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.1"));
+            }
+        });
+        server.enqueue(new MockServer.Response().setBody("second address"));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+
+        assertEquals("second address", response.getContent());
+        assertEquals(Arrays.asList("127.0.0.1"), lookups);
+        assertEquals(1, server.connectionCount());
+    }
+
+    @Test
+    public void requestFailsWhenNoAddressConnects() throws Exception {
+        Rest.setDns(new Dns() {
+            @Override
+            public List<InetAddress> lookup(String host) throws UnknownHostException {
+                return Arrays.asList(InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.3"));
+            }
+        });
+
+        assertNull(SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT)));
+        assertEquals(0, server.connectionCount());
+    }
+
+    @Test
+    public void switchingProtocolsFailsTheRequest() throws Exception {
+        server.enqueue(new MockServer.Response().setStatus(101));
+
+        assertNull(SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT)));
+    }
+}
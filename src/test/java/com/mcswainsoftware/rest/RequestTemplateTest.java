@@ -0,0 +1,30 @@
+package com.mcswainsoftware.rest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RequestTemplateTest {
+
+    @Test
+    public void valuesAreEncoded() {
+        RequestTemplate template = new RequestTemplate("http://example.com/users/{id}/posts?q={query}", RestRequest.RETURN_TYPE_JSON);
+
+        RestRequest request = template.newRequest("a b/c", "x&y z");
+
+        assertEquals("http://example.com/users/a%20b%2Fc/posts?q=x%26y+z", request.getBaseURL());
+    }
+
+    @Test
+    public void nullValueIsRejected() {
+        RequestTemplate template = new RequestTemplate("http://example.com/users/{id}", RestRequest.RETURN_TYPE_JSON);
+
+        try {
+            template.newRequest((String) null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Value of {id} is null", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.mcswainsoftware.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseMemoryCacheTest {
+
+    private static final String URL = "http://example.com/me";
+
+    private MockServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setMemoryCache(null);
+        Rest.setEventListener(null);
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void keyCoversPassword() {
+        String alice = ResponseMemoryCache.keyOf(new RestRequest(URL, RestRequest.RETURN_TYPE_JSON, RestRequest.METHOD_GET, "alice", "one"));
+        String other = ResponseMemoryCache.keyOf(new RestRequest(URL, RestRequest.RETURN_TYPE_JSON, RestRequest.METHOD_GET, "alice", "two"));
+        String again = ResponseMemoryCache.keyOf(new RestRequest(URL, RestRequest.RETURN_TYPE_JSON, RestRequest.METHOD_GET, "alice", "one"));
+
+        assertNotEquals(alice, other);
+        assertEquals(alice, again);
+        assertFalse(alice.contains("one"));
+    }
+
+    @Test
+    public void requestsUsingProviderAreNotShared() {
+        CredentialsProvider provider = new CredentialsProvider() {
+            @Override
+            public Credentials getCredentials(URL url, String realm) {
+                return new Credentials("alice", "one");
+            }
+        };
+        RestRequest anonymous = new RestRequest(URL, RestRequest.RETURN_TYPE_JSON);
+        RestRequest withProvider = new RestRequest(URL, RestRequest.RETURN_TYPE_JSON);
+        withProvider.setCredentialsProvider(provider);
+        RestRequest withCredentials = new RestRequest(URL, RestRequest.RETURN_TYPE_JSON, RestRequest.METHOD_GET, "bob", "two");
+
+        assertTrue(ResponseMemoryCache.isSharable(anonymous, null));
+        assertFalse(ResponseMemoryCache.isSharable(anonymous, provider));
+        assertFalse(ResponseMemoryCache.isSharable(withProvider, null));
+        assertTrue(ResponseMemoryCache.isSharable(withCredentials, provider));
+    }
+
+    @Test
+    public void sharedRequestCompletesWhenAListenerThrows() throws Exception {
+        Rest.setMemoryCache(new ResponseMemoryCache(10, 60000));
+        final CountDownLatch joined = new CountDownLatch(1);
+        final AtomicBoolean thrown = new AtomicBoolean();
+        LatencyAggregator aggregator = new LatencyAggregator() {
+            @Override
+            public void callDequeued(Call call, long nanoTime) {
+                super.callDequeued(call, nanoTime);
+                try {
+                    joined.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                if (thrown.compareAndSet(false, true)) throw new IllegalStateException("listener failed");
+            }
+        };
+        Rest.setEventListener(aggregator);
+        server.enqueue(new MockServer.Response().setBody("never read"));
+        SyncReceiver first = new SyncReceiver();
+        SyncReceiver second = new SyncReceiver();
+
+        Rest.executeRequest(new RestRequest(server.url("/shared"), RestRequest.RETURN_TYPE_PLAIN_TEXT), first);
+        Rest.executeRequest(new RestRequest(server.url("/shared"), RestRequest.RETURN_TYPE_PLAIN_TEXT), second);
+        joined.countDown();
+
+        assertNull(first.await());
+        assertNull(second.await());
+        assertTrue(aggregator.getHostLatencies().containsKey("127.0.0.1"));
+    }
+}
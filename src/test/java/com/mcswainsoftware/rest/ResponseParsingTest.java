@@ -0,0 +1,113 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ResponseParsingTest {
+
+    private MockServer server;
+
+    private final AtomicInteger parsed = new AtomicInteger();
+
+    private volatile Thread parseThread;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        Rest.setEventListener(new EventListener() {
+            @Override
+            public void parseEnd(Call call, long nanoTime) {
+                parseThread = Thread.currentThread();
+                parsed.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setEventListener(null);
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void successfulBodyIsParsedOnlyWhenAskedFor() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("{\"name\":\"value\"}"));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_JSON));
+
+        assertEquals(0, parsed.get());
+        assertEquals(200, response.getStatusCode());
+        assertEquals("value", ((JSONObject) response.getContent()).getString("name"));
+    }
+
+    @Test
+    public void successfulBodyIsParsedOnTheWorkerWhenAsked() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("{\"name\":\"value\"}"));
+        RestRequest request = new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_JSON);
+        request.setParseOnWorker(true);
+
+        RestResponse response = SyncReceiver.execute(request);
+
+        assertEquals(1, parsed.get());
+        assertNotSame(Thread.currentThread(), parseThread);
+        assertEquals("value", ((JSONObject) response.getContent()).getString("name"));
+        assertNull(response.getParseError());
+    }
+
+    @Test
+    public void malformedBodyReportsItsError() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("{\"name\":"));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_JSON));
+
+        assertNull(response.getContent());
+        assertNotNull(response.getParseError());
+    }
+
+    @Test
+    public void errorBodyIsLeftToTheCallback() throws Exception {
+        server.enqueue(new MockServer.Response().setStatus(404).setBody("{\"error\":\"missing\"}"));
+        RestRequest request = new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_JSON);
+        request.setParseOnWorker(true);
+
+        RestResponse response = SyncReceiver.execute(request);
+
+        assertEquals(0, parsed.get());
+        assertEquals(404, response.getStatusCode());
+        assertEquals("missing", ((JSONObject) response.getContent()).getString("error"));
+    }
+
+    @Test
+    public void responseCantBeChangedWithoutTheLibraryKey() throws Exception {
+        server.enqueue(new MockServer.Response().setBody("shared"));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+
+        try {
+            response.setStatus(null, 500, null);
+            fail();
+        } catch (SecurityException expected) {
+        }
+        assertEquals(200, response.getStatusCode());
+    }
+}
@@ -0,0 +1,27 @@
+package com.mcswainsoftware.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ResponseReaderTest {
+
+    @Test
+    public void hugeDeclaredLengthIsNotAllocatedUpFront() throws Exception {
+        byte[] body = new byte[3 * BufferPool.CHUNK_SIZE + 5];
+        for (int i = 0; i < body.length; i++) body[i] = (byte) i;
+
+        byte[] read = ResponseReader.readFully(new ByteArrayInputStream(body), Integer.MAX_VALUE - 8);
+
+        assertArrayEquals(body, read);
+    }
+
+    @Test
+    public void bodyShorterThanDeclaredIsReturnedAsRead() throws Exception {
+        byte[] body = "short".getBytes("UTF-8");
+
+        assertArrayEquals(body, ResponseReader.readFully(new ByteArrayInputStream(body), 100));
+    }
+}
@@ -0,0 +1,97 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private MockServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockServer();
+        Rest.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Rest.setRetryPolicy(null);
+        Rest.setCircuitBreaker(null);
+        Rest.setEventListener(null);
+        Rest.setCallbackExecutor(null);
+        server.close();
+    }
+
+    @Test
+    public void onlyTransientFailuresAreRetryable() {
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(new ConnectException()));
+        assertTrue(RetryPolicy.isRetryable(new SocketException("Connection reset")));
+        assertTrue(RetryPolicy.isRetryable(new UnknownHostException()));
+        assertTrue(RetryPolicy.isRetryable(new EOFException()));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(503, -1, null)));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(429, -1, null)));
+
+        assertFalse(RetryPolicy.isRetryable(new MalformedURLException()));
+        assertFalse(RetryPolicy.isRetryable(new FileNotFoundException()));
+        assertFalse(RetryPolicy.isRetryable(new IOException("Unsupported Content-Encoding br")));
+        assertFalse(RetryPolicy.isRetryable(new MalformedJsonException("Expected a value")));
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(404, -1, null)));
+    }
+
+    @Test
+    public void transientStatusIsRetried() throws Exception {
+        Rest.setRetryPolicy(new RetryPolicy(2, 1, 10, false));
+        server.enqueue(new MockServer.Response().setStatus(503));
+        server.enqueue(new MockServer.Response().setBody("recovered"));
+
+        RestResponse response = SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+
+        assertEquals("recovered", response.getContent());
+    }
+
+    @Test
+    public void breakerRejectionIsReportedAsFailure() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+        Rest.setCircuitBreaker(breaker);
+        final CountDownLatch failed = new CountDownLatch(2);
+        Rest.setEventListener(new EventListener() {
+            @Override
+            public void callFailed(Call call, long nanoTime, Exception failure) {
+                failed.countDown();
+            }
+        });
+        server.enqueue(new MockServer.Response().setStatus(503));
+
+        SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT));
+        assertNull(SyncReceiver.execute(new RestRequest(server.url("/"), RestRequest.RETURN_TYPE_PLAIN_TEXT)));
+
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, breaker.getRejectedCount());
+    }
+}
@@ -0,0 +1,58 @@
+package com.mcswainsoftware.rest;
+
+import com.mcswainsoftware.rest.responses.RestResponse;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A callback tests can wait on
+ */
+class SyncReceiver implements Rest.OnRestCompletedReceiver {
+
+    /**
+     * Counted down once the callback ran
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * The response given to the callback
+     */
+    private volatile RestResponse response;
+
+    @Override
+    public void onRestCompleted(RestResponse response) {
+        this.response = response;
+        done.countDown();
+    }
+
+    /**
+     * Wait up to 10 seconds for the callback
+     * @return the response given to it
+     * @throws InterruptedException if the thread was interrupted
+     */
+    RestResponse await() throws InterruptedException {
+        if (!done.await(10, TimeUnit.SECONDS)) throw new AssertionError("Callback not run");
+        return response;
+    }
+
+    /**
+     * Whether the callback ran
+     * @return true if it did
+     */
+    boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Run a request and wait for its response
+     * @param request the request
+     * @return the response given to the callback
+     * @throws InterruptedException if the thread was interrupted
+     */
+    static RestResponse execute(RestRequest request) throws InterruptedException {
+        SyncReceiver receiver = new SyncReceiver();
+        Rest.executeRequest(request, receiver);
+        return receiver.await();
+    }
+}